@@ -2,7 +2,8 @@ package com.bozzat.esepkersoft.Controllers;
 
 import com.bozzat.esepkersoft.Models.Sale;
 import com.bozzat.esepkersoft.Models.SaleItem;
-import com.bozzat.esepkersoft.Services.SaleService;
+import com.bozzat.esepkersoft.Services.AsyncDataService;
+import com.bozzat.esepkersoft.Services.SaleRejectedException;
 import com.bozzat.esepkersoft.ViewModel.POSViewModel;
 import com.bozzat.esepkersoft.ViewModel.SaleItemViewModel;
 import javafx.beans.binding.Bindings;
@@ -16,6 +17,7 @@ import javafx.stage.Stage;
 import javax.xml.stream.FactoryConfigurationError;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.function.UnaryOperator;
 
 public class PaymentDialogController {
@@ -135,6 +137,8 @@ public class PaymentDialogController {
                         paymentMethod,
                         posViewModel.totalOfTotalsProperty().get()
                 );
+                // Same key on every attempt for this cart, a retry cannot save the sale twice
+                sale.setIdempotencyKey(posViewModel.getCartKey());
 
                 // Prepare sale items data
                 List<SaleItem> saleItems = new ArrayList<>();
@@ -148,25 +152,32 @@ public class PaymentDialogController {
                     ));
                 }
 
-                // Process sale through service
-                SaleService saleService = new SaleService();
-                boolean success = saleService.addSale(saleItems, sale);
-
-                if (success) {
-                    // Clear current sale data
-                    posViewModel.getSaleItems().clear();
-                    posViewModel.setPaymentMethod(null);
-
-                    // Close the dialog
-                    Stage stage = (Stage) confirmButton.getScene().getWindow();
-                    posViewModel.resetFields();
-                    stage.close();
-
-                    // Show success message
-                    showAlert("Успешно", "Продажа успешно завершена");
-                } else {
-                    showAlert("Ошибка", "Не удалось завершить продажу");
-                }
+                // Process sale off the FX thread, the buttons stay disabled until it is durable
+                setButtonsDisabled(true);
+                AsyncDataService.getInstance().addSale(saleItems, sale).whenComplete((saved, error) -> {
+                    setButtonsDisabled(false);
+                    if (error == null) {
+                        // Clear current sale data
+                        posViewModel.startNewCart();
+                        posViewModel.setPaymentMethod(null);
+
+                        // Close the dialog
+                        Stage stage = (Stage) confirmButton.getScene().getWindow();
+                        posViewModel.resetFields();
+                        stage.close();
+
+                        // Show success message
+                        showAlert("Успешно", "Продажа успешно завершена");
+                    } else {
+                        System.err.println("Sale failed: " + error.getMessage());
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        // The cart is kept, so the cashier can fix it and confirm again
+                        showAlert("Ошибка", cause instanceof SaleRejectedException
+                                ? "Не удалось завершить продажу: " + cause.getMessage()
+                                : "Не удалось завершить продажу");
+                    }
+                });
 
             } catch (Exception e) {
                 showAlert("Ошибка", "Произошла ошибка: " + e.getMessage());
@@ -175,6 +186,11 @@ public class PaymentDialogController {
         });
     }
 
+    private void setButtonsDisabled(boolean disabled) {
+        confirmButton.setDisable(disabled);
+        cancelButton.setDisable(disabled);
+    }
+
     private void showAlert(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
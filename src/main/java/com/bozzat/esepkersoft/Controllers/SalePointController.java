@@ -1,6 +1,11 @@
 package com.bozzat.esepkersoft.Controllers;
 
+import com.bozzat.esepkersoft.Interfaces.SaleRejectionListener;
+import com.bozzat.esepkersoft.Models.Product;
+import com.bozzat.esepkersoft.Models.Sale;
+import com.bozzat.esepkersoft.Services.AsyncDataService;
 import com.bozzat.esepkersoft.Services.ProductService;
+import com.bozzat.esepkersoft.Services.SaleJournal;
 import com.bozzat.esepkersoft.ViewModel.POSViewModel;
 import com.bozzat.esepkersoft.ViewModel.SaleItemViewModel;
 import javafx.application.Platform;
@@ -15,7 +20,10 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
+import javafx.util.StringConverter;
 import javafx.util.converter.NumberStringConverter;
+import org.controlsfx.control.textfield.AutoCompletionBinding;
+import org.controlsfx.control.textfield.TextFields;
 
 import java.util.Objects;
 
@@ -24,10 +32,15 @@ public class SalePointController {
     private static final String PIECE_UNIT = "шт";
     private static final String KG_UNIT = "кг"; // alternative measuring unit
     private static final NumberStringConverter NUMBER_CONVERTER = new NumberStringConverter();
+    private static final int SEARCH_SUGGESTION_LIMIT = 15;
 
     // Services
-    ProductService productService = new ProductService();
-    private POSViewModel posViewModel = new POSViewModel(productService);
+    private POSViewModel posViewModel = new POSViewModel(AsyncDataService.getInstance());
+    // Used directly by the search suggestions, ControlsFX already calls them off the FX thread
+    private final ProductService productService = new ProductService();
+    // Held here, SaleJournal only keeps a weak reference
+    private final SaleRejectionListener saleRejectionListener =
+            (sale, reason) -> Platform.runLater(() -> showSaleRejected(sale, reason));
 
     // FXML components
     @FXML private BorderPane borderPane;
@@ -38,6 +51,7 @@ public class SalePointController {
     @FXML private Label pieceUnitLabel;
     @FXML private StackPane unitContainer;
     @FXML private TextField barcodeScannerField;
+    @FXML private TextField productSearchField;
     @FXML private TableView<SaleItemViewModel> productsTable;
     @FXML private TableColumn<SaleItemViewModel, String> nameColumn;
     @FXML private TableColumn<SaleItemViewModel, Double> priceColumn;
@@ -70,8 +84,10 @@ public class SalePointController {
         setUpTableColumns();
         setUpBindings();
         setUpEventHandlers();
+        setUpProductSearch();
         setUpSelectionHandling();
         setUpGlobalShortcuts();
+        SaleJournal.getInstance().addRejectionListener(saleRejectionListener);
     }
 
     private void setUpTableColumns() {
@@ -141,6 +157,32 @@ public class SalePointController {
         payButton.setOnAction(e -> handlePayButtonAction());
     }
 
+    /**
+     * Type-ahead search by name or part of the barcode, for labels that will not scan.
+     * Picking a suggestion adds the product to the receipt like a scan would.
+     */
+    private void setUpProductSearch() {
+        AutoCompletionBinding<Product> searchBinding = TextFields.bindAutoCompletion(productSearchField,
+                request -> productService.searchProducts(request.getUserText(), SEARCH_SUGGESTION_LIMIT),
+                new StringConverter<Product>() {
+                    @Override
+                    public String toString(Product product) {
+                        return product == null ? "" :
+                                product.getName() + " — " + product.getCurrentPrice() + " (" + product.getBarcode() + ")";
+                    }
+
+                    @Override
+                    public Product fromString(String string) {
+                        return null;
+                    }
+                });
+        searchBinding.setOnAutoCompleted(event -> {
+            posViewModel.addProductToCart(event.getCompletion());
+            productSearchField.clear();
+            quantityField.requestFocus();
+        });
+    }
+
     private void setUpSelectionHandling() {
         // ViewModel -> Table selection
         posViewModel.currentItemProperty().addListener((obs, oldVal, newVal) -> {
@@ -201,6 +243,15 @@ public class SalePointController {
         alert.showAndWait();
     }
 
+    // A confirmed checkout the database refused afterwards, it is kept in sale_journal as rejected
+    private void showSaleRejected(Sale sale, String reason) {
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.setTitle("Продажа не записана");
+        alert.setHeaderText(String.format("Продажа на сумму %.2f отклонена базой данных", sale.getTotalAmount()));
+        alert.setContentText(reason + "\nПроверьте остатки и проведите продажу заново.");
+        alert.showAndWait();
+    }
+
     /**
      * Updates table selection based on ViewModel changes.
      * Handles thread safety and null cases properly.
@@ -0,0 +1,31 @@
+package com.bozzat.esepkersoft.Interfaces;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the widgets of a dashboard as DashboardLoader finishes their queries, in whatever
+ * order they finish. Every method is called on the FX Application Thread; implement the ones
+ * for the widgets the screen shows.
+ */
+public interface DashboardListener {
+    default void onTopSellingProducts(List<Map<String, Object>> products) {
+    }
+
+    default void onMostProfitableProducts(List<Map<String, Object>> products) {
+    }
+
+    default void onSlowMovingProducts(List<Map<String, Object>> products) {
+    }
+
+    default void onDailyRevenue(List<Map<String, Object>> days) {
+    }
+
+    default void onBusinessMetrics(Map<String, Object> metrics) {
+    }
+
+    // A widget's query threw, the other widgets still arrive
+    default void onWidgetFailed(String widget, Throwable error) {
+        System.err.println("Dashboard widget " + widget + " failed: " + error.getMessage());
+    }
+}
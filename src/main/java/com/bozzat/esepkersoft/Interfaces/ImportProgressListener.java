@@ -0,0 +1,7 @@
+package com.bozzat.esepkersoft.Interfaces;
+
+@FunctionalInterface
+public interface ImportProgressListener {
+    // Called after every committed batch and once at the end, from the importing thread
+    void onProgress(int rowsRead, int rowsImported, int rowsRejected);
+}
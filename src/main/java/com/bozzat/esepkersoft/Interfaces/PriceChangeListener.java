@@ -0,0 +1,11 @@
+package com.bozzat.esepkersoft.Interfaces;
+
+import com.bozzat.esepkersoft.Models.PriceChange;
+
+import java.util.List;
+
+@FunctionalInterface
+public interface PriceChangeListener {
+    // Called once a bulk price change has committed, from the thread that applied it
+    void onPricesChanged(List<PriceChange> changes);
+}
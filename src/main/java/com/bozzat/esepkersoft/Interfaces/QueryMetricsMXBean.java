@@ -0,0 +1,24 @@
+package com.bozzat.esepkersoft.Interfaces;
+
+import com.bozzat.esepkersoft.Services.QueryStats;
+
+import java.util.List;
+
+/**
+ * JMX view of the SQL statistics collected by dbManager,
+ * registered as com.bozzat.esepkersoft:type=QueryMetrics.
+ */
+public interface QueryMetricsMXBean {
+    long getTotalCount();
+
+    long getSlowCount();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long thresholdMillis);
+
+    // One entry per normalized statement, most total time first
+    List<QueryStats> getStatements();
+
+    void reset();
+}
@@ -0,0 +1,10 @@
+package com.bozzat.esepkersoft.Interfaces;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface RowMapper<T> {
+    // Maps the current row of the result set, must not move the cursor
+    T mapRow(ResultSet resultSet) throws SQLException;
+}
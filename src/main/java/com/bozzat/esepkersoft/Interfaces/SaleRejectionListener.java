@@ -0,0 +1,10 @@
+package com.bozzat.esepkersoft.Interfaces;
+
+import com.bozzat.esepkersoft.Models.Sale;
+
+@FunctionalInterface
+public interface SaleRejectionListener {
+    // Called when the database refuses a sale whose checkout was already confirmed from the journal,
+    // from the thread that drained it
+    void onSaleRejected(Sale sale, String reason);
+}
@@ -0,0 +1,9 @@
+package com.bozzat.esepkersoft.Interfaces;
+
+import com.bozzat.esepkersoft.Services.Tx;
+
+@FunctionalInterface
+public interface TransactionCallback<T> {
+    // Throwing rolls the transaction back, returning commits it
+    T doInTransaction(Tx tx) throws Exception;
+}
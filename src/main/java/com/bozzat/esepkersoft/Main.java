@@ -1,5 +1,8 @@
 package com.bozzat.esepkersoft;
 
+import com.bozzat.esepkersoft.Services.AsyncDataService;
+import com.bozzat.esepkersoft.Services.RollupService;
+import com.bozzat.esepkersoft.Services.SaleJournal;
 import com.bozzat.esepkersoft.Services.dbManager;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -7,6 +10,7 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.util.List;
 
 public class Main extends Application {
     @Override
@@ -25,8 +29,32 @@ public class Main extends Application {
         }
     }
 
+    @Override
+    public void stop() {
+        // Let queued writes (e.g. a sale being saved) reach the database before exit
+        AsyncDataService.getInstance().shutdown();
+    }
+
     public static void main(String[] args) {
         dbManager db = dbManager.getInstance();
+        // Maintenance commands, run without the UI
+        List<String> arguments = List.of(args);
+        if (arguments.contains("--rebuild-rollups") || arguments.contains("--verify-rollups")) {
+            System.exit(runRollupCommand(arguments.contains("--rebuild-rollups")) ? 0 : 1);
+        }
+        // Sales journaled but not yet in the database when the last run ended
+        SaleJournal.getInstance().recover();
         launch();
     }
+
+    private static boolean runRollupCommand(boolean rebuild) {
+        RollupService rollups = new RollupService();
+        if (rebuild && !rollups.rebuild()) {
+            System.err.println("Rollup rebuild failed");
+            return false;
+        }
+        int mismatches = rollups.verify();
+        System.out.println(mismatches == 0 ? "Rollups match the sales tables" : "Rollup mismatches: " + mismatches);
+        return mismatches == 0;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.bozzat.esepkersoft.Models;
+
+import java.io.File;
+
+public class CatalogImportResult {
+    private final int rowsRead;
+    private final int rowsImported;
+    private final int rowsRejected;
+    private final File errorReport;
+
+    public CatalogImportResult(int rowsRead, int rowsImported, int rowsRejected, File errorReport) {
+        this.rowsRead = rowsRead;
+        this.rowsImported = rowsImported;
+        this.rowsRejected = rowsRejected;
+        this.errorReport = errorReport;
+    }
+
+    public int getRowsRead() { return rowsRead; }
+    public int getRowsImported() { return rowsImported; }
+    public int getRowsRejected() { return rowsRejected; }
+
+    // CSV with the line number and reason of every rejected row, null when nothing was rejected
+    public File getErrorReport() { return errorReport; }
+
+    @Override
+    public String toString() {
+        return String.format("CatalogImportResult [read=%d, imported=%d, rejected=%d]",
+                rowsRead, rowsImported, rowsRejected);
+    }
+}
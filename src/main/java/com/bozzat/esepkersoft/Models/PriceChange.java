@@ -0,0 +1,32 @@
+package com.bozzat.esepkersoft.Models;
+
+public class PriceChange {
+    private final int productId;
+    private final String barcode;
+    private final String name;
+    private final double oldPrice;
+    private final double newPrice;
+
+    public PriceChange(int productId, String barcode, String name, double oldPrice, double newPrice) {
+        this.productId = productId;
+        this.barcode = barcode;
+        this.name = name;
+        this.oldPrice = oldPrice;
+        this.newPrice = newPrice;
+    }
+
+    public int getProductId() { return productId; }
+
+    public String getBarcode() { return barcode; }
+
+    public String getName() { return name; }
+
+    public double getOldPrice() { return oldPrice; }
+
+    public double getNewPrice() { return newPrice; }
+
+    @Override
+    public String toString() {
+        return name + " (" + barcode + "): " + oldPrice + " -> " + newPrice;
+    }
+}
@@ -0,0 +1,37 @@
+package com.bozzat.esepkersoft.Models;
+
+import java.util.List;
+
+/**
+ * Selects the products of a bulk price change. Every criterion that is set must match,
+ * unset ones (null or empty) are ignored.
+ */
+public class PriceFilter {
+    private Integer categoryId;
+    // Products ever delivered by this supplier, according to stock_entries
+    private Integer supplierId;
+    // SQL LIKE pattern, e.g. "Молоко%"
+    private String namePattern;
+    private List<String> barcodes;
+
+    public PriceFilter() {}
+
+    // Getters and Setters
+    public Integer getCategoryId() { return categoryId; }
+    public void setCategoryId(Integer categoryId) { this.categoryId = categoryId; }
+
+    public Integer getSupplierId() { return supplierId; }
+    public void setSupplierId(Integer supplierId) { this.supplierId = supplierId; }
+
+    public String getNamePattern() { return namePattern; }
+    public void setNamePattern(String namePattern) { this.namePattern = namePattern; }
+
+    public List<String> getBarcodes() { return barcodes; }
+    public void setBarcodes(List<String> barcodes) { this.barcodes = barcodes; }
+
+    public boolean isEmpty() {
+        return categoryId == null && supplierId == null
+                && (namePattern == null || namePattern.isBlank())
+                && (barcodes == null || barcodes.isEmpty());
+    }
+}
@@ -0,0 +1,32 @@
+package com.bozzat.esepkersoft.Models;
+
+/**
+ * How a bulk price change computes the new price.
+ */
+public class PriceRule {
+    public enum Type {
+        // current price + value %
+        PERCENT,
+        // current price + value
+        FIXED_DELTA,
+        // last purchase price + value %
+        MARKUP_OVER_PURCHASE
+    }
+
+    private final Type type;
+    private final double value;
+    // Round the result to the nearest 5 som
+    private final boolean roundToFive;
+
+    public PriceRule(Type type, double value, boolean roundToFive) {
+        this.type = type;
+        this.value = value;
+        this.roundToFive = roundToFive;
+    }
+
+    public Type getType() { return type; }
+
+    public double getValue() { return value; }
+
+    public boolean isRoundToFive() { return roundToFive; }
+}
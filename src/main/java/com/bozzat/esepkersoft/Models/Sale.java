@@ -8,6 +8,8 @@ public class Sale {
     private String paymentMethod;
     private LocalDateTime saleTime;
     private String comment;
+    // Generated when the cart is opened, the same checkout submitted twice is saved once
+    private String idempotencyKey;
 
     // Constructors
     public Sale() {}
@@ -34,6 +36,9 @@ public class Sale {
     public String getComment() { return comment; }
     public void setComment(String comment) { this.comment = comment; }
 
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+
     @Override
     public String toString() {
         return String.format("Sale [id=%d, saleTime=%s, totalAmount=%.2f]",
@@ -8,6 +8,8 @@ public class SaleItem {
     private int productId;
     private double quantity;
     private double unitPrice;
+    // What the sold quantity cost, from the stock lots it was taken from (FIFO)
+    private double costTotal;
 
     public SaleItem() {}
 
@@ -50,6 +52,9 @@ public class SaleItem {
     public double getUnitPrice() { return unitPrice; }
     public void setUnitPrice(double unitPrice) { this.unitPrice = unitPrice; }
 
+    public double getCostTotal() { return costTotal; }
+    public void setCostTotal(double costTotal) { this.costTotal = costTotal; }
+
     public double getTotalPrice() {
         return quantity * unitPrice;
     }
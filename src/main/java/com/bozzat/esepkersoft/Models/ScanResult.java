@@ -0,0 +1,20 @@
+package com.bozzat.esepkersoft.Models;
+
+public class ScanResult {
+    private final Product product;
+    private final double quantity;
+    private final boolean scaleLabel;
+
+    public ScanResult(Product product, double quantity, boolean scaleLabel) {
+        this.product = product;
+        this.quantity = quantity;
+        this.scaleLabel = scaleLabel;
+    }
+
+    public Product getProduct() { return product; }
+
+    // Units to add: 1 for an ordinary barcode, the weighed amount for a scale label
+    public double getQuantity() { return quantity; }
+
+    public boolean isScaleLabel() { return scaleLabel; }
+}
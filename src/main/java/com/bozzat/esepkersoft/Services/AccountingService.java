@@ -1,10 +1,14 @@
 package com.bozzat.esepkersoft.Services;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 /**
  * AccountingService provides comprehensive financial tracking and reporting capabilities.
@@ -23,6 +27,7 @@ public class AccountingService {
      * 2. Collects all stock purchase transactions (negative cash flow)
      * 3. Collects all expense transactions (negative cash flow)
      * 4. Combines all transactions and sorts them chronologically by transaction date
+     *    (both done in a single query, see forEachMoneyFlow)
      * 
      * @param startDate The start date of the range (inclusive)
      * @param endDate The end date of the range (inclusive)
@@ -39,196 +44,115 @@ public class AccountingService {
      *     - Expenses: category, note
      */
     public List<Map<String, Object>> getMoneyFlowHistory(LocalDateTime startDate, LocalDateTime endDate) {
-        if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
-            return new ArrayList<>(); // Return empty list for invalid date range
-        }
-        
         List<Map<String, Object>> cashFlow = new ArrayList<>();
-        
-        // Get sales (income)
-        cashFlow.addAll(getSalesTransactions(startDate, endDate));
-        
-        // Get stock entries (expense)
-        cashFlow.addAll(getStockEntryTransactions(startDate, endDate));
-        
-        // Get other expenses
-        cashFlow.addAll(getExpenseTransactions(startDate, endDate));
-        
-        // Sort all transactions by date
-        cashFlow.sort((a, b) -> {
-            LocalDateTime dateA = LocalDateTime.parse((String) a.get("transactionDate"));
-            LocalDateTime dateB = LocalDateTime.parse((String) b.get("transactionDate"));
-            return dateA.compareTo(dateB);
-        });
-        
+        forEachMoneyFlow(startDate, endDate, cashFlow::add);
         return cashFlow;
     }
     
     /**
-     * Helper method that retrieves all sales transactions within a date range.
+     * Streaming form of {@link #getMoneyFlowHistory}: hands each transaction to the action
+     * in chronological order as it is read, without holding the whole period in memory.
      * 
      * Calculation method:
-     * 1. Joins the sales, sales_items, and products tables
-     * 2. Filters by date range
-     * 3. Groups by sale ID to consolidate multiple items per sale
-     * 4. Uses GROUP_CONCAT to combine product names and quantities
+     * 1. Sales: joins sales, sales_items and products, grouped by sale ID,
+     *    with GROUP_CONCAT combining product names and quantities
+     * 2. Stock entries: joins stock_entries, products and suppliers,
+     *    total cost per entry is quantity * purchase_price
+     * 3. Expenses: joins expenses and expense_categories
+     * 4. The three sets are combined with UNION ALL and ordered by transaction date in SQL
      * 
      * @param startDate The start date of the range (inclusive)
      * @param endDate The end date of the range (inclusive)
-     * @return List of Maps containing sales transactions with formatted descriptions
+     * @param action Receives one transaction map per row, same fields as getMoneyFlowHistory
+     * @return true if the history was read completely, false for an invalid range or a failed query
      */
-    private List<Map<String, Object>> getSalesTransactions(LocalDateTime startDate, LocalDateTime endDate) {
-        String query = "SELECT " +
-                "s.id, " +
-                "s.sale_time as transaction_date, " +
-                "s.total_amount, " +
-                "s.payment_method, " +
-                "s.comment, " +
-                "GROUP_CONCAT(p.name || ' x' || si.quantity, ', ') as items_sold " +
+    public boolean forEachMoneyFlow(LocalDateTime startDate, LocalDateTime endDate, Consumer<Map<String, Object>> action) {
+        if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
+            return false; // Nothing to read for an invalid date range
+        }
+        
+        // Common columns: label is the item list / product name / category name,
+        // detail is the payment method / supplier name.
+        // Filtered and ordered on the epoch millisecond columns, transaction_date is the text for display
+        String query = "SELECT * FROM (" +
+                "SELECT 'SALE' as type, s.id, s.sale_time as transaction_date, s.sale_time_ms as transaction_ms, s.total_amount as amount, " +
+                "GROUP_CONCAT(p.name || ' x' || si.quantity, ', ') as label, " +
+                "s.payment_method as detail, s.comment as note, NULL as quantity, NULL as unit_price " +
                 "FROM sales s " +
                 "JOIN sales_items si ON s.id = si.sale_id " +
                 "JOIN products p ON si.product_id = p.id " +
-                "WHERE s.sale_time BETWEEN ? AND ? " +
+                "WHERE s.sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY s.id " +
-                "ORDER BY s.sale_time";
-        
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> salesTransactions = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
-            Map<String, Object> transaction = new HashMap<>();
-            
-            transaction.put("id", "SALE-" + ((Number) row.get("id")).intValue());
-            transaction.put("transactionDate", (String) row.get("transaction_date"));
-            transaction.put("type", "SALE");
-            transaction.put("description", "Sale: " + row.get("items_sold"));
-            transaction.put("amount", ((Number) row.get("total_amount")).doubleValue());
-            transaction.put("paymentMethod", (String) row.get("payment_method"));
-            transaction.put("note", row.get("comment"));
-            transaction.put("flowType", "INCOME");
-            
-            salesTransactions.add(transaction);
-        }
-        
-        return salesTransactions;
-    }
-    
-    /**
-     * Helper method that retrieves all stock entry (inventory purchase) transactions
-     * within a date range.
-     * 
-     * Calculation method:
-     * 1. Joins the stock_entries, products, and suppliers tables
-     * 2. Filters by date range
-     * 3. Calculates total cost per entry (quantity * purchase_price)
-     * 4. Formats description with product name, quantity, and supplier
-     * 
-     * @param startDate The start date of the range (inclusive)
-     * @param endDate The end date of the range (inclusive)
-     * @return List of Maps containing stock entry transactions as expenses
-     */
-    private List<Map<String, Object>> getStockEntryTransactions(LocalDateTime startDate, LocalDateTime endDate) {
-        String query = "SELECT " +
-                "se.id, " +
-                "se.arrival_date as transaction_date, " +
-                "p.name as product_name, " +
-                "se.quantity, " +
-                "se.purchase_price, " +
-                "(se.quantity * se.purchase_price) as total_cost, " +
-                "s.name as supplier_name, " +
-                "se.note " +
+                "UNION ALL " +
+                "SELECT 'STOCK_ENTRY', se.id, se.arrival_date, se.arrival_date_ms, se.quantity * se.purchase_price, " +
+                "p.name, sup.name, se.note, se.quantity, se.purchase_price " +
                 "FROM stock_entries se " +
                 "JOIN products p ON se.product_id = p.id " +
-                "LEFT JOIN suppliers s ON se.supplier_id = s.id " +
-                "WHERE se.arrival_date BETWEEN ? AND ? " +
-                "ORDER BY se.arrival_date";
-        
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> stockTransactions = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
-            Map<String, Object> transaction = new HashMap<>();
-            
-            double quantity = ((Number) row.get("quantity")).doubleValue();
-            double unitPrice = ((Number) row.get("purchase_price")).doubleValue();
-            double totalCost = ((Number) row.get("total_cost")).doubleValue();
-            String productName = (String) row.get("product_name");
-            String supplierInfo = row.get("supplier_name") != null ? 
-                    " from " + (String) row.get("supplier_name") : "";
-            
-            transaction.put("id", "STOCK-" + ((Number) row.get("id")).intValue());
-            transaction.put("transactionDate", (String) row.get("transaction_date"));
-            transaction.put("type", "STOCK_ENTRY");
-            transaction.put("description", "Purchase: " + productName + " x" + quantity + supplierInfo);
-            transaction.put("amount", -totalCost); // Negative as it's an expense
-            transaction.put("unitPrice", unitPrice);
-            transaction.put("quantity", quantity);
-            transaction.put("note", row.get("note"));
-            transaction.put("flowType", "EXPENSE");
-            
-            stockTransactions.add(transaction);
-        }
+                "LEFT JOIN suppliers sup ON se.supplier_id = sup.id " +
+                "WHERE se.arrival_date_ms BETWEEN ? AND ? " +
+                "UNION ALL " +
+                "SELECT 'EXPENSE', e.id, e.expense_date, e.expense_date_ms, e.amount, " +
+                "ec.name, NULL, e.description, NULL, NULL " +
+                "FROM expenses e " +
+                "JOIN expense_categories ec ON e.category_id = ec.id " +
+                "WHERE e.expense_date_ms BETWEEN ? AND ?" +
+                ") ORDER BY transaction_ms, type";
         
-        return stockTransactions;
+        Object[] range = Timestamps.range(startDate, endDate);
+        Object start = range[0];
+        Object end = range[1];
+        return db.forEachRow(query, this::mapTransaction, action, start, end, start, end, start, end);
     }
     
     /**
-     * Helper method that retrieves all general expense transactions within a date range.
-     * 
-     * Calculation method:
-     * 1. Joins the expenses and expense_categories tables
-     * 2. Filters by date range
-     * 3. Formats description with category name and expense description
-     * 
-     * @param startDate The start date of the range (inclusive)
-     * @param endDate The end date of the range (inclusive)
-     * @return List of Maps containing expense transactions
+     * Builds the transaction map for one row of the combined money flow query.
      */
-    private List<Map<String, Object>> getExpenseTransactions(LocalDateTime startDate, LocalDateTime endDate) {
-        String query = "SELECT " +
-                "e.id, " +
-                "e.expense_date as transaction_date, " +
-                "e.amount, " +
-                "ec.name as category_name, " +
-                "e.description " +
-                "FROM expenses e " +
-                "JOIN expense_categories ec ON e.category_id = ec.id " +
-                "WHERE e.expense_date BETWEEN ? AND ? " +
-                "ORDER BY e.expense_date";
-        
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> expenseTransactions = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
-            Map<String, Object> transaction = new HashMap<>();
-            
-            double amount = ((Number) row.get("amount")).doubleValue();
-            String categoryName = (String) row.get("category_name");
-            String description = row.get("description") != null ? 
-                    (String) row.get("description") : "";
-            
-            transaction.put("id", "EXP-" + ((Number) row.get("id")).intValue());
-            transaction.put("transactionDate", (String) row.get("transaction_date"));
-            transaction.put("type", "EXPENSE");
-            transaction.put("description", categoryName + ": " + description);
-            transaction.put("amount", -amount); // Negative as it's an expense
-            transaction.put("category", categoryName);
-            transaction.put("note", description);
-            transaction.put("flowType", "EXPENSE");
-            
-            expenseTransactions.add(transaction);
+    private Map<String, Object> mapTransaction(ResultSet resultSet) throws SQLException {
+        Map<String, Object> transaction = new HashMap<>();
+        String type = resultSet.getString("type");
+        int id = resultSet.getInt("id");
+        double amount = resultSet.getDouble("amount");
+        String label = resultSet.getString("label");
+        String note = resultSet.getString("note");
+        
+        transaction.put("transactionDate", resultSet.getString("transaction_date"));
+        transaction.put("type", type);
+        
+        switch (type) {
+            case "SALE":
+                transaction.put("id", "SALE-" + id);
+                transaction.put("description", "Sale: " + label);
+                transaction.put("amount", amount);
+                transaction.put("paymentMethod", resultSet.getString("detail"));
+                transaction.put("note", note);
+                transaction.put("flowType", "INCOME");
+                break;
+            case "STOCK_ENTRY":
+                double quantity = resultSet.getDouble("quantity");
+                String supplierName = resultSet.getString("detail");
+                String supplierInfo = supplierName != null ? " from " + supplierName : "";
+                
+                transaction.put("id", "STOCK-" + id);
+                transaction.put("description", "Purchase: " + label + " x" + quantity + supplierInfo);
+                transaction.put("amount", -amount); // Negative as it's an expense
+                transaction.put("unitPrice", resultSet.getDouble("unit_price"));
+                transaction.put("quantity", quantity);
+                transaction.put("note", note);
+                transaction.put("flowType", "EXPENSE");
+                break;
+            default:
+                String description = note != null ? note : "";
+                
+                transaction.put("id", "EXP-" + id);
+                transaction.put("description", label + ": " + description);
+                transaction.put("amount", -amount); // Negative as it's an expense
+                transaction.put("category", label);
+                transaction.put("note", description);
+                transaction.put("flowType", "EXPENSE");
+                break;
         }
         
-        return expenseTransactions;
+        return transaction;
     }
     
     /**
@@ -261,48 +185,43 @@ public class AccountingService {
         }
         
         Map<String, Object> summary = new HashMap<>();
+        Object[] range = Timestamps.range(startDate, endDate);
         
         // Get total sales
         String salesQuery = "SELECT SUM(total_amount) as total_sales " +
                 "FROM sales " +
-                "WHERE sale_time BETWEEN ? AND ?";
+                "WHERE sale_time_ms BETWEEN ? AND ?";
         
-        List<Map<String, Object>> salesResult = db.executeGet(salesQuery, 
-                startDate.toString(), 
-                endDate.toString());
+        Double salesResult = db.queryOne(salesQuery,
+                resultSet -> resultSet.getDouble("total_sales"),
+                range[0],
+                range[1]);
         
-        double totalSales = 0;
-        if (!salesResult.isEmpty() && salesResult.get(0).get("total_sales") != null) {
-            totalSales = ((Number) salesResult.get(0).get("total_sales")).doubleValue();
-        }
+        double totalSales = salesResult != null ? salesResult : 0;
         
         // Get total stock purchases
         String purchasesQuery = "SELECT SUM(quantity * purchase_price) as total_purchases " +
                 "FROM stock_entries " +
-                "WHERE arrival_date BETWEEN ? AND ?";
+                "WHERE arrival_date_ms BETWEEN ? AND ?";
         
-        List<Map<String, Object>> purchasesResult = db.executeGet(purchasesQuery, 
-                startDate.toString(), 
-                endDate.toString());
+        Double purchasesResult = db.queryOne(purchasesQuery,
+                resultSet -> resultSet.getDouble("total_purchases"),
+                range[0],
+                range[1]);
         
-        double totalPurchases = 0;
-        if (!purchasesResult.isEmpty() && purchasesResult.get(0).get("total_purchases") != null) {
-            totalPurchases = ((Number) purchasesResult.get(0).get("total_purchases")).doubleValue();
-        }
+        double totalPurchases = purchasesResult != null ? purchasesResult : 0;
         
         // Get total expenses
         String expensesQuery = "SELECT SUM(amount) as total_expenses " +
                 "FROM expenses " +
-                "WHERE expense_date BETWEEN ? AND ?";
+                "WHERE expense_date_ms BETWEEN ? AND ?";
         
-        List<Map<String, Object>> expensesResult = db.executeGet(expensesQuery, 
-                startDate.toString(), 
-                endDate.toString());
+        Double expensesResult = db.queryOne(expensesQuery,
+                resultSet -> resultSet.getDouble("total_expenses"),
+                range[0],
+                range[1]);
         
-        double totalExpenses = 0;
-        if (!expensesResult.isEmpty() && expensesResult.get(0).get("total_expenses") != null) {
-            totalExpenses = ((Number) expensesResult.get(0).get("total_expenses")).doubleValue();
-        }
+        double totalExpenses = expensesResult != null ? expensesResult : 0;
         
         // Calculate net cash flow
         double totalInflow = totalSales;
@@ -342,24 +261,20 @@ public class AccountingService {
      * evolves over time.
      */
     public List<Map<String, Object>> getCashFlowBalanceByDate(LocalDateTime startDate, LocalDateTime endDate) {
-        // Get all transactions in chronological order
-        List<Map<String, Object>> transactions = getMoneyFlowHistory(startDate, endDate);
+        // Group transactions by date and calculate daily balance,
+        // streaming the history so only one balance per day is kept in memory
+        Map<String, Double> dailyBalances = new TreeMap<>();
+        double[] runningBalance = {0};
         
-        // Group transactions by date and calculate daily balance
-        Map<String, Double> dailyBalances = new HashMap<>();
-        double runningBalance = 0;
-        
-        for (Map<String, Object> transaction : transactions) {
+        forEachMoneyFlow(startDate, endDate, transaction -> {
             String transactionDate = ((String) transaction.get("transactionDate")).substring(0, 10); // Get just the date part
-            double amount = ((Number) transaction.get("amount")).doubleValue();
-            
-            runningBalance += amount;
+            runningBalance[0] += (Double) transaction.get("amount");
             
             // Update or set the balance for this date
-            dailyBalances.put(transactionDate, runningBalance);
-        }
+            dailyBalances.put(transactionDate, runningBalance[0]);
+        });
         
-        // Convert to list of maps for return
+        // Convert to list of maps for return, TreeMap keeps them sorted by date
         List<Map<String, Object>> result = new ArrayList<>();
         
         for (Map.Entry<String, Double> entry : dailyBalances.entrySet()) {
@@ -369,9 +284,6 @@ public class AccountingService {
             result.add(item);
         }
         
-        // Sort by date
-        result.sort((a, b) -> ((String) a.get("date")).compareTo((String) b.get("date")));
-        
         return result;
     }
 }
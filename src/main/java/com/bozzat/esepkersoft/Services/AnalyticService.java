@@ -1,13 +1,46 @@
 package com.bozzat.esepkersoft.Services;
 
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Sales reports. Ranges covering whole days (midnight to 23:59:59) are answered from the
+ * daily rollups kept by RollupService, other ranges from the raw sales tables.
+ *
+ * With -Desepkersoft.columnarAnalytics=true, top sellers, daily revenue and revenue by
+ * payment method and by category are answered from the in-memory columns of
+ * ColumnarAnalyticsEngine instead, and their SQL runs only when the engine cannot read the
+ * sales. It is off by default: the engine holds the whole sales history in the heap, which
+ * only a back-office machine doing interactive analysis should pay for, not every till.
+ */
 public class AnalyticService {
+    private static final LocalTime END_OF_DAY = LocalTime.of(23, 59, 59);
+    // Date ranges whose business metrics are kept, a dashboard uses only a few
+    private static final int METRICS_CACHE_SIZE = 32;
+
+    // getBusinessMetrics results by date range, valid while dbManager's data version is unchanged
+    private static final Map<String, CachedMetrics> METRICS_CACHE = new ConcurrentHashMap<>();
+
+    private record CachedMetrics(long dataVersion, Map<String, Object> metrics) {
+    }
+
     private final dbManager db = dbManager.getInstance();
+    // null unless the columnar engine is enabled
+    private final ColumnarAnalyticsEngine columnarEngine;
+
+    public AnalyticService() {
+        this(Boolean.getBoolean("esepkersoft.columnarAnalytics") ? ColumnarAnalyticsEngine.getInstance() : null);
+    }
+
+    // Without an engine every report runs its SQL, the tests compare the two
+    AnalyticService(ColumnarAnalyticsEngine columnarEngine) {
+        this.columnarEngine = columnarEngine;
+    }
     
     /**
      * Retrieves the top 10 most sold products within a specified date range
@@ -20,6 +53,11 @@ public class AnalyticService {
         if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
             return new ArrayList<>(); // Return empty list for invalid date range
         }
+        List<Map<String, Object>> fromColumns = columnarEngine != null
+                ? columnarEngine.getTopSellingProducts(startDate, endDate) : null;
+        if (fromColumns != null) {
+            return fromColumns;
+        }
         
         String query = "SELECT " +
                 "p.id, p.name, p.unit_type, p.current_price, " +
@@ -28,29 +66,37 @@ public class AnalyticService {
                 "FROM products p " +
                 "JOIN sales_items si ON p.id = si.product_id " +
                 "JOIN sales s ON si.sale_id = s.id " +
-                "WHERE s.sale_time BETWEEN ? AND ? " +
+                "WHERE s.sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY p.id " +
                 "ORDER BY total_quantity DESC " +
                 "LIMIT 10";
+        Object[] range = Timestamps.range(startDate, endDate);
+        if (coversWholeDays(startDate, endDate)) {
+            query = "SELECT " +
+                    "p.id, p.name, p.unit_type, p.current_price, " +
+                    "SUM(d.quantity) as total_quantity, " +
+                    "SUM(d.revenue) as total_revenue " +
+                    "FROM daily_product_sales d " +
+                    "JOIN products p ON p.id = d.product_id " +
+                    "WHERE d.day BETWEEN ? AND ? " +
+                    "GROUP BY p.id " +
+                    "ORDER BY total_quantity DESC " +
+                    "LIMIT 10";
+            range = dayRange(startDate, endDate);
+        }
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> topProducts = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
+        return db.query(query, resultSet -> {
             Map<String, Object> item = new HashMap<>();
             
             // Product info
-            item.put("id", ((Number) row.get("id")).intValue());
-            item.put("name", (String) row.get("name"));
-            item.put("unitType", (String) row.get("unit_type"));
-            item.put("currentPrice", ((Number) row.get("current_price")).doubleValue());
+            item.put("id", resultSet.getInt("id"));
+            item.put("name", resultSet.getString("name"));
+            item.put("unitType", resultSet.getString("unit_type"));
+            item.put("currentPrice", resultSet.getDouble("current_price"));
             
             // Sales data
-            double totalQuantity = ((Number) row.get("total_quantity")).doubleValue();
-            double totalRevenue = ((Number) row.get("total_revenue")).doubleValue();
+            double totalQuantity = resultSet.getDouble("total_quantity");
+            double totalRevenue = resultSet.getDouble("total_revenue");
             
             item.put("totalQuantity", totalQuantity);
             item.put("totalRevenue", totalRevenue);
@@ -58,10 +104,8 @@ public class AnalyticService {
             // Calculate average unit price during the period
             item.put("averageUnitPrice", totalQuantity > 0 ? totalRevenue / totalQuantity : 0);
             
-            topProducts.add(item);
-        }
-        
-        return topProducts;
+            return item;
+        }, range);
     }
     
     /**
@@ -80,39 +124,46 @@ public class AnalyticService {
                 "p.id, p.name, p.unit_type, p.current_price, " +
                 "SUM(si.quantity) as total_quantity, " +
                 "SUM(si.quantity * si.unit_price) as total_revenue, " +
-                "AVG(se.purchase_price) as avg_purchase_price " +
+                "SUM(si.cost_total) as total_cost " +
                 "FROM products p " +
                 "JOIN sales_items si ON p.id = si.product_id " +
                 "JOIN sales s ON si.sale_id = s.id " +
-                "LEFT JOIN stock_entries se ON p.id = se.product_id " +
-                "WHERE s.sale_time BETWEEN ? AND ? " +
+                "WHERE s.sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY p.id " +
-                "ORDER BY (total_revenue - (total_quantity * avg_purchase_price)) DESC " +
+                "ORDER BY (total_revenue - total_cost) DESC " +
                 "LIMIT 10";
+        Object[] range = Timestamps.range(startDate, endDate);
+        if (coversWholeDays(startDate, endDate)) {
+            query = "SELECT " +
+                    "p.id, p.name, p.unit_type, p.current_price, " +
+                    "SUM(d.quantity) as total_quantity, " +
+                    "SUM(d.revenue) as total_revenue, " +
+                    "SUM(d.cost) as total_cost " +
+                    "FROM daily_product_sales d " +
+                    "JOIN products p ON p.id = d.product_id " +
+                    "WHERE d.day BETWEEN ? AND ? " +
+                    "GROUP BY p.id " +
+                    "ORDER BY (total_revenue - total_cost) DESC " +
+                    "LIMIT 10";
+            range = dayRange(startDate, endDate);
+        }
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> profitableProducts = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
+        return db.query(query, resultSet -> {
             Map<String, Object> item = new HashMap<>();
             
             // Product info
-            item.put("id", ((Number) row.get("id")).intValue());
-            item.put("name", (String) row.get("name"));
-            item.put("unitType", (String) row.get("unit_type"));
-            item.put("currentPrice", ((Number) row.get("current_price")).doubleValue());
+            item.put("id", resultSet.getInt("id"));
+            item.put("name", resultSet.getString("name"));
+            item.put("unitType", resultSet.getString("unit_type"));
+            item.put("currentPrice", resultSet.getDouble("current_price"));
             
-            // Sales and cost data
-            double totalQuantity = ((Number) row.get("total_quantity")).doubleValue();
-            double totalRevenue = ((Number) row.get("total_revenue")).doubleValue();
-            double avgPurchasePrice = row.get("avg_purchase_price") != null ? 
-                    ((Number) row.get("avg_purchase_price")).doubleValue() : 0;
+            // Sales and cost data, the cost is what the sold lots were bought for
+            double totalQuantity = resultSet.getDouble("total_quantity");
+            double totalRevenue = resultSet.getDouble("total_revenue");
+            double totalCost = resultSet.getDouble("total_cost");
+            double avgPurchasePrice = totalQuantity > 0 ? totalCost / totalQuantity : 0;
             
             // Calculate profit
-            double totalCost = totalQuantity * avgPurchasePrice;
             double totalProfit = totalRevenue - totalCost;
             double profitMargin = totalRevenue > 0 ? (totalProfit / totalRevenue) * 100 : 0;
             
@@ -123,10 +174,8 @@ public class AnalyticService {
             item.put("totalProfit", totalProfit);
             item.put("profitMargin", profitMargin);
             
-            profitableProducts.add(item);
-        }
-        
-        return profitableProducts;
+            return item;
+        }, range);
     }
     
     /**
@@ -151,48 +200,40 @@ public class AnalyticService {
                 "FROM products p " +
                 "LEFT JOIN stock_balances sb ON p.id = sb.product_id " +
                 "LEFT JOIN sales_items si ON p.id = si.product_id " +
-                "LEFT JOIN sales s ON si.sale_id = s.id AND s.sale_time BETWEEN ? AND ? " +
+                "LEFT JOIN sales s ON si.sale_id = s.id AND s.sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY p.id " +
                 "HAVING (sale_count <= ? OR sale_count IS NULL) AND current_stock > 0 " +
                 "ORDER BY sale_count ASC, current_stock DESC";
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString(),
-                maxSales);
-        
-        List<Map<String, Object>> slowMovingProducts = new ArrayList<>();
+        long daysBetween = java.time.Duration.between(startDate, endDate).toDays();
+        Object[] range = Timestamps.range(startDate, endDate);
         
-        for (Map<String, Object> row : results) {
+        return db.query(query, resultSet -> {
             Map<String, Object> item = new HashMap<>();
             
             // Product info
-            item.put("id", ((Number) row.get("id")).intValue());
-            item.put("name", (String) row.get("name"));
-            item.put("unitType", (String) row.get("unit_type"));
-            item.put("currentPrice", ((Number) row.get("current_price")).doubleValue());
+            item.put("id", resultSet.getInt("id"));
+            item.put("name", resultSet.getString("name"));
+            item.put("unitType", resultSet.getString("unit_type"));
+            item.put("currentPrice", resultSet.getDouble("current_price"));
             
-            // Stock and sales data
-            double currentStock = ((Number) row.get("current_stock")).doubleValue();
-            int saleCount = row.get("sale_count") != null ? ((Number) row.get("sale_count")).intValue() : 0;
-            double totalQuantity = row.get("total_quantity") != null ? 
-                    ((Number) row.get("total_quantity")).doubleValue() : 0;
+            // Stock and sales data (NULL counts read as 0)
+            double currentStock = resultSet.getDouble("current_stock");
+            int saleCount = resultSet.getInt("sale_count");
+            double totalQuantity = resultSet.getDouble("total_quantity");
             
             item.put("currentStock", currentStock);
             item.put("saleCount", saleCount);
             item.put("totalQuantity", totalQuantity);
             
             // Calculate days of stock based on current sales rate
-            long daysBetween = java.time.Duration.between(startDate, endDate).toDays();
             double dailySales = daysBetween > 0 ? totalQuantity / daysBetween : 0;
             double daysOfStock = dailySales > 0 ? currentStock / dailySales : Double.POSITIVE_INFINITY;
             
             item.put("daysOfStock", daysOfStock == Double.POSITIVE_INFINITY ? "∞" : Math.round(daysOfStock));
             
-            slowMovingProducts.add(item);
-        }
-        
-        return slowMovingProducts;
+            return item;
+        }, range[0], range[1], maxSales);
     }
     
     /**
@@ -214,43 +255,55 @@ public class AnalyticService {
             return new HashMap<>(); // Return empty map for invalid date range
         }
         
-        Map<String, Object> metrics = new HashMap<>();
-        
-        // Calculate total revenue
-        String revenueQuery = "SELECT SUM(total_amount) as total_revenue " +
-                "FROM sales " +
-                "WHERE sale_time BETWEEN ? AND ?";
-        
-        List<Map<String, Object>> revenueResult = db.executeGet(revenueQuery, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        double totalRevenue = 0;
-        if (!revenueResult.isEmpty() && revenueResult.get(0).get("total_revenue") != null) {
-            totalRevenue = ((Number) revenueResult.get(0).get("total_revenue")).doubleValue();
+        // Dashboards refresh the same ranges over and over, answer them from the cache until data changes
+        String cacheKey = startDate + "|" + endDate;
+        long dataVersion = db.getDataVersion();
+        CachedMetrics cached = METRICS_CACHE.get(cacheKey);
+        if (cached != null && cached.dataVersion() == dataVersion) {
+            return new HashMap<>(cached.metrics());
         }
-        metrics.put("totalRevenue", totalRevenue);
-        
-        // Calculate total cost of goods sold
-        String cogsQuery = "SELECT SUM(si.quantity * se.purchase_price) as total_cost " +
+
+        Map<String, Object> metrics = new HashMap<>();
+
+        // Revenue, COGS, transaction and item counts in one pass over the sales of the range
+        // (items summed per sale, so total_amount is counted once), expenses in a subquery
+        String expensesQuery = "(SELECT SUM(amount) FROM expenses WHERE expense_date_ms BETWEEN ? AND ?) AS total_expenses";
+        String query = "SELECT COUNT(*) AS transaction_count, SUM(total_amount) AS total_revenue, " +
+                "SUM(item_cost) AS total_cost, SUM(item_quantity) AS items_sold, " + expensesQuery + " " +
+                "FROM (SELECT s.total_amount, SUM(si.cost_total) AS item_cost, SUM(si.quantity) AS item_quantity " +
                 "FROM sales s " +
-                "JOIN sales_items si ON s.id = si.sale_id " +
-                "JOIN products p ON si.product_id = p.id " +
-                "LEFT JOIN (" +
-                "    SELECT product_id, AVG(purchase_price) as purchase_price " +
-                "    FROM stock_entries " +
-                "    GROUP BY product_id" +
-                ") se ON p.id = se.product_id " +
-                "WHERE s.sale_time BETWEEN ? AND ?";
-        
-        List<Map<String, Object>> cogsResult = db.executeGet(cogsQuery, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        double totalCost = 0;
-        if (!cogsResult.isEmpty() && cogsResult.get(0).get("total_cost") != null) {
-            totalCost = ((Number) cogsResult.get(0).get("total_cost")).doubleValue();
+                "LEFT JOIN sales_items si ON s.id = si.sale_id " +
+                "WHERE s.sale_time_ms BETWEEN ? AND ? " +
+                "GROUP BY s.id)";
+        Object[] range = Timestamps.range(startDate, endDate);
+        Object[] params = {range[0], range[1], range[0], range[1]};
+        if (coversWholeDays(startDate, endDate)) {
+            query = "SELECT payments.transaction_count, payments.total_revenue, " +
+                    "products.total_cost, products.items_sold, " + expensesQuery + " " +
+                    "FROM (SELECT SUM(sale_count) AS transaction_count, SUM(revenue) AS total_revenue " +
+                    "FROM daily_payment_sales WHERE day BETWEEN ? AND ?) AS payments, " +
+                    "(SELECT SUM(cost) AS total_cost, SUM(quantity) AS items_sold " +
+                    "FROM daily_product_sales WHERE day BETWEEN ? AND ?) AS products";
+            Object[] days = dayRange(startDate, endDate);
+            params = new Object[]{range[0], range[1], days[0], days[1], days[0], days[1]};
+        }
+
+        double[] totals = db.queryOne(query, resultSet -> new double[]{
+                resultSet.getDouble("total_revenue"),
+                resultSet.getDouble("total_cost"),
+                resultSet.getInt("transaction_count"),
+                resultSet.getDouble("items_sold"),
+                resultSet.getDouble("total_expenses")
+        }, params);
+        boolean cacheable = totals != null;
+        if (totals == null) {
+            totals = new double[5]; // Query failed, report zeros as before but do not keep them
         }
+
+        double totalRevenue = totals[0];
+        metrics.put("totalRevenue", totalRevenue);
+
+        double totalCost = totals[1];
         metrics.put("totalCostOfGoodsSold", totalCost);
         
         // Calculate gross profit and margin
@@ -260,54 +313,17 @@ public class AnalyticService {
         metrics.put("grossProfit", grossProfit);
         metrics.put("grossMarginPercentage", grossMargin);
         
-        // Calculate total number of transactions
-        String transactionQuery = "SELECT COUNT(*) as transaction_count " +
-                "FROM sales " +
-                "WHERE sale_time BETWEEN ? AND ?";
-        
-        List<Map<String, Object>> transactionResult = db.executeGet(transactionQuery, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        int transactionCount = 0;
-        if (!transactionResult.isEmpty()) {
-            transactionCount = ((Number) transactionResult.get(0).get("transaction_count")).intValue();
-        }
+        int transactionCount = (int) totals[2];
         metrics.put("transactionCount", transactionCount);
         
         // Calculate average transaction value
         double avgTransactionValue = transactionCount > 0 ? totalRevenue / transactionCount : 0;
         metrics.put("averageTransactionValue", avgTransactionValue);
         
-        // Calculate total items sold
-        String itemsQuery = "SELECT SUM(si.quantity) as items_sold " +
-                "FROM sales s " +
-                "JOIN sales_items si ON s.id = si.sale_id " +
-                "WHERE s.sale_time BETWEEN ? AND ?";
-        
-        List<Map<String, Object>> itemsResult = db.executeGet(itemsQuery, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        double itemsSold = 0;
-        if (!itemsResult.isEmpty() && itemsResult.get(0).get("items_sold") != null) {
-            itemsSold = ((Number) itemsResult.get(0).get("items_sold")).doubleValue();
-        }
+        double itemsSold = totals[3];
         metrics.put("totalItemsSold", itemsSold);
         
-        // Calculate expenses
-        String expensesQuery = "SELECT SUM(amount) as total_expenses " +
-                "FROM expenses " +
-                "WHERE expense_date BETWEEN ? AND ?";
-        
-        List<Map<String, Object>> expensesResult = db.executeGet(expensesQuery, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        double totalExpenses = 0;
-        if (!expensesResult.isEmpty() && expensesResult.get(0).get("total_expenses") != null) {
-            totalExpenses = ((Number) expensesResult.get(0).get("total_expenses")).doubleValue();
-        }
+        double totalExpenses = totals[4];
         metrics.put("totalExpenses", totalExpenses);
         
         // Calculate net profit
@@ -322,7 +338,14 @@ public class AnalyticService {
         metrics.put("endDate", endDate.toString());
         long daysBetween = java.time.Duration.between(startDate, endDate).toDays();
         metrics.put("periodDays", daysBetween);
-        
+
+        if (cacheable) {
+            if (METRICS_CACHE.size() >= METRICS_CACHE_SIZE) {
+                METRICS_CACHE.clear();
+            }
+            // Stored under the version read before the query: a write committed meanwhile makes it stale
+            METRICS_CACHE.put(cacheKey, new CachedMetrics(dataVersion, Map.copyOf(metrics)));
+        }
         return metrics;
     }
     
@@ -337,33 +360,42 @@ public class AnalyticService {
         if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
             return new ArrayList<>(); // Return empty list for invalid date range
         }
+        List<Map<String, Object>> fromColumns = columnarEngine != null
+                ? columnarEngine.getDailyRevenue(startDate, endDate) : null;
+        if (fromColumns != null) {
+            return fromColumns;
+        }
         
         String query = "SELECT " +
                 "DATE(sale_time) as sale_date, " +
                 "COUNT(*) as transaction_count, " +
                 "SUM(total_amount) as daily_revenue " +
                 "FROM sales " +
-                "WHERE sale_time BETWEEN ? AND ? " +
+                "WHERE sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY DATE(sale_time) " +
                 "ORDER BY sale_date";
+        Object[] range = Timestamps.range(startDate, endDate);
+        if (coversWholeDays(startDate, endDate)) {
+            query = "SELECT " +
+                    "day as sale_date, " +
+                    "SUM(sale_count) as transaction_count, " +
+                    "SUM(revenue) as daily_revenue " +
+                    "FROM daily_payment_sales " +
+                    "WHERE day BETWEEN ? AND ? " +
+                    "GROUP BY day " +
+                    "ORDER BY sale_date";
+            range = dayRange(startDate, endDate);
+        }
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> dailyRevenue = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
+        return db.query(query, resultSet -> {
             Map<String, Object> item = new HashMap<>();
             
-            item.put("date", (String) row.get("sale_date"));
-            item.put("transactionCount", ((Number) row.get("transaction_count")).intValue());
-            item.put("revenue", ((Number) row.get("daily_revenue")).doubleValue());
+            item.put("date", resultSet.getString("sale_date"));
+            item.put("transactionCount", resultSet.getInt("transaction_count"));
+            item.put("revenue", resultSet.getDouble("daily_revenue"));
             
-            dailyRevenue.add(item);
-        }
-        
-        return dailyRevenue;
+            return item;
+        }, range);
     }
     
     /**
@@ -384,28 +416,33 @@ public class AnalyticService {
                 "SUM(total_amount) as monthly_revenue, " +
                 "AVG(total_amount) as avg_transaction_value " +
                 "FROM sales " +
-                "WHERE sale_time BETWEEN ? AND ? " +
+                "WHERE sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY strftime('%Y-%m', sale_time) " +
                 "ORDER BY month";
+        Object[] range = Timestamps.range(startDate, endDate);
+        if (coversWholeDays(startDate, endDate)) {
+            query = "SELECT " +
+                    "substr(day, 1, 7) as month, " +
+                    "SUM(sale_count) as transaction_count, " +
+                    "SUM(revenue) as monthly_revenue, " +
+                    "SUM(revenue) / SUM(sale_count) as avg_transaction_value " +
+                    "FROM daily_payment_sales " +
+                    "WHERE day BETWEEN ? AND ? " +
+                    "GROUP BY month " +
+                    "ORDER BY month";
+            range = dayRange(startDate, endDate);
+        }
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> monthlyRevenue = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
+        return db.query(query, resultSet -> {
             Map<String, Object> item = new HashMap<>();
             
-            item.put("month", (String) row.get("month"));
-            item.put("transactionCount", ((Number) row.get("transaction_count")).intValue());
-            item.put("revenue", ((Number) row.get("monthly_revenue")).doubleValue());
-            item.put("averageTransactionValue", ((Number) row.get("avg_transaction_value")).doubleValue());
+            item.put("month", resultSet.getString("month"));
+            item.put("transactionCount", resultSet.getInt("transaction_count"));
+            item.put("revenue", resultSet.getDouble("monthly_revenue"));
+            item.put("averageTransactionValue", resultSet.getDouble("avg_transaction_value"));
             
-            monthlyRevenue.add(item);
-        }
-        
-        return monthlyRevenue;
+            return item;
+        }, range);
     }
     
     /**
@@ -419,6 +456,11 @@ public class AnalyticService {
         if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
             return new ArrayList<>(); // Return empty list for invalid date range
         }
+        List<Map<String, Object>> fromColumns = columnarEngine != null
+                ? columnarEngine.getRevenueByPaymentMethod(startDate, endDate) : null;
+        if (fromColumns != null) {
+            return fromColumns;
+        }
         
         String query = "SELECT " +
                 "payment_method, " +
@@ -426,35 +468,36 @@ public class AnalyticService {
                 "SUM(total_amount) as total_revenue, " +
                 "AVG(total_amount) as avg_transaction_value " +
                 "FROM sales " +
-                "WHERE sale_time BETWEEN ? AND ? " +
+                "WHERE sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY payment_method " +
                 "ORDER BY total_revenue DESC";
+        Object[] range = Timestamps.range(startDate, endDate);
+        if (coversWholeDays(startDate, endDate)) {
+            query = "SELECT " +
+                    "payment_method, " +
+                    "SUM(sale_count) as transaction_count, " +
+                    "SUM(revenue) as total_revenue, " +
+                    "SUM(revenue) / SUM(sale_count) as avg_transaction_value " +
+                    "FROM daily_payment_sales " +
+                    "WHERE day BETWEEN ? AND ? " +
+                    "GROUP BY payment_method " +
+                    "ORDER BY total_revenue DESC";
+            range = dayRange(startDate, endDate);
+        }
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> paymentMethodRevenue = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
+        List<Map<String, Object>> paymentMethodRevenue = db.query(query, resultSet -> {
             Map<String, Object> item = new HashMap<>();
             
-            item.put("paymentMethod", (String) row.get("payment_method"));
-            item.put("transactionCount", ((Number) row.get("transaction_count")).intValue());
-            item.put("revenue", ((Number) row.get("total_revenue")).doubleValue());
-            item.put("averageTransactionValue", ((Number) row.get("avg_transaction_value")).doubleValue());
+            item.put("paymentMethod", resultSet.getString("payment_method"));
+            item.put("transactionCount", resultSet.getInt("transaction_count"));
+            item.put("revenue", resultSet.getDouble("total_revenue"));
+            item.put("averageTransactionValue", resultSet.getDouble("avg_transaction_value"));
             
-            // Calculate percentage of total
-            double methodRevenue = ((Number) row.get("total_revenue")).doubleValue();
-            double totalRevenue = results.stream()
-                    .mapToDouble(r -> ((Number) r.get("total_revenue")).doubleValue())
-                    .sum();
-            double percentage = totalRevenue > 0 ? (methodRevenue / totalRevenue) * 100 : 0;
-            
-            item.put("percentageOfTotal", percentage);
-            
-            paymentMethodRevenue.add(item);
-        }
+            return item;
+        }, range);
+        
+        // Calculate percentage of total
+        addPercentageOfTotal(paymentMethodRevenue);
         
         return paymentMethodRevenue;
     }
@@ -462,6 +505,11 @@ public class AnalyticService {
         if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
             return new ArrayList<>(); // Return empty list for invalid date range
         }
+        List<Map<String, Object>> fromColumns = columnarEngine != null
+                ? columnarEngine.getRevenueByCategory(startDate, endDate) : null;
+        if (fromColumns != null) {
+            return fromColumns;
+        }
         
         String query = "SELECT " +
                 "c.name as category_name, " +
@@ -472,39 +520,80 @@ public class AnalyticService {
                 "JOIN sales_items si ON s.id = si.sale_id " +
                 "JOIN products p ON si.product_id = p.id " +
                 "LEFT JOIN categories c ON p.category_id = c.id " +
-                "WHERE s.sale_time BETWEEN ? AND ? " +
+                "WHERE s.sale_time_ms BETWEEN ? AND ? " +
                 "GROUP BY c.name " +
                 "ORDER BY total_revenue DESC";
+        Object[] range = Timestamps.range(startDate, endDate);
+        if (coversWholeDays(startDate, endDate)) {
+            // Quantities and revenue from the rollup. Sale counts are kept per product there,
+            // a sale with several products of one category would count once for each, so the
+            // distinct sales per category are still counted from the sales themselves
+            query = "SELECT " +
+                    "totals.category_name, " +
+                    "COALESCE(counts.transaction_count, 0) as transaction_count, " +
+                    "totals.items_sold, " +
+                    "totals.total_revenue " +
+                    "FROM (SELECT c.name as category_name, " +
+                    "SUM(d.quantity) as items_sold, " +
+                    "SUM(d.revenue) as total_revenue " +
+                    "FROM daily_product_sales d " +
+                    "JOIN products p ON d.product_id = p.id " +
+                    "LEFT JOIN categories c ON p.category_id = c.id " +
+                    "WHERE d.day BETWEEN ? AND ? " +
+                    "GROUP BY c.name) totals " +
+                    "LEFT JOIN (SELECT c.name as category_name, " +
+                    "COUNT(DISTINCT s.id) as transaction_count " +
+                    "FROM sales s " +
+                    "JOIN sales_items si ON s.id = si.sale_id " +
+                    "JOIN products p ON si.product_id = p.id " +
+                    "LEFT JOIN categories c ON p.category_id = c.id " +
+                    "WHERE s.sale_time_ms BETWEEN ? AND ? " +
+                    "GROUP BY c.name) counts ON counts.category_name IS totals.category_name " +
+                    "ORDER BY total_revenue DESC";
+            Object[] days = dayRange(startDate, endDate);
+            range = new Object[]{days[0], days[1], range[0], range[1]};
+        }
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> categoryRevenue = new ArrayList<>();
-        double totalRev = results.stream()
-                .mapToDouble(r -> ((Number) r.get("total_revenue")).doubleValue())
-                .sum();
-        
-        for (Map<String, Object> row : results) {
+        List<Map<String, Object>> categoryRevenue = db.query(query, resultSet -> {
             Map<String, Object> item = new HashMap<>();
             
             // Use "Uncategorized" for null category name
-            String catName = row.get("category_name") != null ? 
-                    (String) row.get("category_name") : "Uncategorized";
+            String catName = resultSet.getString("category_name");
             
-            item.put("categoryName", catName);
-            item.put("transactionCount", ((Number) row.get("transaction_count")).intValue());
-            item.put("itemsSold", ((Number) row.get("items_sold")).doubleValue());
-            item.put("revenue", ((Number) row.get("total_revenue")).doubleValue());
+            item.put("categoryName", catName != null ? catName : "Uncategorized");
+            item.put("transactionCount", resultSet.getInt("transaction_count"));
+            item.put("itemsSold", resultSet.getDouble("items_sold"));
+            item.put("revenue", resultSet.getDouble("total_revenue"));
             
-            // Calculate percentage of total
-            double categoryRevenuePct = totalRev > 0 ? 
-                    (((Number) row.get("total_revenue")).doubleValue() / totalRev) * 100 : 0;
-            item.put("percentageOfTotal", categoryRevenuePct);
-            
-            categoryRevenue.add(item);
-        }
+            return item;
+        }, range);
+        
+        // Calculate percentage of total
+        addPercentageOfTotal(categoryRevenue);
         
         return categoryRevenue;
     }
+    
+    // The rollups hold whole days, they answer ranges from midnight to the end of a day
+    private boolean coversWholeDays(LocalDateTime startDate, LocalDateTime endDate) {
+        return startDate.toLocalTime().equals(LocalTime.MIDNIGHT) && !endDate.toLocalTime().isBefore(END_OF_DAY);
+    }
+
+    private Object[] dayRange(LocalDateTime startDate, LocalDateTime endDate) {
+        return new Object[]{startDate.toLocalDate().toString(), endDate.toLocalDate().toString()};
+    }
+
+    /**
+     * Adds "percentageOfTotal" to each row based on its share of the summed "revenue"
+     */
+    static void addPercentageOfTotal(List<Map<String, Object>> rows) {
+        double totalRevenue = rows.stream()
+                .mapToDouble(row -> (Double) row.get("revenue"))
+                .sum();
+        
+        for (Map<String, Object> row : rows) {
+            double revenue = (Double) row.get("revenue");
+            row.put("percentageOfTotal", totalRevenue > 0 ? (revenue / totalRevenue) * 100 : 0);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.PriceChange;
+import com.bozzat.esepkersoft.Models.PriceFilter;
+import com.bozzat.esepkersoft.Models.PriceRule;
+import com.bozzat.esepkersoft.Models.Product;
+import com.bozzat.esepkersoft.Models.Sale;
+import com.bozzat.esepkersoft.Models.SaleItem;
+import com.bozzat.esepkersoft.Models.ScanResult;
+import com.bozzat.esepkersoft.Models.StockEntry;
+import com.bozzat.esepkersoft.Models.Supplier;
+import javafx.application.Platform;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Async facade over the services for the JavaFX controllers and view models,
+ * so the FX Application Thread never waits on SQLite.
+ *
+ * Writes run one at a time on a single writer thread, in submission order,
+ * except sales, which go through the SaleJournal and the group-commit SaleWriteQueue.
+ * Reads run on virtual threads and use the read-only connections of dbManager.
+ * Every returned future completes on the FX Application Thread, so callbacks
+ * attached to it can touch the UI directly.
+ */
+public class AsyncDataService {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    // Singleton instance
+    private static AsyncDataService instance;
+
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "db-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService readExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ProductService productService = new ProductService();
+    private final SupplierService supplierService = new SupplierService();
+    private final PriceChangeService priceChangeService = new PriceChangeService();
+
+    private AsyncDataService() {
+    }
+
+    public static synchronized AsyncDataService getInstance() {
+        if (instance == null) {
+            instance = new AsyncDataService();
+        }
+        return instance;
+    }
+
+    // Reads
+
+    public CompletableFuture<Product> getProductByBarcode(String barcode) {
+        return read(() -> productService.getProductByBarcode(barcode));
+    }
+
+    public CompletableFuture<ScanResult> resolveScan(String barcode) {
+        return read(() -> productService.resolveScan(barcode));
+    }
+
+    public CompletableFuture<Double> getStockQuantity(int productId) {
+        return read(() -> productService.getStockQuantity(productId));
+    }
+
+    public CompletableFuture<List<Supplier>> getAllSuppliers() {
+        return read(supplierService::getAllSuppliers);
+    }
+
+    public CompletableFuture<List<PriceChange>> previewPriceChange(PriceFilter filter, PriceRule rule) {
+        return read(() -> priceChangeService.preview(filter, rule));
+    }
+
+    // Writes
+
+    /**
+     * Saves the sale through the SaleJournal, which checks the stock and drains it into the
+     * database after the checkout. Without a journal the sale goes through the group-commit
+     * queue directly.
+     *
+     * @return Future completed once the sale is durable (journaled, or committed without a
+     *         journal), exceptionally if it was not saved; a SaleRejectedException carries the
+     *         reason to show at the till. Later refusals go to SaleJournal's rejection listeners.
+     */
+    public CompletableFuture<Void> addSale(List<SaleItem> saleItems, Sale sale) {
+        SaleJournal journal = SaleJournal.getInstance();
+        // The journal's stock check reads the database, keep it off the FX thread
+        CompletableFuture<?> saved = journal.isAvailable()
+                ? CompletableFuture.supplyAsync(() -> journal.append(saleItems, sale), readExecutor)
+                        .thenCompose(appended -> appended)
+                : SaleWriteQueue.getInstance().submit(saleItems, sale);
+        return onFxThread(saved.thenApply(result -> (Void) null));
+    }
+
+    public CompletableFuture<Boolean> addBatchEntry(Product product, StockEntry stockEntry) {
+        return write(() -> productService.addBatchEntry(product, stockEntry));
+    }
+
+    public CompletableFuture<Product> registerNewProduct(Product product, StockEntry stockEntry) {
+        return write(() -> productService.registerNewProduct(product, stockEntry));
+    }
+
+    public CompletableFuture<List<PriceChange>> applyPriceChange(PriceFilter filter, PriceRule rule) {
+        return write(() -> priceChangeService.apply(filter, rule));
+    }
+
+    /**
+     * Runs any read-only work on a virtual thread.
+     */
+    public <T> CompletableFuture<T> read(java.util.function.Supplier<T> work) {
+        return onFxThread(CompletableFuture.supplyAsync(work, readExecutor));
+    }
+
+    /**
+     * Queues work that writes to the database behind the writes submitted before it.
+     */
+    public <T> CompletableFuture<T> write(java.util.function.Supplier<T> work) {
+        return onFxThread(CompletableFuture.supplyAsync(work, writeExecutor));
+    }
+
+    /**
+     * Lets the queued writes finish, called when the application exits.
+     */
+    public void shutdown() {
+        SaleJournal.getInstance().shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        SaleWriteQueue.getInstance().shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        writeExecutor.shutdown();
+        readExecutor.shutdown();
+        try {
+            if (!writeExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Pending database writes did not finish before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Completes on the FX thread both on success and on failure
+    // (thenApplyAsync would pass a failure through on the worker thread)
+    private <T> CompletableFuture<T> onFxThread(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        }));
+        return result;
+    }
+}
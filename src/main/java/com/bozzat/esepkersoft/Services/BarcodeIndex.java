@@ -0,0 +1,188 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.Product;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory barcode -> product index for the till, so a scan does not hit SQLite.
+ *
+ * The catalog is loaded once in the background. Until it is loaded, and for any barcode
+ * it does not know, ProductService falls back to the database and feeds the result back in.
+ * ProductService keeps it consistent after each committed add/update/delete; bulk changes
+ * made directly in SQL call invalidate() to reload it.
+ *
+ * Entries hold only the product fields as primitives and shared strings (about 150 bytes
+ * per SKU, ~15 MB for 100k products). Catalogs above MAX_ENTRIES are not indexed at all
+ * and every scan goes to the (indexed) barcode column instead.
+ */
+public class BarcodeIndex {
+    private static final int MAX_ENTRIES = Integer.getInteger("esepkersoft.barcodeIndexMaxEntries", 250_000);
+    // Reload attempts when products keep changing while the catalog is being read
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    // Singleton instance
+    private static BarcodeIndex instance;
+
+    private final dbManager db = dbManager.getInstance();
+    private volatile Map<String, Entry> byBarcode = new ConcurrentHashMap<>();
+    private volatile Map<Integer, String> barcodeById = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    // Bumped by every change, a load that overlapped a change is retried
+    private long modifications;
+
+    private BarcodeIndex() {
+    }
+
+    public static synchronized BarcodeIndex getInstance() {
+        if (instance == null) {
+            instance = new BarcodeIndex();
+            instance.reloadInBackground();
+        }
+        return instance;
+    }
+
+    /**
+     * @return a copy of the indexed product, or null if the barcode is not indexed
+     *         (callers then look it up in the database)
+     */
+    public Product get(String barcode) {
+        if (!loaded || barcode == null) {
+            return null;
+        }
+        Entry entry = byBarcode.get(barcode);
+        return entry != null ? entry.toProduct(barcode) : null;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        return byBarcode.size();
+    }
+
+    // Adds or replaces the product, also when its barcode changed
+    public synchronized void put(Product product) {
+        if (product == null || product.getBarcode() == null) {
+            return;
+        }
+        modifications++;
+        String oldBarcode = barcodeById.get(product.getId());
+        if (oldBarcode != null && !oldBarcode.equals(product.getBarcode())) {
+            byBarcode.remove(oldBarcode);
+        }
+        if (oldBarcode == null && byBarcode.size() >= MAX_ENTRIES) {
+            return; // Over the bound, this product will be read from the database
+        }
+        byBarcode.put(product.getBarcode(), Entry.of(product));
+        barcodeById.put(product.getId(), product.getBarcode());
+    }
+
+    /**
+     * Sets the price of an indexed product. Counts as a change also while the catalog is
+     * loading, so a load that read the old price is retried instead of published.
+     */
+    public synchronized void updatePrice(String barcode, double price) {
+        modifications++;
+        Entry entry = barcode != null ? byBarcode.get(barcode) : null;
+        if (entry != null) {
+            byBarcode.put(barcode, entry.withPrice(price));
+        }
+    }
+
+    public synchronized void remove(int productId) {
+        modifications++;
+        String barcode = barcodeById.remove(productId);
+        if (barcode != null) {
+            byBarcode.remove(barcode);
+        }
+    }
+
+    /**
+     * Drops the index and reloads it from the database in the background,
+     * for changes that bypass ProductService (imports, bulk price updates).
+     */
+    public void invalidate() {
+        synchronized (this) {
+            modifications++;
+            loaded = false;
+        }
+        reloadInBackground();
+    }
+
+    private void reloadInBackground() {
+        Thread.ofVirtual().name("barcode-index-loader").start(this::load);
+    }
+
+    private void load() {
+        for (int attempt = 0; attempt < MAX_LOAD_ATTEMPTS; attempt++) {
+            long startModifications;
+            synchronized (this) {
+                startModifications = modifications;
+            }
+            Map<String, Entry> newByBarcode = new HashMap<>();
+            Map<Integer, String> newBarcodeById = new HashMap<>();
+            long[] rowCount = new long[1];
+            boolean complete = db.forEachRow("SELECT * FROM products", RowMappers.PRODUCT, product -> {
+                if (++rowCount[0] <= MAX_ENTRIES) {
+                    newByBarcode.put(product.getBarcode(), Entry.of(product));
+                    newBarcodeById.put(product.getId(), product.getBarcode());
+                }
+            });
+            if (!complete) {
+                System.err.println("Barcode index could not be loaded, scans use the database");
+                return;
+            }
+            synchronized (this) {
+                if (modifications != startModifications) {
+                    continue; // A product changed mid-load, the snapshot may be stale
+                }
+                if (rowCount[0] > MAX_ENTRIES) {
+                    System.err.println("Catalog exceeds " + MAX_ENTRIES + " products, barcode index disabled");
+                    byBarcode = new ConcurrentHashMap<>();
+                    barcodeById = new ConcurrentHashMap<>();
+                    return;
+                }
+                byBarcode = new ConcurrentHashMap<>(newByBarcode);
+                barcodeById = new ConcurrentHashMap<>(newBarcodeById);
+                loaded = true;
+                System.out.println("Barcode index loaded: " + newByBarcode.size() + " products");
+                return;
+            }
+        }
+        System.err.println("Barcode index kept changing while loading, scans use the database");
+    }
+
+    // Compact immutable copy of a product row, the barcode is the map key
+    private record Entry(int id, String name, String unitType, double currentPrice,
+                         int categoryId, long createdAtEpochSecond) {
+        static Entry of(Product product) {
+            LocalDateTime createdAt = product.getCreatedAt() != null ? product.getCreatedAt() : LocalDateTime.now();
+            // Unit types repeat for every product, share one string per unit
+            String unitType = product.getUnitType() != null ? product.getUnitType().intern() : null;
+            return new Entry(product.getId(), product.getName(), unitType, product.getCurrentPrice(),
+                    product.getCategoryId(), createdAt.toEpochSecond(ZoneOffset.UTC));
+        }
+
+        Entry withPrice(double price) {
+            return new Entry(id, name, unitType, price, categoryId, createdAtEpochSecond);
+        }
+
+        Product toProduct(String barcode) {
+            Product product = new Product();
+            product.setId(id);
+            product.setBarcode(barcode);
+            product.setName(name);
+            product.setUnitType(unitType);
+            product.setCurrentPrice(currentPrice);
+            product.setCategoryId(categoryId);
+            product.setCreatedAt(LocalDateTime.ofEpochSecond(createdAtEpochSecond, 0, ZoneOffset.UTC));
+            return product;
+        }
+    }
+}
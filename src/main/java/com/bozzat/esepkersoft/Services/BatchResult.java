@@ -0,0 +1,29 @@
+package com.bozzat.esepkersoft.Services;
+
+/**
+ * Outcome of dbManager.executeBatch: one update count per parameter row and,
+ * for INSERT batches, the rowid generated for each row.
+ */
+public class BatchResult {
+    private final int[] updateCounts;
+    private final long[] generatedKeys;
+
+    public BatchResult(int[] updateCounts, long[] generatedKeys) {
+        this.updateCounts = updateCounts;
+        this.generatedKeys = generatedKeys;
+    }
+
+    // Rows affected by each parameter row, in submission order
+    public int[] getUpdateCounts() { return updateCounts; }
+
+    // Generated rowid per parameter row, empty when the batch was not a plain INSERT
+    public long[] getGeneratedKeys() { return generatedKeys; }
+
+    public int getTotalUpdateCount() {
+        int total = 0;
+        for (int count : updateCounts) {
+            total += Math.max(count, 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,352 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.ImportProgressListener;
+import com.bozzat.esepkersoft.Models.CatalogImportResult;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports a product catalog (e.g. a supplier price list) from CSV or XLSX.
+ *
+ * The file is read row by row and written in batches of BATCH_SIZE rows, one transaction
+ * per batch: products are upserted on their barcode (existing products get the new name,
+ * unit and price). The quantity column is opening stock: rows with a quantity get a stock
+ * entry and balance only when the import creates their product, so importing the same file
+ * again or a new price list does not add the stock a second time. Deliveries of products
+ * already in the catalog go through ProductService.addBatchEntry.
+ *
+ * Expected header (case-insensitive, Russian names accepted too):
+ *   barcode, name, price               required
+ *   unit_type, quantity, purchase_price, supplier_id   optional
+ *
+ * Rows that fail validation or repeat a barcode of an earlier row are skipped and listed
+ * in an error report next to the imported file.
+ */
+public class CatalogImportService {
+    private static final int BATCH_SIZE = 5000;
+    private static final String DEFAULT_UNIT_TYPE = "шт";
+    private static final String STOCK_ENTRY_NOTE = "Импорт каталога";
+
+    private static final String UPSERT_PRODUCT_QUERY = "INSERT INTO products " +
+            "(name, barcode, unit_type, current_price) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT(barcode) DO UPDATE SET " +
+            "name = excluded.name, unit_type = excluded.unit_type, current_price = excluded.current_price";
+    private static final String LAST_PRODUCT_ID_QUERY = "SELECT COALESCE(MAX(id), 0) AS id FROM products";
+    private static final String INSERT_STOCK_ENTRY_QUERY = "INSERT INTO stock_entries " +
+            "(product_id, quantity, purchase_price, supplier_id, arrival_date, arrival_date_ms, note, remaining_quantity) " +
+            "SELECT id, ?, ?, ?, ?, ?, ?, ? FROM products WHERE barcode = ? AND id > ?";
+    private static final String UPSERT_BALANCE_QUERY = "INSERT INTO stock_balances (product_id, quantity, updated_at) " +
+            "SELECT id, ?, datetime('now', 'localtime') FROM products WHERE barcode = ? AND id > ? " +
+            "ON CONFLICT(product_id) DO UPDATE SET " +
+            "quantity = quantity + excluded.quantity, updated_at = excluded.updated_at";
+
+    private static final Map<String, String> HEADER_ALIASES = new HashMap<>();
+
+    static {
+        alias("barcode", "barcode", "штрихкод", "штрих-код");
+        alias("name", "name", "наименование", "название");
+        alias("unit_type", "unit_type", "unit", "ед", "ед.", "ед. изм.", "единица");
+        alias("price", "price", "current_price", "цена", "розничная цена");
+        alias("quantity", "quantity", "количество", "кол-во");
+        alias("purchase_price", "purchase_price", "закупочная цена", "закупка");
+        alias("supplier_id", "supplier_id", "поставщик");
+    }
+
+    private final dbManager db = dbManager.getInstance();
+
+    /**
+     * Imports the file, .xlsx files as a workbook and anything else as CSV.
+     *
+     * @param listener Optional, notified after every batch
+     * @return Counts and the error report, or null if the file could not be read
+     *         or its header lacks a required column
+     */
+    public CatalogImportResult importCatalog(File file, ImportProgressListener listener) {
+        if (file == null || !file.isFile()) {
+            System.err.println("Catalog file not found: " + file);
+            return null;
+        }
+
+        try (RowReader reader = openReader(file);
+             ErrorReport errors = new ErrorReport(errorReportFile(file))) {
+            Map<String, Integer> columns = readHeader(reader.next());
+            if (columns == null) {
+                return null;
+            }
+
+            // Barcode -> row number of its first occurrence in this file
+            Map<String, Integer> seenBarcodes = new HashMap<>();
+            List<ImportRow> batch = new ArrayList<>(BATCH_SIZE);
+            int rowsRead = 0;
+            int rowsImported = 0;
+
+            List<String> cells;
+            while ((cells = reader.next()) != null) {
+                if (isBlank(cells)) {
+                    continue;
+                }
+                rowsRead++;
+                int rowNumber = reader.getRowNumber();
+                ImportRow row;
+                try {
+                    row = parseRow(cells, columns, rowNumber);
+                } catch (IllegalArgumentException e) {
+                    errors.add(rowNumber, cell(cells, columns, "barcode"), e.getMessage());
+                    continue;
+                }
+                Integer firstRow = seenBarcodes.putIfAbsent(row.barcode, rowNumber);
+                if (firstRow != null) {
+                    errors.add(rowNumber, row.barcode, "Штрихкод повторяется, первая строка " + firstRow);
+                    continue;
+                }
+
+                batch.add(row);
+                if (batch.size() == BATCH_SIZE) {
+                    rowsImported += writeBatch(batch, errors);
+                    batch.clear();
+                    notify(listener, rowsRead, rowsImported, errors.count());
+                }
+            }
+            rowsImported += writeBatch(batch, errors);
+            notify(listener, rowsRead, rowsImported, errors.count());
+
+            if (rowsImported > 0) {
+                // Products changed outside ProductService
+                BarcodeIndex.getInstance().invalidate();
+            }
+            return new CatalogImportResult(rowsRead, rowsImported, errors.count(), errors.getFile());
+        } catch (IOException e) {
+            System.err.println("Catalog import failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // One transaction per batch: products, then opening stock for the rows that have a quantity.
+    // Product ids only grow, so the products this batch inserted are the ones above the highest
+    // id before the upsert; existing products keep their stock.
+    private int writeBatch(List<ImportRow> batch, ErrorReport errors) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> productRows = new ArrayList<>(batch.size());
+        List<Object[]> entryRows = new ArrayList<>();
+        List<Object[]> balanceRows = new ArrayList<>();
+        LocalDateTime arrival = Timestamps.now();
+        for (ImportRow row : batch) {
+            productRows.add(new Object[]{row.name, row.barcode, row.unitType, row.price});
+            if (row.quantity > 0) {
+                entryRows.add(new Object[]{row.quantity, row.purchasePrice, row.supplierId,
+                        Timestamps.format(arrival), Timestamps.toEpochMillis(arrival),
+                        STOCK_ENTRY_NOTE, row.quantity, row.barcode, null});
+                balanceRows.add(new Object[]{row.quantity, row.barcode, null});
+            }
+        }
+
+        Boolean written = db.inTransaction(tx -> {
+            long lastExistingId = tx.queryOne(LAST_PRODUCT_ID_QUERY, resultSet -> resultSet.getLong("id"));
+            for (Object[] entryRow : entryRows) {
+                entryRow[entryRow.length - 1] = lastExistingId;
+            }
+            for (Object[] balanceRow : balanceRows) {
+                balanceRow[balanceRow.length - 1] = lastExistingId;
+            }
+            tx.executeBatch(UPSERT_PRODUCT_QUERY, productRows);
+            tx.executeBatch(INSERT_STOCK_ENTRY_QUERY, entryRows);
+            tx.executeBatch(UPSERT_BALANCE_QUERY, balanceRows);
+            return true;
+        });
+        if (written == null) {
+            for (ImportRow row : batch) {
+                errors.add(row.rowNumber, row.barcode, "Ошибка записи в базу данных");
+            }
+            return 0;
+        }
+        return batch.size();
+    }
+
+    private RowReader openReader(File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".xlsx")) {
+            return new XlsxRowReader(file);
+        }
+        return new CsvRowReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    // Column name -> index, or null if a required column is missing
+    private Map<String, Integer> readHeader(List<String> header) {
+        if (header == null) {
+            System.err.println("Catalog file is empty");
+            return null;
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            String column = HEADER_ALIASES.get(header.get(i).trim().toLowerCase());
+            if (column != null) {
+                columns.putIfAbsent(column, i);
+            }
+        }
+        for (String required : new String[]{"barcode", "name", "price"}) {
+            if (!columns.containsKey(required)) {
+                System.err.println("Catalog file has no '" + required + "' column");
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    private ImportRow parseRow(List<String> cells, Map<String, Integer> columns, int rowNumber) {
+        ImportRow row = new ImportRow();
+        row.rowNumber = rowNumber;
+        row.barcode = normalizeBarcode(cell(cells, columns, "barcode"));
+        if (row.barcode.isEmpty()) {
+            throw new IllegalArgumentException("Пустой штрихкод");
+        }
+        row.name = cell(cells, columns, "name");
+        if (row.name.isEmpty()) {
+            throw new IllegalArgumentException("Пустое наименование");
+        }
+        String unitType = cell(cells, columns, "unit_type");
+        row.unitType = unitType.isEmpty() ? DEFAULT_UNIT_TYPE : unitType;
+
+        row.price = parseNumber(cell(cells, columns, "price"), "цена");
+        if (row.price <= 0) {
+            throw new IllegalArgumentException("Цена должна быть больше нуля");
+        }
+        String quantity = cell(cells, columns, "quantity");
+        row.quantity = quantity.isEmpty() ? 0 : parseNumber(quantity, "количество");
+        if (row.quantity < 0) {
+            throw new IllegalArgumentException("Отрицательное количество");
+        }
+        if (row.quantity > 0) {
+            row.purchasePrice = parseNumber(cell(cells, columns, "purchase_price"), "закупочная цена");
+            if (row.purchasePrice <= 0) {
+                throw new IllegalArgumentException("Для остатка нужна закупочная цена больше нуля");
+            }
+        }
+        String supplierId = cell(cells, columns, "supplier_id");
+        row.supplierId = supplierId.isEmpty() ? null : (int) parseNumber(supplierId, "поставщик");
+        return row;
+    }
+
+    private static String cell(List<String> cells, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= cells.size() || cells.get(index) == null) {
+            return "";
+        }
+        return cells.get(index).trim();
+    }
+
+    // Accepts "1 250,50" as well as "1250.50"
+    private static double parseNumber(String value, String field) {
+        String normalized = value.replace(" ", "").replace("\u00A0", "").replace(',', '.');
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Не указано поле: " + field);
+        }
+        try {
+            return Double.parseDouble(normalized);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Неверное число в поле " + field + ": " + value);
+        }
+    }
+
+    // Spreadsheets turn barcodes into numbers: "4600000000017.0" or "4.60000000001E12"
+    private static String normalizeBarcode(String barcode) {
+        if (barcode.matches("\\d+\\.0+") || barcode.matches("\\d(\\.\\d+)?[eE]\\+?\\d+")) {
+            try {
+                return new BigDecimal(barcode).toBigIntegerExact().toString();
+            } catch (ArithmeticException | NumberFormatException e) {
+                return barcode;
+            }
+        }
+        return barcode;
+    }
+
+    private static boolean isBlank(List<String> cells) {
+        for (String cell : cells) {
+            if (cell != null && !cell.trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void notify(ImportProgressListener listener, int rowsRead, int rowsImported, int rowsRejected) {
+        if (listener != null) {
+            listener.onProgress(rowsRead, rowsImported, rowsRejected);
+        }
+    }
+
+    private static File errorReportFile(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return new File(file.getAbsoluteFile().getParentFile(), baseName + "_errors.csv");
+    }
+
+    private static void alias(String column, String... names) {
+        for (String name : names) {
+            HEADER_ALIASES.put(name, column);
+        }
+    }
+
+    private static class ImportRow {
+        int rowNumber;
+        String barcode;
+        String name;
+        String unitType;
+        double price;
+        double quantity;
+        double purchasePrice;
+        Integer supplierId;
+    }
+
+    /**
+     * Error report CSV, only created once the first row is rejected.
+     */
+    private static class ErrorReport implements AutoCloseable {
+        private final File file;
+        private BufferedWriter writer;
+        private int count;
+
+        ErrorReport(File file) {
+            this.file = file;
+        }
+
+        void add(int rowNumber, String barcode, String message) throws IOException {
+            if (writer == null) {
+                writer = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8));
+                writer.write("Строка,Штрихкод,Ошибка");
+                writer.newLine();
+            }
+            writer.write(rowNumber + "," + ExcelService.escapeCSV(barcode) + "," + ExcelService.escapeCSV(message));
+            writer.newLine();
+            count++;
+        }
+
+        int count() {
+            return count;
+        }
+
+        File getFile() {
+            return writer != null ? file : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
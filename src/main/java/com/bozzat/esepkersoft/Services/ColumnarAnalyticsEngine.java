@@ -0,0 +1,584 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory copy of sales and sales_items kept as primitive column arrays, for interactive
+ * analysis that should not go to SQLite on every query. Answers the same questions as
+ * AnalyticService (top sellers, daily revenue, revenue by payment method and by category)
+ * with the same result maps. When enabled (esepkersoft.columnarAnalytics), AnalyticService
+ * serves those reports from here and runs its SQL only when a query returns null because
+ * the sales could not be read.
+ *
+ * The columns are loaded on first use. Before every query the sales with an ID above the
+ * last loaded one are appended (one indexed read), so new sales show up without a reload.
+ * Deleting a sale calls invalidate() and the next query loads everything again.
+ *
+ * Scans run over sales, each sale's lines sit next to each other in the line columns.
+ * Large scans are split into chunks of whole sales aggregated in parallel on the common
+ * fork/join pool and then merged.
+ */
+public class ColumnarAnalyticsEngine {
+    private static final int INITIAL_CAPACITY = 1024;
+    // Sales per chunk of a parallel scan, a range with fewer sales is scanned on the calling thread
+    private static final int SALES_PER_CHUNK = 1 << 15;
+    private static final int TOP_PRODUCTS = 10;
+
+    private static ColumnarAnalyticsEngine instance;
+
+    private final dbManager db = dbManager.getInstance();
+    private final ZoneId zone = ZoneId.systemDefault();
+    // Guards loading and appending; queries only read the published columns
+    private final Object loadLock = new Object();
+    // Bumped by invalidate(), columns loaded under an older generation are thrown away
+    private final AtomicLong generation = new AtomicLong();
+    // null until first loaded and after invalidate()
+    private volatile Columns columns;
+
+    private ColumnarAnalyticsEngine() {
+    }
+
+    public static synchronized ColumnarAnalyticsEngine getInstance() {
+        if (instance == null) {
+            instance = new ColumnarAnalyticsEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Drops the in-memory columns, e.g. after sales were deleted. The next query reloads them.
+     * Does not wait for a load in progress: it runs after commit while the writer lock is
+     * still held, so waiting would stop every write until the load finished. A load that
+     * overlaps it is tagged with the old generation and replaced on the next query.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        columns = null;
+    }
+
+    /**
+     * Top 10 products by quantity sold in the range, same fields as
+     * AnalyticService.getTopSellingProducts.
+     *
+     * @return the products, or null if the sales or products could not be read
+     */
+    public List<Map<String, Object>> getTopSellingProducts(LocalDateTime startDate, LocalDateTime endDate) {
+        if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
+            return new ArrayList<>(); // Return empty list for invalid date range
+        }
+        Columns c = current();
+        if (c == null) {
+            return null;
+        }
+        long[] range = millisRange(startDate, endDate);
+        int products = c.maxProductId + 1;
+
+        ProductTotals totals = scan(c, () -> new ProductTotals(products), (acc, from, to) -> {
+            for (int sale = from; sale < to; sale++) {
+                if (c.saleTime[sale] < range[0] || c.saleTime[sale] > range[1]) {
+                    continue;
+                }
+                for (int line = c.saleFirstLine[sale], end = c.lineEnd(sale); line < end; line++) {
+                    int product = c.lineProduct[line];
+                    acc.lines[product]++;
+                    acc.quantity[product] += c.lineQuantity[line];
+                    acc.revenue[product] += c.lineQuantity[line] * c.linePrice[line];
+                }
+            }
+        }, ProductTotals::merge);
+
+        List<Integer> sold = new ArrayList<>();
+        for (int product = 0; product < products; product++) {
+            if (totals.lines[product] > 0) {
+                sold.add(product);
+            }
+        }
+        sold.sort((a, b) -> Double.compare(totals.quantity[b], totals.quantity[a]));
+
+        // Product details for the leaders only, a window at a time; deleted products are
+        // skipped, as the SQL join does
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int from = 0; from < sold.size() && result.size() < TOP_PRODUCTS; from += TOP_PRODUCTS) {
+            List<Integer> window = sold.subList(from, Math.min(sold.size(), from + TOP_PRODUCTS));
+            Map<Integer, Map<String, Object>> details = productDetails(window);
+            if (details == null) {
+                return null;
+            }
+            for (int product : window) {
+                Map<String, Object> item = details.get(product);
+                if (item == null || result.size() == TOP_PRODUCTS) {
+                    continue;
+                }
+                double totalQuantity = totals.quantity[product];
+                double totalRevenue = totals.revenue[product];
+                item.put("totalQuantity", totalQuantity);
+                item.put("totalRevenue", totalRevenue);
+                item.put("averageUnitPrice", totalQuantity > 0 ? totalRevenue / totalQuantity : 0);
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Transaction count and revenue per day of the range, same fields as AnalyticService.getDailyRevenue.
+     *
+     * @return the days with sales, or null if the sales could not be read
+     */
+    public List<Map<String, Object>> getDailyRevenue(LocalDateTime startDate, LocalDateTime endDate) {
+        if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
+            return new ArrayList<>(); // Return empty list for invalid date range
+        }
+        Columns c = current();
+        if (c == null) {
+            return null;
+        }
+        long[] range = millisRange(startDate, endDate);
+        long firstDay = startDate.toLocalDate().toEpochDay();
+        int days = (int) (endDate.toLocalDate().toEpochDay() - firstDay) + 1;
+
+        GroupTotals totals = scan(c, () -> new GroupTotals(days), (acc, from, to) -> {
+            for (int sale = from; sale < to; sale++) {
+                if (c.saleTime[sale] < range[0] || c.saleTime[sale] > range[1]) {
+                    continue;
+                }
+                int day = (int) (c.saleDay[sale] - firstDay);
+                acc.count[day]++;
+                acc.revenue[day] += c.saleTotal[sale];
+            }
+        }, GroupTotals::merge);
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int day = 0; day < days; day++) {
+            if (totals.count[day] == 0) {
+                continue;
+            }
+            Map<String, Object> item = new HashMap<>();
+            item.put("date", LocalDate.ofEpochDay(firstDay + day).toString());
+            item.put("transactionCount", totals.count[day]);
+            item.put("revenue", totals.revenue[day]);
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * Transaction count and revenue per payment method, same fields as
+     * AnalyticService.getRevenueByPaymentMethod.
+     *
+     * @return the payment methods used, or null if the sales could not be read
+     */
+    public List<Map<String, Object>> getRevenueByPaymentMethod(LocalDateTime startDate, LocalDateTime endDate) {
+        if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
+            return new ArrayList<>(); // Return empty list for invalid date range
+        }
+        Columns c = current();
+        if (c == null) {
+            return null;
+        }
+        long[] range = millisRange(startDate, endDate);
+        int methods = c.paymentMethods.size();
+
+        GroupTotals totals = scan(c, () -> new GroupTotals(methods), (acc, from, to) -> {
+            for (int sale = from; sale < to; sale++) {
+                if (c.saleTime[sale] < range[0] || c.saleTime[sale] > range[1]) {
+                    continue;
+                }
+                int method = c.salePayment[sale];
+                acc.count[method]++;
+                acc.revenue[method] += c.saleTotal[sale];
+            }
+        }, GroupTotals::merge);
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int method = 0; method < methods; method++) {
+            if (totals.count[method] == 0) {
+                continue;
+            }
+            Map<String, Object> item = new HashMap<>();
+            item.put("paymentMethod", c.paymentMethods.get(method));
+            item.put("transactionCount", totals.count[method]);
+            item.put("revenue", totals.revenue[method]);
+            item.put("averageTransactionValue", totals.revenue[method] / totals.count[method]);
+            result.add(item);
+        }
+        result.sort(byRevenueDescending());
+        AnalyticService.addPercentageOfTotal(result);
+        return result;
+    }
+
+    /**
+     * Sales, items sold and revenue per product category, same fields as
+     * AnalyticService.getRevenueByCategory. Categories are taken as they are now.
+     *
+     * @return the categories sold, or null if the sales or categories could not be read
+     */
+    public List<Map<String, Object>> getRevenueByCategory(LocalDateTime startDate, LocalDateTime endDate) {
+        if (startDate == null || endDate == null || startDate.isAfter(endDate)) {
+            return new ArrayList<>(); // Return empty list for invalid date range
+        }
+        Columns c = current();
+        if (c == null) {
+            return null;
+        }
+        long[] range = millisRange(startDate, endDate);
+
+        // Category of every product by name, -1 for products that no longer exist
+        int[] productCategory = new int[c.maxProductId + 1];
+        Arrays.fill(productCategory, -1);
+        List<String> categoryNames = new ArrayList<>();
+        Map<String, Integer> categoryCodes = new HashMap<>();
+        boolean loaded = db.forEachRow("SELECT p.id, c.name AS category_name FROM products p " +
+                        "LEFT JOIN categories c ON p.category_id = c.id",
+                resultSet -> new Object[]{resultSet.getInt("id"), resultSet.getString("category_name")},
+                row -> {
+                    int product = (Integer) row[0];
+                    if (product < productCategory.length) {
+                        productCategory[product] = categoryCodes.computeIfAbsent((String) row[1], name -> {
+                            categoryNames.add(name);
+                            return categoryNames.size() - 1;
+                        });
+                    }
+                });
+        if (!loaded) {
+            return null;
+        }
+        int categories = categoryNames.size();
+
+        CategoryTotals totals = scan(c, () -> new CategoryTotals(categories), (acc, from, to) -> {
+            for (int sale = from; sale < to; sale++) {
+                if (c.saleTime[sale] < range[0] || c.saleTime[sale] > range[1]) {
+                    continue;
+                }
+                for (int line = c.saleFirstLine[sale], end = c.lineEnd(sale); line < end; line++) {
+                    int category = productCategory[c.lineProduct[line]];
+                    if (category < 0) {
+                        continue;
+                    }
+                    // A sale counts once per category however many of its lines fall into it
+                    if (acc.lastSale[category] != sale) {
+                        acc.lastSale[category] = sale;
+                        acc.count[category]++;
+                    }
+                    acc.quantity[category] += c.lineQuantity[line];
+                    acc.revenue[category] += c.lineQuantity[line] * c.linePrice[line];
+                }
+            }
+        }, CategoryTotals::merge);
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int category = 0; category < categories; category++) {
+            if (totals.count[category] == 0) {
+                continue;
+            }
+            String name = categoryNames.get(category);
+            Map<String, Object> item = new HashMap<>();
+            item.put("categoryName", name != null ? name : "Uncategorized");
+            item.put("transactionCount", totals.count[category]);
+            item.put("itemsSold", totals.quantity[category]);
+            item.put("revenue", totals.revenue[category]);
+            result.add(item);
+        }
+        result.sort(byRevenueDescending());
+        AnalyticService.addPercentageOfTotal(result);
+        return result;
+    }
+
+    // Loads the columns on first use and appends the sales written since the last call,
+    // null if that read failed: the loaded columns would miss the newest sales
+    private Columns current() {
+        synchronized (loadLock) {
+            long current = generation.get();
+            Columns loaded = columns;
+            if (loaded == null || loaded.generation != current) {
+                loaded = new Columns(current);
+            }
+            Columns appended = append(loaded);
+            if (appended == null) {
+                System.err.println("Failed to load sales into the analytics columns");
+                return null;
+            }
+            columns = appended;
+            return appended;
+        }
+    }
+
+    /**
+     * Reads the sales with an ID above the last loaded one, then their lines, and returns the
+     * columns with both appended. The lines are read only up to the last sale read, so a sale
+     * committed in between is left for the next call instead of arriving without its sale.
+     *
+     * @return the extended columns, or null if a read failed
+     */
+    private Columns append(Columns base) {
+        Columns next = base.copy();
+        Map<String, Integer> paymentCodes = new HashMap<>();
+        for (int i = 0; i < next.paymentMethods.size(); i++) {
+            paymentCodes.put(next.paymentMethods.get(i), i);
+        }
+
+        boolean salesRead = db.forEachRow("SELECT id, sale_time_ms, payment_method, total_amount FROM sales " +
+                        "WHERE id > ? ORDER BY id",
+                resultSet -> new Object[]{resultSet.getLong("id"), resultSet.getLong("sale_time_ms"),
+                        resultSet.getString("payment_method"), resultSet.getDouble("total_amount")},
+                row -> {
+                    String method = (String) row[2];
+                    int code = paymentCodes.computeIfAbsent(method, name -> {
+                        next.paymentMethods.add(name);
+                        return next.paymentMethods.size() - 1;
+                    });
+                    long time = (Long) row[1];
+                    next.addSale((Long) row[0], time,
+                            Instant.ofEpochMilli(time).atZone(zone).toLocalDate().toEpochDay(), code, (Double) row[3]);
+                }, base.lastSaleId);
+        if (!salesRead) {
+            return null;
+        }
+        if (next.saleCount == base.saleCount) {
+            return base;
+        }
+
+        long lastSaleId = next.saleIds[next.saleCount - 1];
+        // Lines arrive in sale order, so the sale each belongs to is found by walking forward
+        int[] sale = {base.saleCount};
+        boolean linesRead = db.forEachRow("SELECT sale_id, product_id, quantity, unit_price FROM sales_items " +
+                        "WHERE sale_id > ? AND sale_id <= ? ORDER BY sale_id, id",
+                resultSet -> new Object[]{resultSet.getLong("sale_id"), resultSet.getInt("product_id"),
+                        resultSet.getDouble("quantity"), resultSet.getDouble("unit_price")},
+                row -> {
+                    long saleId = (Long) row[0];
+                    while (next.saleIds[sale[0]] < saleId) {
+                        sale[0]++;
+                        next.saleFirstLine[sale[0]] = next.lineCount;
+                    }
+                    next.addLine((Integer) row[1], (Double) row[2], (Double) row[3]);
+                }, base.lastSaleId, lastSaleId);
+        if (!linesRead) {
+            return null;
+        }
+        // Sales after the last one with lines start where the lines end
+        for (int i = sale[0] + 1; i < next.saleCount; i++) {
+            next.saleFirstLine[i] = next.lineCount;
+        }
+        next.lastSaleId = lastSaleId;
+        return next;
+    }
+
+    /**
+     * Aggregates the sales in chunks and merges the chunk results; the chunks run in
+     * parallel on the common fork/join pool when there is more than one.
+     */
+    private <A> A scan(Columns c, Supplier<A> newAccumulator, ChunkScan<A> chunkScan, BinaryOperator<A> merge) {
+        int chunks = Math.max(1, (c.saleCount + SALES_PER_CHUNK - 1) / SALES_PER_CHUNK);
+        return IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> {
+                    A accumulator = newAccumulator.get();
+                    int from = chunk * SALES_PER_CHUNK;
+                    chunkScan.scan(accumulator, from, Math.min(c.saleCount, from + SALES_PER_CHUNK));
+                    return accumulator;
+                })
+                .reduce(merge)
+                .orElseGet(newAccumulator);
+    }
+
+    private interface ChunkScan<A> {
+        void scan(A accumulator, int fromSale, int toSale);
+    }
+
+    private long[] millisRange(LocalDateTime startDate, LocalDateTime endDate) {
+        Object[] range = Timestamps.range(startDate, endDate);
+        return new long[]{(Long) range[0], (Long) range[1]};
+    }
+
+    // id, name, unit type and current price of the given products, by ID; null if the read failed
+    private Map<Integer, Map<String, Object>> productDetails(List<Integer> productIds) {
+        Map<Integer, Map<String, Object>> details = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return details;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(productIds.size(), "?"));
+        boolean read = db.forEachRow("SELECT id, name, unit_type, current_price FROM products WHERE id IN (" + placeholders + ")",
+                resultSet -> {
+                    Map<String, Object> item = new HashMap<>();
+                    item.put("id", resultSet.getInt("id"));
+                    item.put("name", resultSet.getString("name"));
+                    item.put("unitType", resultSet.getString("unit_type"));
+                    item.put("currentPrice", resultSet.getDouble("current_price"));
+                    return item;
+                },
+                item -> details.put((Integer) item.get("id"), item),
+                productIds.toArray());
+        return read ? details : null;
+    }
+
+    private static Comparator<Map<String, Object>> byRevenueDescending() {
+        return (a, b) -> Double.compare((Double) b.get("revenue"), (Double) a.get("revenue"));
+    }
+
+    /**
+     * Column arrays of the loaded sales (index = position in ID order) and their lines.
+     * Arrays only grow: appending writes past the published counts and publishes a new
+     * Columns, so a query keeps reading the counts it started with.
+     */
+    private static class Columns {
+        // Value of the engine's generation when the load began
+        final long generation;
+        int saleCount;
+        long[] saleIds = new long[INITIAL_CAPACITY];
+        long[] saleTime = new long[INITIAL_CAPACITY];
+        long[] saleDay = new long[INITIAL_CAPACITY];
+        int[] salePayment = new int[INITIAL_CAPACITY];
+        double[] saleTotal = new double[INITIAL_CAPACITY];
+        // Index of the sale's first line in the line columns
+        int[] saleFirstLine = new int[INITIAL_CAPACITY];
+
+        int lineCount;
+        int[] lineProduct = new int[INITIAL_CAPACITY];
+        double[] lineQuantity = new double[INITIAL_CAPACITY];
+        double[] linePrice = new double[INITIAL_CAPACITY];
+
+        int maxProductId;
+        long lastSaleId;
+        List<String> paymentMethods = new ArrayList<>();
+
+        Columns(long generation) {
+            this.generation = generation;
+        }
+
+        Columns copy() {
+            Columns copy = new Columns(generation);
+            copy.saleCount = saleCount;
+            copy.saleIds = saleIds;
+            copy.saleTime = saleTime;
+            copy.saleDay = saleDay;
+            copy.salePayment = salePayment;
+            copy.saleTotal = saleTotal;
+            copy.saleFirstLine = saleFirstLine;
+            copy.lineCount = lineCount;
+            copy.lineProduct = lineProduct;
+            copy.lineQuantity = lineQuantity;
+            copy.linePrice = linePrice;
+            copy.maxProductId = maxProductId;
+            copy.lastSaleId = lastSaleId;
+            copy.paymentMethods = new ArrayList<>(paymentMethods);
+            return copy;
+        }
+
+        int lineEnd(int sale) {
+            return sale + 1 < saleCount ? saleFirstLine[sale + 1] : lineCount;
+        }
+
+        void addSale(long id, long time, long day, int payment, double total) {
+            if (saleCount == saleIds.length) {
+                int capacity = saleCount * 2;
+                saleIds = Arrays.copyOf(saleIds, capacity);
+                saleTime = Arrays.copyOf(saleTime, capacity);
+                saleDay = Arrays.copyOf(saleDay, capacity);
+                salePayment = Arrays.copyOf(salePayment, capacity);
+                saleTotal = Arrays.copyOf(saleTotal, capacity);
+                saleFirstLine = Arrays.copyOf(saleFirstLine, capacity);
+            }
+            saleIds[saleCount] = id;
+            saleTime[saleCount] = time;
+            saleDay[saleCount] = day;
+            salePayment[saleCount] = payment;
+            saleTotal[saleCount] = total;
+            saleFirstLine[saleCount] = lineCount;
+            saleCount++;
+        }
+
+        void addLine(int product, double quantity, double price) {
+            if (lineCount == lineProduct.length) {
+                int capacity = lineCount * 2;
+                lineProduct = Arrays.copyOf(lineProduct, capacity);
+                lineQuantity = Arrays.copyOf(lineQuantity, capacity);
+                linePrice = Arrays.copyOf(linePrice, capacity);
+            }
+            lineProduct[lineCount] = product;
+            lineQuantity[lineCount] = quantity;
+            linePrice[lineCount] = price;
+            lineCount++;
+            maxProductId = Math.max(maxProductId, product);
+        }
+    }
+
+    private static class ProductTotals {
+        final int[] lines;
+        final double[] quantity;
+        final double[] revenue;
+
+        ProductTotals(int products) {
+            lines = new int[products];
+            quantity = new double[products];
+            revenue = new double[products];
+        }
+
+        static ProductTotals merge(ProductTotals a, ProductTotals b) {
+            for (int i = 0; i < a.lines.length; i++) {
+                a.lines[i] += b.lines[i];
+                a.quantity[i] += b.quantity[i];
+                a.revenue[i] += b.revenue[i];
+            }
+            return a;
+        }
+    }
+
+    // Count and revenue per group (day, payment method)
+    private static class GroupTotals {
+        final int[] count;
+        final double[] revenue;
+
+        GroupTotals(int groups) {
+            count = new int[groups];
+            revenue = new double[groups];
+        }
+
+        static GroupTotals merge(GroupTotals a, GroupTotals b) {
+            for (int i = 0; i < a.count.length; i++) {
+                a.count[i] += b.count[i];
+                a.revenue[i] += b.revenue[i];
+            }
+            return a;
+        }
+    }
+
+    private static class CategoryTotals {
+        final int[] count;
+        final double[] quantity;
+        final double[] revenue;
+        // Last sale counted per category, chunks hold whole sales so no sale is counted twice
+        final int[] lastSale;
+
+        CategoryTotals(int categories) {
+            count = new int[categories];
+            quantity = new double[categories];
+            revenue = new double[categories];
+            lastSale = new int[categories];
+            Arrays.fill(lastSale, -1);
+        }
+
+        static CategoryTotals merge(CategoryTotals a, CategoryTotals b) {
+            for (int i = 0; i < a.count.length; i++) {
+                a.count[i] += b.count[i];
+                a.quantity[i] += b.quantity[i];
+                a.revenue[i] += b.revenue[i];
+            }
+            return a;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming CSV parser: quoted fields, doubled quotes and line breaks inside quotes.
+ * The delimiter is taken from the first line, ';' (Excel in ru/kz locales) or ','.
+ */
+class CsvRowReader implements RowReader {
+    private final BufferedReader reader;
+    private char delimiter;
+    private boolean delimiterDetected;
+    private int lineNumber;
+    private int rowNumber;
+
+    CsvRowReader(Reader reader) {
+        this.reader = new BufferedReader(reader);
+    }
+
+    @Override
+    public List<String> next() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        lineNumber++;
+        rowNumber = lineNumber;
+        if (!delimiterDetected) {
+            // Byte order mark written by Excel
+            if (!line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1);
+            }
+            delimiter = countOf(line, ';') > countOf(line, ',') ? ';' : ',';
+            delimiterDetected = true;
+        }
+
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean inQuotes = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!inQuotes) {
+                    break;
+                }
+                // Line break inside a quoted field, continue with the next physical line
+                String continuation = reader.readLine();
+                if (continuation == null) {
+                    break;
+                }
+                lineNumber++;
+                cell.append('\n');
+                line = continuation;
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i < line.length() && line.charAt(i) == '"') {
+                        cell.append('"');
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == delimiter) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    @Override
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static int countOf(String line, char c) {
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
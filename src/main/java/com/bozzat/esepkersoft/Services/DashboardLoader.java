@@ -0,0 +1,57 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.DashboardListener;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Loads the analytics dashboard with its queries running side by side instead of one after
+ * another. Each query runs on its own virtual thread through AsyncDataService.read and takes
+ * its own read-only connection from dbManager, so the dashboard is complete after roughly the
+ * slowest query rather than the sum of all of them. Each widget is handed to the listener as
+ * soon as its own query finishes.
+ */
+public class DashboardLoader {
+    private final AnalyticService analyticService = new AnalyticService();
+    private final AsyncDataService asyncDataService = AsyncDataService.getInstance();
+
+    /**
+     * Starts all dashboard queries for the range at once.
+     *
+     * @return Future completed on the FX Application Thread once every widget was delivered or failed
+     */
+    public CompletableFuture<Void> load(LocalDateTime startDate, LocalDateTime endDate, DashboardListener listener) {
+        return CompletableFuture.allOf(
+                widget("topSellingProducts",
+                        () -> analyticService.getTopSellingProducts(startDate, endDate),
+                        listener::onTopSellingProducts, listener),
+                widget("mostProfitableProducts",
+                        () -> analyticService.getMostProfitableProducts(startDate, endDate),
+                        listener::onMostProfitableProducts, listener),
+                widget("slowMovingProducts",
+                        () -> analyticService.getSlowMovingProducts(startDate, endDate),
+                        listener::onSlowMovingProducts, listener),
+                widget("dailyRevenue",
+                        () -> analyticService.getDailyRevenue(startDate, endDate),
+                        listener::onDailyRevenue, listener),
+                widget("businessMetrics",
+                        () -> analyticService.getBusinessMetrics(startDate, endDate),
+                        listener::onBusinessMetrics, listener));
+    }
+
+    // Runs one query and delivers its result, or its failure, on the FX thread; never completes exceptionally
+    private <T> CompletableFuture<Void> widget(String name, Supplier<T> query, Consumer<T> onLoaded,
+                                               DashboardListener listener) {
+        return asyncDataService.read(query).handle((result, error) -> {
+            if (error != null) {
+                listener.onWidgetFailed(name, error.getCause() != null ? error.getCause() : error);
+            } else {
+                onLoaded.accept(result);
+            }
+            return null;
+        });
+    }
+}
@@ -6,13 +6,16 @@ import javafx.scene.control.TableView;
 import java.io.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Service class for exporting JavaFX TableView data to CSV files.
+ * Service class for exporting JavaFX TableView data and database reports to CSV files.
  * Uses standard Java I/O for CSV file generation.
  */
 public class ExcelService {
+    private final dbManager db = dbManager.getInstance();
+    private final AccountingService accountingService = new AccountingService();
     
     /**
      * Exports data from a TableView to a CSV file
@@ -28,21 +31,8 @@ public class ExcelService {
             return null;
         }
         
-        // Create file name with timestamp if not provided
-        String outputFileName = fileName;
-        if (outputFileName == null || outputFileName.trim().isEmpty()) {
-            LocalDateTime now = LocalDateTime.now();
-            String timestamp = now.format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            outputFileName = "export_" + timestamp;
-        }
-        
-        // Ensure filename has the .csv extension
-        if (!outputFileName.toLowerCase().endsWith(".csv")) {
-            outputFileName += ".csv";
-        }
-        
         // Create the CSV file
-        File csvFile = new File(outputFileName);
+        File csvFile = resolveOutputFile(fileName);
         
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
             // Get all columns
@@ -91,12 +81,131 @@ public class ExcelService {
         return exportTableViewToCSV(tableView, null);
     }
     
+    /**
+     * Exports the result of a SQL query to a CSV file. Rows are streamed from the
+     * database straight into the file, so large exports are never held in memory.
+     * 
+     * @param query The SELECT to export, each result column becomes a CSV column
+     * @param headers Header row written before the data
+     * @param fileName Optional custom file name (without extension)
+     * @param params Query parameters
+     * @return File object of the created CSV file, or null if export failed
+     */
+    public File exportQueryToCSV(String query, List<String> headers, String fileName, Object... params) {
+        File csvFile = resolveOutputFile(fileName);
+        
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writeRow(writer, headers);
+            
+            boolean completed = db.forEachRow(query, resultSet -> {
+                int columnCount = resultSet.getMetaData().getColumnCount();
+                List<String> values = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++) {
+                    values.add(resultSet.getString(i));
+                }
+                return values;
+            }, values -> {
+                try {
+                    writeRow(writer, values);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, params);
+            
+            return completed ? csvFile : null;
+            
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * Exports the full inventory (name, price, stock, unit, last batch date) to CSV
+     */
+    public File exportInventoryToCSV(String fileName) {
+        String query = "SELECT " +
+                "p.name, p.current_price, COALESCE(sb.quantity, 0) as stock_quantity, p.unit_type, " +
+                "(SELECT MAX(se.arrival_date) FROM stock_entries se WHERE se.product_id = p.id) as last_batch_date " +
+                "FROM products p " +
+                "LEFT JOIN stock_balances sb ON p.id = sb.product_id " +
+                "ORDER BY p.name";
+        
+        return exportQueryToCSV(query,
+                List.of("Наименование", "Цена", "Остаток", "Ед.", "Последняя партия"),
+                fileName);
+    }
+    
+    /**
+     * Exports the money flow history of a period to CSV, streaming it from AccountingService
+     */
+    public File exportMoneyFlowHistoryToCSV(LocalDateTime startDate, LocalDateTime endDate, String fileName) {
+        File csvFile = resolveOutputFile(fileName);
+        
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writeRow(writer, List.of("Дата", "Тип", "Описание", "Сумма"));
+            
+            boolean completed = accountingService.forEachMoneyFlow(startDate, endDate, transaction -> {
+                try {
+                    writeRow(writer, List.of(
+                            String.valueOf(transaction.get("transactionDate")),
+                            String.valueOf(transaction.get("type")),
+                            String.valueOf(transaction.get("description")),
+                            String.valueOf(transaction.get("amount"))));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            
+            return completed ? csvFile : null;
+            
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * Creates the output file, using a timestamped name if none was provided
+     */
+    private File resolveOutputFile(String fileName) {
+        // Create file name with timestamp if not provided
+        String outputFileName = fileName;
+        if (outputFileName == null || outputFileName.trim().isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            String timestamp = now.format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            outputFileName = "export_" + timestamp;
+        }
+        
+        // Ensure filename has the .csv extension
+        if (!outputFileName.toLowerCase().endsWith(".csv")) {
+            outputFileName += ".csv";
+        }
+        
+        return new File(outputFileName);
+    }
+    
+    /**
+     * Writes one escaped, comma separated line
+     */
+    private void writeRow(BufferedWriter writer, List<String> values) throws IOException {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            row.append(escapeCSV(values.get(i)));
+            if (i < values.size() - 1) {
+                row.append(",");
+            }
+        }
+        writer.write(row.toString());
+        writer.newLine();
+    }
+    
     /**
      * Escapes a string for CSV format
      * If the string contains commas, quotes, or newlines, it will be enclosed in quotes
      * Any quotes in the string will be doubled
      */
-    private String escapeCSV(String value) {
+    static String escapeCSV(String value) {
         if (value == null) {
             return "";
         }
@@ -20,10 +20,8 @@ public class ExpensesService {
      * Calculation method:
      * 1. Validates that the category name is not empty
      * 2. Checks if a category with the same name already exists (prevents duplicates)
-     * 3. Starts a database transaction
-     * 4. Inserts a new record into the expense_categories table
-     * 5. Retrieves the newly generated ID using last_insert_rowid()
-     * 6. Commits the transaction if successful, or rolls back on failure
+     * 3. Inserts a new record into the expense_categories table in a transaction
+     * 4. Returns the newly generated ID, the transaction rolls back on failure
      *
      * @param name The name of the expense category (required, must be unique)
      * @param description Optional description of the category
@@ -45,39 +43,14 @@ public class ExpensesService {
             return -1; // Category already exists
         }
         
-        // Start transaction
-        db.executeSet("BEGIN TRANSACTION");
-        
-        try {
-            // Insert new category
-            String query = "INSERT INTO expense_categories (name, description, created_at) VALUES (?, ?, ?)";
-            boolean success = db.executeSet(query, 
-                    name, 
-                    description != null ? description : "", 
-                    LocalDateTime.now().toString());
-            
-            if (!success) {
-                db.executeSet("ROLLBACK");
-                return -1;
-            }
-            
-            // Get the newly created category ID
-            String idQuery = "SELECT last_insert_rowid() as id";
-            List<Map<String, Object>> result = db.executeGet(idQuery);
-            
-            if (result.isEmpty()) {
-                db.executeSet("ROLLBACK");
-                return -1;
-            }
-            
-            // Commit transaction
-            db.executeSet("COMMIT");
-            
-            return ((Number) result.get(0).get("id")).intValue();
-        } catch (Exception e) {
-            db.executeSet("ROLLBACK");
-            return -1;
-        }
+        // Insert new category, the ID comes back from the same transaction
+        String query = "INSERT INTO expense_categories (name, description, created_at) VALUES (?, ?, ?)";
+        Long categoryId = db.inTransaction(tx -> tx.insert(query,
+                name,
+                description != null ? description : "",
+                LocalDateTime.now().toString()));
+
+        return categoryId != null ? categoryId.intValue() : -1;
     }
     
     /**
@@ -127,10 +100,8 @@ public class ExpensesService {
      * 
      * Calculation method:
      * 1. Validates input parameters (amount must be positive, category must exist)
-     * 2. Starts a database transaction
-     * 3. Inserts a new record into the expenses table
-     * 4. Retrieves the newly generated ID using last_insert_rowid()
-     * 5. Commits the transaction if successful, or rolls back on failure
+     * 2. Inserts a new record into the expenses table in a transaction
+     * 3. Returns the newly generated ID, the transaction rolls back on failure
      *
      * @param amount The expense amount (must be positive)
      * @param categoryId The ID of the expense category (must exist)
@@ -159,43 +130,19 @@ public class ExpensesService {
             expenseDate = LocalDateTime.now();
         }
         
-        // Start transaction
-        db.executeSet("BEGIN TRANSACTION");
-        
-        try {
-            // Insert new expense
-            String query = "INSERT INTO expenses (amount, category_id, description, expense_date, created_at) " +
-                    "VALUES (?, ?, ?, ?, ?)";
-            
-            boolean success = db.executeSet(query, 
-                    amount, 
-                    categoryId, 
-                    description != null ? description : "", 
-                    expenseDate.toString(),
-                    LocalDateTime.now().toString());
-            
-            if (!success) {
-                db.executeSet("ROLLBACK");
-                return -1;
-            }
-            
-            // Get the newly created expense ID
-            String idQuery = "SELECT last_insert_rowid() as id";
-            List<Map<String, Object>> result = db.executeGet(idQuery);
-            
-            if (result.isEmpty()) {
-                db.executeSet("ROLLBACK");
-                return -1;
-            }
-            
-            // Commit transaction
-            db.executeSet("COMMIT");
-            
-            return ((Number) result.get(0).get("id")).intValue();
-        } catch (Exception e) {
-            db.executeSet("ROLLBACK");
-            return -1;
-        }
+        // Insert new expense, the ID comes back from the same transaction
+        String query = "INSERT INTO expenses (amount, category_id, description, expense_date, expense_date_ms, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        LocalDateTime date = expenseDate;
+        Long expenseId = db.inTransaction(tx -> tx.insert(query,
+                amount,
+                categoryId,
+                description != null ? description : "",
+                date.toString(),
+                Timestamps.toEpochMillis(date),
+                LocalDateTime.now().toString()));
+
+        return expenseId != null ? expenseId.intValue() : -1;
     }
     
     /**
@@ -284,30 +231,22 @@ public class ExpensesService {
                 "ec.name as category_name " +
                 "FROM expenses e " +
                 "JOIN expense_categories ec ON e.category_id = ec.id " +
-                "WHERE e.expense_date BETWEEN ? AND ? " +
-                "ORDER BY e.expense_date DESC";
+                "WHERE e.expense_date_ms BETWEEN ? AND ? " +
+                "ORDER BY e.expense_date_ms DESC";
         
-        List<Map<String, Object>> results = db.executeGet(query, 
-                startDate.toString(), 
-                endDate.toString());
-        
-        List<Map<String, Object>> expenses = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
+        return db.query(query, resultSet -> {
             Map<String, Object> expense = new HashMap<>();
             
-            expense.put("id", ((Number) row.get("id")).intValue());
-            expense.put("amount", ((Number) row.get("amount")).doubleValue());
-            expense.put("expenseDate", (String) row.get("expense_date"));
-            expense.put("description", (String) row.get("description"));
-            expense.put("createdAt", (String) row.get("created_at"));
-            expense.put("categoryId", ((Number) row.get("category_id")).intValue());
-            expense.put("categoryName", (String) row.get("category_name"));
+            expense.put("id", resultSet.getInt("id"));
+            expense.put("amount", resultSet.getDouble("amount"));
+            expense.put("expenseDate", resultSet.getString("expense_date"));
+            expense.put("description", resultSet.getString("description"));
+            expense.put("createdAt", resultSet.getString("created_at"));
+            expense.put("categoryId", resultSet.getInt("category_id"));
+            expense.put("categoryName", resultSet.getString("category_name"));
             
-            expenses.add(expense);
-        }
-        
-        return expenses;
+            return expense;
+        }, Timestamps.range(startDate, endDate));
     }
     
     /**
@@ -342,29 +281,21 @@ public class ExpensesService {
                 "e.description, " +
                 "e.created_at " +
                 "FROM expenses e " +
-                "WHERE e.category_id = ? AND e.expense_date BETWEEN ? AND ? " +
-                "ORDER BY e.expense_date DESC";
-        
-        List<Map<String, Object>> results = db.executeGet(query, 
-                categoryId,
-                startDate.toString(), 
-                endDate.toString());
+                "WHERE e.category_id = ? AND e.expense_date_ms BETWEEN ? AND ? " +
+                "ORDER BY e.expense_date_ms DESC";
+        Object[] range = Timestamps.range(startDate, endDate);
         
-        List<Map<String, Object>> expenses = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
+        return db.query(query, resultSet -> {
             Map<String, Object> expense = new HashMap<>();
             
-            expense.put("id", ((Number) row.get("id")).intValue());
-            expense.put("amount", ((Number) row.get("amount")).doubleValue());
-            expense.put("expenseDate", (String) row.get("expense_date"));
-            expense.put("description", (String) row.get("description"));
-            expense.put("createdAt", (String) row.get("created_at"));
+            expense.put("id", resultSet.getInt("id"));
+            expense.put("amount", resultSet.getDouble("amount"));
+            expense.put("expenseDate", resultSet.getString("expense_date"));
+            expense.put("description", resultSet.getString("description"));
+            expense.put("createdAt", resultSet.getString("created_at"));
             expense.put("categoryId", categoryId);
             
-            expenses.add(expense);
-        }
-        
-        return expenses;
+            return expense;
+        }, categoryId, range[0], range[1]);
     }
 }
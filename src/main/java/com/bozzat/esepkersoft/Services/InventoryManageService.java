@@ -1,6 +1,6 @@
 package com.bozzat.esepkersoft.Services;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
+import com.bozzat.esepkersoft.Interfaces.RowMapper;
+
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,6 +8,25 @@ import java.util.Map;
 public class InventoryManageService {
     private final dbManager db = dbManager.getInstance();
     
+    // Builds the simplified inventory row straight from the result set
+    private static final RowMapper<Map<String, Object>> INVENTORY_ROW = resultSet -> {
+        Map<String, Object> item = new HashMap<>();
+        
+        // Essential product info
+        item.put("name", resultSet.getString("name"));
+        item.put("unitType", resultSet.getString("unit_type"));
+        item.put("currentPrice", resultSet.getDouble("current_price"));
+        
+        // Stock quantity
+        item.put("quantityInStock", resultSet.getDouble("stock_quantity"));
+        
+        // Last batch date
+        String lastBatchDate = resultSet.getString("last_batch_date");
+        item.put("lastBatchDate", lastBatchDate != null ? lastBatchDate : "");
+        
+        return item;
+    };
+    
     /**
      * Returns inventory information with only essential fields:
      * - Product name
@@ -28,32 +47,7 @@ public class InventoryManageService {
                 "LEFT JOIN stock_balances sb ON p.id = sb.product_id " +
                 "ORDER BY p.name " + (ascending ? "ASC" : "DESC");
                 
-        List<Map<String, Object>> results = db.executeGet(query);
-        List<Map<String, Object>> inventory = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
-            Map<String, Object> item = new HashMap<>();
-            
-            // Essential product info
-            item.put("name", (String) row.get("name"));
-            item.put("unitType", (String) row.get("unit_type"));
-            item.put("currentPrice", ((Number) row.get("current_price")).doubleValue());
-            
-            // Stock quantity
-            double quantity = ((Number) row.get("stock_quantity")).doubleValue();
-            item.put("quantityInStock", quantity);
-            
-            // Last batch date
-            if (row.get("last_batch_date") != null) {
-                item.put("lastBatchDate", (String) row.get("last_batch_date"));
-            } else {
-                item.put("lastBatchDate", "");
-            }
-            
-            inventory.add(item);
-        }
-        
-        return inventory;
+        return db.query(query, INVENTORY_ROW);
     }
     
     /**
@@ -85,32 +79,7 @@ public class InventoryManageService {
                 "WHERE p.category_id = ? " +
                 "ORDER BY p.name " + (ascending ? "ASC" : "DESC");
                 
-        List<Map<String, Object>> results = db.executeGet(query, categoryId);
-        List<Map<String, Object>> inventory = new ArrayList<>();
-        
-        for (Map<String, Object> row : results) {
-            Map<String, Object> item = new HashMap<>();
-            
-            // Essential product info
-            item.put("name", (String) row.get("name"));
-            item.put("unitType", (String) row.get("unit_type"));
-            item.put("currentPrice", ((Number) row.get("current_price")).doubleValue());
-            
-            // Stock quantity
-            double quantity = ((Number) row.get("stock_quantity")).doubleValue();
-            item.put("quantityInStock", quantity);
-            
-            // Last batch date
-            if (row.get("last_batch_date") != null) {
-                item.put("lastBatchDate", (String) row.get("last_batch_date"));
-            } else {
-                item.put("lastBatchDate", "");
-            }
-            
-            inventory.add(item);
-        }
-        
-        return inventory;
+        return db.query(query, INVENTORY_ROW, categoryId);
     }
     
     /**
@@ -0,0 +1,172 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.PriceChangeListener;
+import com.bozzat.esepkersoft.Interfaces.RowMapper;
+import com.bozzat.esepkersoft.Models.PriceChange;
+import com.bozzat.esepkersoft.Models.PriceFilter;
+import com.bozzat.esepkersoft.Models.PriceRule;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bulk repricing: changes the price of every product matching a PriceFilter according
+ * to a PriceRule, in a single UPDATE instead of one updateProduct call per product.
+ *
+ * preview() returns the diff without writing anything. apply() computes the same diff
+ * and writes it in one transaction, then updates the barcode index and notifies the
+ * registered listeners (open carts) with the committed changes.
+ *
+ * Products whose new price would not be positive, or would not change, are left out.
+ * With MARKUP_OVER_PURCHASE, products that were never delivered are left out as well.
+ */
+public class PriceChangeService {
+    private static final String LAST_PURCHASE_PRICE = "(SELECT se.purchase_price FROM stock_entries se " +
+            "WHERE se.product_id = products.id ORDER BY se.arrival_date DESC, se.id DESC LIMIT 1)";
+
+    private static final RowMapper<PriceChange> PRICE_CHANGE = resultSet -> new PriceChange(
+            resultSet.getInt("id"),
+            resultSet.getString("barcode"),
+            resultSet.getString("name"),
+            resultSet.getDouble("current_price"),
+            resultSet.getDouble("new_price"));
+
+    // Weak, so a closed sale point window does not stay registered
+    private static final List<WeakReference<PriceChangeListener>> listeners = new CopyOnWriteArrayList<>();
+
+    private final dbManager db = dbManager.getInstance();
+    private final BarcodeIndex barcodeIndex = BarcodeIndex.getInstance();
+
+    /**
+     * Registers a listener for committed price changes. Only a weak reference is kept,
+     * the caller must hold on to the listener for as long as it wants the updates.
+     */
+    public static void addListener(PriceChangeListener listener) {
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    public static void removeListener(PriceChangeListener listener) {
+        listeners.removeIf(reference -> reference.get() == null || reference.get() == listener);
+    }
+
+    /**
+     * @return The changes apply() would make, ordered by product name,
+     *         or null if the filter is empty or the query failed
+     */
+    public List<PriceChange> preview(PriceFilter filter, PriceRule rule) {
+        List<Object> params = new ArrayList<>();
+        String query = buildChangesQuery(filter, rule, params);
+        if (query == null) {
+            return null;
+        }
+        return db.query(query + " ORDER BY name", PRICE_CHANGE, params.toArray());
+    }
+
+    /**
+     * Applies the price change in one transaction.
+     *
+     * @return The committed changes, or null if the filter is empty or the update failed
+     */
+    public List<PriceChange> apply(PriceFilter filter, PriceRule rule) {
+        List<Object> params = new ArrayList<>();
+        String changesQuery = buildChangesQuery(filter, rule, params);
+        if (changesQuery == null) {
+            return null;
+        }
+
+        List<PriceChange> applied = db.inTransaction(tx -> {
+            // The writer lock is held, so the diff cannot go stale before the UPDATE
+            List<PriceChange> changes = tx.query(changesQuery, PRICE_CHANGE, params.toArray());
+            if (changes.isEmpty()) {
+                return changes;
+            }
+            int updated = tx.update("UPDATE products SET current_price = changes.new_price " +
+                    "FROM (" + changesQuery + ") AS changes WHERE products.id = changes.id", params.toArray());
+            if (updated != changes.size()) {
+                throw new IllegalStateException("Expected " + changes.size() + " price updates, got " + updated);
+            }
+            tx.afterCommit(() -> publish(changes));
+            return changes;
+        });
+        if (applied != null) {
+            System.out.println("Bulk price change applied to " + applied.size() + " products");
+        }
+        return applied;
+    }
+
+    // SELECT of the rows to change with their old and new price, null for an empty filter
+    private String buildChangesQuery(PriceFilter filter, PriceRule rule, List<Object> params) {
+        if (filter == null || filter.isEmpty()) {
+            System.err.println("Bulk price change needs at least one filter criterion");
+            return null;
+        }
+        if (rule == null || rule.getType() == null) {
+            System.err.println("Bulk price change needs a price rule");
+            return null;
+        }
+
+        params.add(rule.getValue());
+        String select = "SELECT id, barcode, name, current_price, " + newPriceExpression(rule) + " AS new_price " +
+                "FROM products WHERE " + whereClause(filter, params);
+        return "SELECT * FROM (" + select + ") WHERE new_price > 0 AND new_price <> current_price";
+    }
+
+    // Takes one parameter, the rule value
+    private String newPriceExpression(PriceRule rule) {
+        String price = switch (rule.getType()) {
+            case PERCENT -> "current_price * (1 + ? / 100.0)";
+            case FIXED_DELTA -> "current_price + ?";
+            case MARKUP_OVER_PURCHASE -> LAST_PURCHASE_PRICE + " * (1 + ? / 100.0)";
+        };
+        return rule.isRoundToFive()
+                ? "ROUND((" + price + ") / 5.0) * 5"
+                : "ROUND(" + price + ", 2)";
+    }
+
+    private String whereClause(PriceFilter filter, List<Object> params) {
+        List<String> conditions = new ArrayList<>();
+        if (filter.getCategoryId() != null) {
+            conditions.add("category_id = ?");
+            params.add(filter.getCategoryId());
+        }
+        if (filter.getSupplierId() != null) {
+            conditions.add("EXISTS (SELECT 1 FROM stock_entries se " +
+                    "WHERE se.product_id = products.id AND se.supplier_id = ?)");
+            params.add(filter.getSupplierId());
+        }
+        if (filter.getNamePattern() != null && !filter.getNamePattern().isBlank()) {
+            conditions.add("name LIKE ?");
+            params.add(filter.getNamePattern());
+        }
+        if (filter.getBarcodes() != null && !filter.getBarcodes().isEmpty()) {
+            conditions.add("barcode IN (" + String.join(", ", Collections.nCopies(filter.getBarcodes().size(), "?")) + ")");
+            params.addAll(filter.getBarcodes());
+        }
+        return String.join(" AND ", conditions);
+    }
+
+    // Runs after commit: scans see the new prices at once, then open carts are told
+    private void publish(List<PriceChange> changes) {
+        // Not through get(), which answers null while the index is loading and would skip the price
+        for (PriceChange change : changes) {
+            barcodeIndex.updatePrice(change.getBarcode(), change.getNewPrice());
+        }
+
+        List<PriceChange> committed = Collections.unmodifiableList(changes);
+        for (WeakReference<PriceChangeListener> reference : listeners) {
+            PriceChangeListener listener = reference.get();
+            if (listener == null) {
+                listeners.remove(reference);
+                continue;
+            }
+            try {
+                listener.onPricesChanged(committed);
+            } catch (RuntimeException e) {
+                System.err.println("Price change listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
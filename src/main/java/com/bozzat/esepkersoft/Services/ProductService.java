@@ -1,79 +1,159 @@
 package com.bozzat.esepkersoft.Services;
 
 import com.bozzat.esepkersoft.Models.Product;
+import com.bozzat.esepkersoft.Models.ScanResult;
 import com.bozzat.esepkersoft.Models.StockEntry;
 
+import java.sql.SQLException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class ProductService {
+    // Adds quantity to a product's stock balance, inserting the row if the product has none yet
+    static final String ADD_STOCK_BALANCE_QUERY = "INSERT INTO stock_balances (product_id, quantity, updated_at) " +
+            "VALUES (?, ?, datetime('now', 'localtime')) " +
+            "ON CONFLICT(product_id) DO UPDATE SET " +
+            "quantity = quantity + excluded.quantity, updated_at = excluded.updated_at";
+    // Most matches a search ranks; bm25 inside the FTS query costs about 1.6 µs per match
+    private static final int SEARCH_RANK_LIMIT = 5000;
+
     private final dbManager db = dbManager.getInstance();
+    private final BarcodeIndex barcodeIndex = BarcodeIndex.getInstance();
+    private final ScaleBarcodeDecoder scaleDecoder = new ScaleBarcodeDecoder();
 
+    // Served from the in-memory index, the database is only asked for barcodes it does not hold
     public Product getProductByBarcode(String barcode) {
         if (barcode == null || barcode.trim().isEmpty()) {
             return null;
         }
 
-        String query = "SELECT * FROM products WHERE barcode = ?";
-        List<Map<String, Object>> results = db.executeGet(query, barcode.trim());
+        String trimmedBarcode = barcode.trim();
+        Product product = barcodeIndex.get(trimmedBarcode);
+        if (product != null) {
+            return product;
+        }
 
-        if (results.isEmpty()) {
+        String query = "SELECT * FROM products WHERE barcode = ?";
+        product = db.queryOne(query, RowMappers.PRODUCT, trimmedBarcode);
+        if (product != null && barcodeIndex.isLoaded()) {
+            barcodeIndex.put(product);
+        }
+        return product;
+    }
+    /**
+     * Resolves whatever the scanner read. Scale labels (EAN-13 with prefix 20-29) are split
+     * into the PLU and the weight or price, and the quantity is taken from the label;
+     * any other code is looked up as an ordinary barcode with quantity 1.
+     *
+     * @return the product with the quantity to add, or null if nothing matches
+     */
+    public ScanResult resolveScan(String barcode) {
+        if (barcode == null || barcode.trim().isEmpty()) {
             return null;
         }
 
-        Map<String, Object> productData = results.get(0);
-        Product product = new Product();
-
-        // Safely extract the 'id' value
-        Object idObj = productData.get("id");
-        if (idObj == null) {
-            throw new RuntimeException("Product ID not found.");
+        ScaleBarcodeDecoder.ScaleLabel label = scaleDecoder.decode(barcode);
+        if (label != null) {
+            Product product = getProductByPlu(label.productCode(), barcode.trim());
+            if (product != null) {
+                return new ScanResult(product, quantityFromLabel(label, product), true);
+            }
+            // Not a known PLU, may be a packaged product whose own barcode starts with 2x
         }
-        product.setId(((Number) idObj).intValue());
 
-        // Safely extract the 'name' value
-        product.setName((String) productData.get("name"));
+        Product product = getProductByBarcode(barcode);
+        return product != null ? new ScanResult(product, 1.0, false) : null;
+    }
 
-        // Safely extract the 'barcode' value
-        product.setBarcode((String) productData.get("barcode"));
+    // Weighed products are registered under their scale PLU, with or without the leading zeros
+    // or as the 7-digit prefix + PLU. The index answers without SQLite; only while it is not
+    // loaded the candidates are checked with a single query.
+    private Product getProductByPlu(String productCode, String barcode) {
+        String withoutZeros = productCode.replaceFirst("^0+(?=.)", "");
+        String withPrefix = barcode.substring(0, 2 + productCode.length());
+        if (barcodeIndex.isLoaded()) {
+            for (String candidate : new String[]{productCode, withoutZeros, withPrefix}) {
+                Product product = barcodeIndex.get(candidate);
+                if (product != null) {
+                    return product;
+                }
+            }
+            return null;
+        }
+        return db.queryOne("SELECT * FROM products WHERE barcode IN (?, ?, ?) LIMIT 1",
+                RowMappers.PRODUCT, productCode, withoutZeros, withPrefix);
+    }
 
-        // Safely extract 'category_id' and handle possible null
-        Object categoryIdObj = productData.get("category_id");
-        if (categoryIdObj != null) {
-            product.setCategoryId(((Number) categoryIdObj).intValue());
-        } else {
-            product.setCategoryId(0);  // Or some default value or handling
+    private double quantityFromLabel(ScaleBarcodeDecoder.ScaleLabel label, Product product) {
+        if (label.valueType() == ScaleBarcodeDecoder.ValueType.WEIGHT) {
+            return label.value();
+        }
+        // Price label: the scale computed price = weight * price per kg
+        if (product.getCurrentPrice() <= 0) {
+            return 1.0;
         }
+        return Math.round(label.value() / product.getCurrentPrice() * 1000) / 1000.0;
+    }
 
-        // Safely extract the 'unit_type'
-        product.setUnitType((String) productData.get("unit_type"));
+    /**
+     * Type-ahead product search by name or part of the barcode. Every word of the query
+     * is matched as a prefix ("мол прост" finds "Молоко Простоквашино") and the results
+     * are ordered by FTS5 bm25 rank over all matches.
+     *
+     * A query matching more than SEARCH_RANK_LIMIT products returns nothing: ranking them all
+     * takes longer than a keystroke, and any part of them would not hold the best matches.
+     * The cashier narrows such a query by typing on.
+     *
+     * @param limit Maximum number of products to return
+     * @return Matching products, best match first; empty if the query has no words or too many matches
+     */
+    public List<Product> searchProducts(String query, int limit) {
+        String matchExpression = toPrefixMatch(query);
+        if (matchExpression.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
 
-        // Safely extract 'current_price'
-        Object priceObj = productData.get("current_price");
-        if (priceObj != null) {
-            product.setCurrentPrice(((Number) priceObj).doubleValue());
-        } else {
-            product.setCurrentPrice(0.0);  // Handle default value if needed
+        // Counting reads the rowids of the matches only, and stops after SEARCH_RANK_LIMIT + 1
+        Integer matches = db.queryOne("SELECT COUNT(*) AS matches FROM (" +
+                        "SELECT rowid FROM products_fts WHERE products_fts MATCH ? LIMIT ?)",
+                resultSet -> resultSet.getInt("matches"), matchExpression, SEARCH_RANK_LIMIT + 1);
+        if (matches == null || matches == 0 || matches > SEARCH_RANK_LIMIT) {
+            return new ArrayList<>();
         }
 
-        // Safely parse 'created_at' string to LocalDateTime with custom formatter
-        String createdAtStr = (String) productData.get("created_at");
-        if (createdAtStr != null) {
-            // Define the format of your date string
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            try {
-                product.setCreatedAt(LocalDateTime.parse(createdAtStr, formatter));
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to parse 'created_at' date: " + e.getMessage());
+        // The count above makes the inner LIMIT a no-op, so every match is ranked. Sorting outside
+        // the FTS query is faster than FTS5's own ORDER BY rank, and only the best are joined
+        String sql = "SELECT p.* FROM (" +
+                "SELECT rowid, rank FROM (" +
+                "SELECT rowid, rank FROM products_fts WHERE products_fts MATCH ? LIMIT ?" +
+                ") ORDER BY rank LIMIT ?" +
+                ") AS matches " +
+                "JOIN products p ON p.id = matches.rowid " +
+                "ORDER BY matches.rank";
+        return db.query(sql, RowMappers.PRODUCT, matchExpression, SEARCH_RANK_LIMIT, limit);
+    }
+
+    // Quotes every word so FTS5 operators typed by the user are taken literally, e.g. "мол"* "3"*
+    private String toPrefixMatch(String query) {
+        if (query == null) {
+            return "";
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : query.trim().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
             }
-        } else {
-            product.setCreatedAt(LocalDateTime.now());  // Or a default value
+            match.append('"').append(word).append("\"*");
         }
-
-        return product;
+        return match.toString();
     }
+
     public Product addProduct(Product product) {
         if (product == null ||
                 product.getBarcode() == null || product.getBarcode().trim().isEmpty() ||
@@ -83,45 +163,25 @@ public class ProductService {
             return null;
         }
 
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-
+        return db.inTransaction(tx -> {
             String query = "INSERT INTO products " +
-                    "(name, barcode, unit_type, current_price) " +
-                    "VALUES (?, ?, ?, ?)";
-            System.out.println(product.getName().trim() +
-                    product.getBarcode().trim() +
-                    product.getUnitType() +
-                    product.getCurrentPrice());
-            if (!db.executeSet(query,
+                    "(name, barcode, unit_type, current_price, category_id) " +
+                    "VALUES (?, ?, ?, ?, ?)";
+            long productId = tx.insert(query,
                     product.getName().trim(),
                     product.getBarcode().trim(),
                     product.getUnitType(),
-                    product.getCurrentPrice())) {
-                System.out.println(product.getName().trim() +
-                        product.getBarcode().trim() +
-                        product.getUnitType() +
-                        product.getCurrentPrice());
-                throw new Exception("Failed to insert product");
-            }
+                    product.getCurrentPrice(),
+                    categoryIdOrNull(product));
 
             // Get the complete product data
-            Product createdProduct = getProductByBarcode(product.getBarcode());
+            Product createdProduct = tx.queryOne("SELECT * FROM products WHERE id = ?", RowMappers.PRODUCT, productId);
             if (createdProduct == null) {
                 throw new Exception("Failed to retrieve created product");
             }
-
-            // Commit transaction
-            db.executeSet("COMMIT");
-
+            tx.afterCommit(() -> barcodeIndex.put(createdProduct));
             return createdProduct;
-
-        } catch (Exception e) {
-            System.err.println("Product addition failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return null;
-        }
+        });
     }
 
     public boolean updateProduct(Product product) {
@@ -129,36 +189,26 @@ public class ProductService {
             return false;
         }
 
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-            
-            // Get the existing product to check if price has changed
-          
-
+        Boolean updated = db.inTransaction(tx -> {
             String query = "UPDATE products SET " +
                     "barcode = ?, name = ?, " +
-                    "unit_type = ?, current_price = ? " +
+                    "unit_type = ?, current_price = ?, category_id = ? " +
                     "WHERE id = ?";
 
-            if (!db.executeSet(query,
+            if (tx.update(query,
                     product.getBarcode(),
                     product.getName(),
                     product.getUnitType(),
                     product.getCurrentPrice(),
-                    product.getId())) {
-                throw new Exception("Failed to update product");
+                    categoryIdOrNull(product),
+                    product.getId()) == 0) {
+                throw new Exception("Product not found: " + product.getId());
             }
-            
-            // Commit transaction
-            db.executeSet("COMMIT");
+            Product updatedProduct = tx.queryOne("SELECT * FROM products WHERE id = ?", RowMappers.PRODUCT, product.getId());
+            tx.afterCommit(() -> barcodeIndex.put(updatedProduct));
             return true;
-            
-        } catch (Exception e) {
-            System.err.println("Product update failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return false;
-        }
+        });
+        return updated != null;
     }
 
     public boolean deleteProduct(long productId) {
@@ -166,87 +216,46 @@ public class ProductService {
             return false;
         }
 
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-
+        Boolean deleted = db.inTransaction(tx -> {
             // Check if product exists in stock_balances
-            List<Map<String, Object>> stockCheck = db.executeGet(
+            Double currentStock = tx.queryOne(
                     "SELECT quantity FROM stock_balances WHERE product_id = ?",
+                    resultSet -> resultSet.getDouble("quantity"),
                     productId
             );
 
-            if (!stockCheck.isEmpty()) {
-                double currentStock = ((Number) stockCheck.get(0).get("quantity")).doubleValue();
-                if (currentStock > 0) {
-                    System.err.println("Cannot delete product with remaining stock");
-                    db.executeSet("ROLLBACK");
-                    return false;
-                }
+            if (currentStock != null && currentStock > 0) {
+                throw new Exception("Cannot delete product with remaining stock");
             }
 
             // Delete the product (ON DELETE CASCADE will handle related records)
-            if (!db.executeSet("DELETE FROM products WHERE id = ?", productId)) {
-                throw new Exception("Failed to delete product");
-            }
-
-            // Commit transaction
-            db.executeSet("COMMIT");
+            tx.update("DELETE FROM products WHERE id = ?", productId);
+            tx.afterCommit(() -> barcodeIndex.remove((int) productId));
             return true;
-
-        } catch (Exception e) {
-            System.err.println("Product deletion failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return false;
-        }
+        });
+        return deleted != null;
     }
 
+    // Products without a category keep category_id NULL rather than pointing at a missing row
+    private Integer categoryIdOrNull(Product product) {
+        return product.getCategoryId() > 0 ? product.getCategoryId() : null;
+    }
 
-
-    private boolean updateStockBalance(int productId, double quantityChange) {
-        try {
-            // Check if stock balance exists
-            List<Map<String, Object>> existingBalance = db.executeGet(
-                    "SELECT quantity FROM stock_balances WHERE product_id = ?",
-                    productId
-            );
-
-            if (existingBalance.isEmpty()) {
-                // Only allow positive quantities for new balances
-                if (quantityChange < 0) {
-                    return false;
-                }
-                
-                // Create new stock balance
-                String insertQuery = "INSERT INTO stock_balances (product_id, quantity, updated_at) " +
-                        "VALUES (?, ?, datetime('now', 'localtime'))";
-                return db.executeSet(insertQuery, productId, quantityChange);
-            } else {
-                // Get current quantity
-                double currentQuantity = ((Number) existingBalance.get(0).get("quantity")).doubleValue();
-                
-                // Check if the resulting quantity would be negative
-                if ((currentQuantity + quantityChange) < 0) {
-                    return false;
-                }
-                
-                // Update existing stock balance
-                String updateQuery = "UPDATE stock_balances SET quantity = quantity + ?, updated_at = datetime('now', 'localtime') " +
-                        "WHERE product_id = ?";
-                return db.executeSet(updateQuery, quantityChange, productId);
-            }
-        } catch (Exception e) {
-            System.err.println("Stock balance update failed: " + e.getMessage());
-            return false;
-        }
+    // Adds to the product's balance, creating it on the first delivery; one statement
+    // thanks to the unique index on stock_balances.product_id
+    private void addToStockBalance(Tx tx, int productId, double quantity) throws SQLException {
+        tx.update(ADD_STOCK_BALANCE_QUERY, productId, quantity);
     }
 
-    private boolean addStockEntry(int productId, double quantity, double purchasePrice, int supplierId, String note) {
+    private void addStockEntry(Tx tx, int productId, double quantity, double purchasePrice, int supplierId, String note) throws SQLException {
+        // A new lot starts with all of its quantity remaining
         String query = "INSERT INTO stock_entries " +
-                "(product_id, quantity, purchase_price, supplier_id, arrival_date, note) " +
-                "VALUES (?, ?, ?, ?, datetime('now', 'localtime'), ?)";
-        
-        return db.executeSet(query, productId, quantity, purchasePrice, supplierId, note != null ? note : "");
+                "(product_id, quantity, purchase_price, supplier_id, arrival_date, arrival_date_ms, note, remaining_quantity) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+        LocalDateTime arrival = Timestamps.now();
+        tx.update(query, productId, quantity, purchasePrice, supplierId,
+                Timestamps.format(arrival), Timestamps.toEpochMillis(arrival), note != null ? note : "", quantity);
     }
 
     public boolean addBatchEntry(Product product, StockEntry stockEntry) {
@@ -256,41 +265,80 @@ public class ProductService {
             return false;
         }
 
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-
+        Boolean added = db.inTransaction(tx -> {
             // Verify product exists
-            Product existingProduct = getProductByBarcode(product.getBarcode());
+            Product existingProduct = tx.queryOne("SELECT * FROM products WHERE barcode = ?",
+                    RowMappers.PRODUCT, product.getBarcode().trim());
             if (existingProduct == null) {
                 throw new Exception("Product not found with barcode: " + product.getBarcode());
             }
 
             // Add stock entry
-            if (!addStockEntry(existingProduct.getId(), 
-                               stockEntry.getQuantity(), 
-                               stockEntry.getPurchasePrice(), 
-                               stockEntry.getSupplierId(),
-                               stockEntry.getNote())) {
-                throw new Exception("Failed to add stock entry");
-            }
+            addStockEntry(tx, existingProduct.getId(),
+                          stockEntry.getQuantity(),
+                          stockEntry.getPurchasePrice(),
+                          stockEntry.getSupplierId(),
+                          stockEntry.getNote());
 
             // Update stock balance
-            if (!updateStockBalance(existingProduct.getId(), stockEntry.getQuantity())) {
-                throw new Exception("Failed to update stock balance");
-            }
-
-            // Commit transaction
-            db.executeSet("COMMIT");
+            addToStockBalance(tx, existingProduct.getId(), stockEntry.getQuantity());
             return true;
+        });
+        return added != null;
+    }
 
-        } catch (Exception e) {
-            System.err.println("Batch entry addition failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
+    /**
+     * Records a multi-line delivery (e.g. a wholesale receipt) in one transaction:
+     * all stock entries go in as one batch and stock balances are adjusted with
+     * one batched upsert.
+     *
+     * @param stockEntries Entries with productId, quantity, purchase price and optional supplier/note
+     * @return true if every line was recorded, false if any line was invalid or a write failed
+     */
+    public boolean addBatchEntries(List<StockEntry> stockEntries) {
+        if (stockEntries == null || stockEntries.isEmpty()) {
             return false;
         }
+
+        List<Object[]> entryRows = new ArrayList<>(stockEntries.size());
+        LocalDateTime arrival = Timestamps.now();
+        // Quantities summed per product, so a product listed twice gets a single balance row
+        Map<Integer, Double> quantityByProduct = new LinkedHashMap<>();
+        for (StockEntry entry : stockEntries) {
+            if (entry == null || entry.getProductId() <= 0 ||
+                entry.getQuantity() <= 0 || entry.getPurchasePrice() <= 0) {
+                return false;
+            }
+            entryRows.add(new Object[]{
+                    entry.getProductId(),
+                    entry.getQuantity(),
+                    entry.getPurchasePrice(),
+                    entry.getSupplierId(),
+                    Timestamps.format(arrival),
+                    Timestamps.toEpochMillis(arrival),
+                    entry.getNote() != null ? entry.getNote() : "",
+                    entry.getQuantity()});
+            quantityByProduct.merge(entry.getProductId(), entry.getQuantity(), Double::sum);
+        }
+
+        Boolean added = db.inTransaction(tx -> {
+            String insertEntryQuery = "INSERT INTO stock_entries " +
+                    "(product_id, quantity, purchase_price, supplier_id, arrival_date, arrival_date_ms, note, remaining_quantity) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+            tx.executeBatch(insertEntryQuery, entryRows);
+
+            List<Object[]> balanceRows = new ArrayList<>(quantityByProduct.size());
+            quantityByProduct.forEach((productId, quantity) -> balanceRows.add(new Object[]{productId, quantity}));
+            tx.executeBatch(ADD_STOCK_BALANCE_QUERY, balanceRows);
+            return true;
+        });
+        return added != null;
     }
 
+    /**
+     * Adds the product together with its first stock entry and balance.
+     * Everything commits together, if the stock entry fails the product is not created either.
+     */
     public Product registerNewProduct(Product product, StockEntry stockEntry) {
         if (product == null || stockEntry == null || 
             product.getBarcode() == null || product.getBarcode().isEmpty() ||
@@ -298,44 +346,27 @@ public class ProductService {
             return null;
         }
 
-        try {
-            // Start transaction
+        return db.inTransaction(tx -> {
+            // Add the product, runs in a savepoint of this transaction and reaches
+            // the barcode index only once the whole registration commits
             Product createdProduct = addProduct(product);
-            db.executeSet("BEGIN TRANSACTION");
-
-            // Add the product
-
             if (createdProduct == null) {
                 throw new Exception("Failed to add product");
             }
 
             // Add stock entry
-            if (!addStockEntry(createdProduct.getId(), 
-                               stockEntry.getQuantity(), 
-                               stockEntry.getPurchasePrice(), 
-                               stockEntry.getSupplierId(),
-                               stockEntry.getNote())) {
-                throw new Exception("Failed to add stock entry");
-            }
+            addStockEntry(tx, createdProduct.getId(),
+                          stockEntry.getQuantity(),
+                          stockEntry.getPurchasePrice(),
+                          stockEntry.getSupplierId(),
+                          stockEntry.getNote());
 
             // Update stock balance
-            if (!updateStockBalance(createdProduct.getId(), stockEntry.getQuantity())) {
-                throw new Exception("Failed to update stock balance");
-            }
-
-            // Commit transaction
-            db.executeSet("COMMIT");
+            addToStockBalance(tx, createdProduct.getId(), stockEntry.getQuantity());
             return createdProduct;
-
-        } catch (Exception e) {
-            System.err.println("Product registration failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return null;
-        }
+        });
     }
 
-  
-
     /**
      * Get current stock quantity for a product
      * @return current stock quantity or -1 if product doesn't exist
@@ -345,15 +376,16 @@ public class ProductService {
             return -1;
         }
 
-        List<Map<String, Object>> results = db.executeGet(
-                "SELECT quantity FROM stock_balances WHERE product_id = ?", 
+        Double quantity = db.queryOne(
+                "SELECT quantity FROM stock_balances WHERE product_id = ?",
+                resultSet -> resultSet.getDouble("quantity"),
                 productId
         );
 
-        if (results.isEmpty()) {
+        if (quantity == null) {
             return 0; // No stock record means zero quantity
         }
 
-        return ((Number) results.get(0).get("quantity")).doubleValue();
+        return quantity;
     }
 }
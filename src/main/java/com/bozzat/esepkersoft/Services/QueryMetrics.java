@@ -0,0 +1,246 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.QueryMetricsMXBean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Per-statement timing for dbManager. Statements are keyed by their SQL with literals
+ * replaced by ? and whitespace collapsed, so one entry covers every call of a query.
+ * Statements slower than the threshold are logged with their bind parameters and
+ * EXPLAIN QUERY PLAN. The plan is read and the log written on a background thread, on a
+ * pooled read connection, so neither adds to the slow statement's own time.
+ *
+ * The threshold comes from the esepkersoft.slowQueryMs system property (default 100 ms)
+ * and can be changed at runtime through JMX.
+ */
+class QueryMetrics implements QueryMetricsMXBean {
+    static final String OBJECT_NAME = "com.bozzat.esepkersoft:type=QueryMetrics";
+    private static final long DEFAULT_SLOW_QUERY_MS = 100;
+    // Distinct statements tracked, anything past it is counted under OTHER_KEY
+    private static final int MAX_STATEMENTS = 500;
+    private static final String OTHER_KEY = "(other)";
+    // SQL strings whose normalized form is remembered; others are normalized on every call
+    private static final int MAX_NORMALIZED_SQL = 2000;
+    // Slow statements waiting to be explained, more are logged without a plan
+    private static final int MAX_PENDING_EXPLAINS = 100;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    // Row lists such as VALUES (?), (?), ... once the tuples themselves are collapsed
+    private static final Pattern ROW_LIST = Pattern.compile("\\(\\?\\)(?:\\s*,\\s*\\(\\?\\))+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Map<String, String> normalizedSql = new ConcurrentHashMap<>();
+    private final Map<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong slowCount = new AtomicLong();
+    private volatile long slowQueryNanos;
+    // Reads the plan of a slow statement: (sql, params) -> plan lines
+    private final BiFunction<String, Object[], List<String>> planExplainer;
+    private final ExecutorService slowQueryLogger = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_EXPLAINS), runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-log");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    QueryMetrics(BiFunction<String, Object[], List<String>> planExplainer) {
+        this.planExplainer = planExplainer;
+        slowQueryNanos = Long.getLong("esepkersoft.slowQueryMs", DEFAULT_SLOW_QUERY_MS) * 1_000_000;
+    }
+
+    // Makes the statistics visible to JConsole/VisualVM on a running till
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Failed to register query metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records one execution. A slow statement is handed to the logging thread, which
+     * explains it and prints it; the caller does not wait for either.
+     */
+    void record(String sql, Object[] params, long rows, long nanos, boolean failed) {
+        totalCount.incrementAndGet();
+        statementStats(sql).record(rows, nanos, failed);
+        if (nanos >= slowQueryNanos && !failed) {
+            slowCount.incrementAndGet();
+            Object[] boundParams = params != null ? params.clone() : new Object[0];
+            slowQueryLogger.execute(() -> logSlowQuery(sql, boundParams, nanos));
+        }
+    }
+
+    @Override
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    @Override
+    public long getSlowCount() {
+        return slowCount.get();
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryNanos / 1_000_000;
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long thresholdMillis) {
+        slowQueryNanos = Math.max(0, thresholdMillis) * 1_000_000;
+    }
+
+    @Override
+    public List<QueryStats> getStatements() {
+        List<QueryStats> result = new ArrayList<>(statements.size());
+        statements.forEach((sql, stats) -> result.add(stats.snapshot(sql)));
+        result.sort(Comparator.comparingLong(QueryStats::getTotalMicros).reversed());
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        statements.clear();
+        totalCount.set(0);
+        slowCount.set(0);
+    }
+
+    private StatementStats statementStats(String sql) {
+        String key = normalizedSql.get(sql);
+        if (key == null) {
+            key = normalize(sql);
+            // Bounded: SQL built per call (e.g. with literals) must not grow the map for the process lifetime
+            if (normalizedSql.size() < MAX_NORMALIZED_SQL) {
+                normalizedSql.put(sql, key);
+            }
+        }
+        StatementStats stats = statements.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        if (statements.size() >= MAX_STATEMENTS) {
+            key = OTHER_KEY;
+        }
+        return statements.computeIfAbsent(key, k -> new StatementStats());
+    }
+
+    static String normalize(String sql) {
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        // IN lists and multi-row VALUES lists of any length count as one statement
+        normalized = IN_LIST.matcher(normalized).replaceAll("(?)");
+        return ROW_LIST.matcher(normalized).replaceAll("(?)");
+    }
+
+    private void logSlowQuery(String sql, Object[] params, long nanos) {
+        StringBuilder message = new StringBuilder()
+                .append("Slow query (").append(nanos / 1_000_000).append(" ms): ")
+                .append(WHITESPACE.matcher(sql).replaceAll(" ").trim())
+                .append("\n  params: ").append(Arrays.toString(params));
+        for (String line : planExplainer.apply(sql, params)) {
+            message.append("\n  plan: ").append(line);
+        }
+        System.err.println(message);
+    }
+
+    private static class StatementStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        void record(long rowCount, long nanos, boolean failed) {
+            long micros = nanos / 1_000;
+            count.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            rows.addAndGet(Math.max(0, rowCount));
+            totalMicros.addAndGet(micros);
+            maxMicros.accumulateAndGet(micros, Math::max);
+            histogram.record(micros);
+        }
+
+        QueryStats snapshot(String sql) {
+            return new QueryStats(sql, count.get(), errors.get(), rows.get(), totalMicros.get(),
+                    histogram.percentile(0.50), histogram.percentile(0.95), histogram.percentile(0.99),
+                    maxMicros.get());
+        }
+    }
+
+    /**
+     * Log-linear histogram: four buckets per power of two, so a percentile is reported
+     * within about 25% of the real latency with a fixed 256-slot array and no locking.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS = 256;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        void record(long micros) {
+            counts.incrementAndGet(bucketOf(Math.max(0, micros)));
+        }
+
+        // Upper bound of the bucket holding the given fraction of the samples
+        long percentile(double fraction) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(BUCKETS - 1);
+        }
+
+        static int bucketOf(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) (micros >> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return Math.min(BUCKETS - 1, SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + subBucket);
+        }
+
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+            int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            long lower = (long) (SUB_BUCKETS + subBucket) << (exponent - 2);
+            return lower + (1L << (exponent - 2)) - 1;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the statistics of one normalized SQL statement, latencies in microseconds.
+ */
+public class QueryStats {
+    private final String sql;
+    private final long count;
+    private final long errorCount;
+    private final long rows;
+    private final long totalMicros;
+    private final long p50Micros;
+    private final long p95Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({"sql", "count", "errorCount", "rows", "totalMicros",
+            "p50Micros", "p95Micros", "p99Micros", "maxMicros"})
+    public QueryStats(String sql, long count, long errorCount, long rows, long totalMicros,
+                      long p50Micros, long p95Micros, long p99Micros, long maxMicros) {
+        this.sql = sql;
+        this.count = count;
+        this.errorCount = errorCount;
+        this.rows = rows;
+        this.totalMicros = totalMicros;
+        this.p50Micros = p50Micros;
+        this.p95Micros = p95Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public String getSql() { return sql; }
+    public long getCount() { return count; }
+    public long getErrorCount() { return errorCount; }
+    // Rows returned by SELECTs, rows changed by writes
+    public long getRows() { return rows; }
+    public long getTotalMicros() { return totalMicros; }
+    public long getMeanMicros() { return count > 0 ? totalMicros / count : 0; }
+    public long getP50Micros() { return p50Micros; }
+    public long getP95Micros() { return p95Micros; }
+    public long getP99Micros() { return p99Micros; }
+    public long getMaxMicros() { return maxMicros; }
+
+    @Override
+    public String toString() {
+        return String.format("%s [count=%d, rows=%d, p50=%dus, p95=%dus, p99=%dus, max=%dus]",
+                sql, count, rows, p50Micros, p95Micros, p99Micros, maxMicros);
+    }
+}
@@ -0,0 +1,116 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.sql.SQLException;
+
+/**
+ * Daily rollups of the sales, so reports over long ranges read a row per day instead of
+ * every sale:
+ *   daily_product_sales  (day, product_id) -> quantity, revenue, cost, sale_count
+ *   daily_payment_sales  (day, payment_method) -> sale_count, revenue
+ *
+ * SaleService keeps them current inside the transaction of every sale and deleted sale.
+ * rebuild() recomputes them from sales/sales_items and verify() compares the two,
+ * available from the command line as --rebuild-rollups (rebuild, then verify) and --verify-rollups.
+ */
+public class RollupService {
+    private static final double TOLERANCE = 1e-6;
+
+    // Aggregates of the raw tables, in the shape of the rollup rows
+    private static final String RAW_PRODUCT_SALES = "SELECT DATE(s.sale_time) AS day, si.product_id, " +
+            "SUM(si.quantity) AS quantity, SUM(si.quantity * si.unit_price) AS revenue, " +
+            "SUM(si.cost_total) AS cost, COUNT(DISTINCT s.id) AS sale_count " +
+            "FROM sales s JOIN sales_items si ON si.sale_id = s.id GROUP BY 1, 2";
+    private static final String RAW_PAYMENT_SALES = "SELECT DATE(sale_time) AS day, payment_method, " +
+            "COUNT(*) AS sale_count, SUM(total_amount) AS revenue FROM sales GROUP BY 1, 2";
+
+    private final dbManager db = dbManager.getInstance();
+
+    /**
+     * Recomputes both rollups from the raw tables in one transaction.
+     */
+    public boolean rebuild() {
+        Boolean rebuilt = db.inTransaction(tx -> {
+            tx.update("DELETE FROM daily_product_sales");
+            tx.update("INSERT INTO daily_product_sales (day, product_id, quantity, revenue, cost, sale_count) " +
+                    RAW_PRODUCT_SALES);
+            tx.update("DELETE FROM daily_payment_sales");
+            tx.update("INSERT INTO daily_payment_sales (day, payment_method, sale_count, revenue) " +
+                    RAW_PAYMENT_SALES);
+            return true;
+        });
+        return rebuilt != null;
+    }
+
+    /**
+     * Compares the rollups with the raw tables and prints every day that differs.
+     *
+     * @return Number of mismatching rollup rows, 0 if they are consistent, -1 if the check failed
+     */
+    public int verify() {
+        String productMismatches = "SELECT COALESCE(r.day, d.day) AS day, COALESCE(r.product_id, d.product_id) AS product_id " +
+                "FROM (" + RAW_PRODUCT_SALES + ") AS r " +
+                "FULL JOIN daily_product_sales d ON d.day = r.day AND d.product_id = r.product_id " +
+                "WHERE r.day IS NULL OR d.day IS NULL " +
+                "OR ABS(r.quantity - d.quantity) > " + TOLERANCE + " OR ABS(r.revenue - d.revenue) > " + TOLERANCE + " " +
+                "OR ABS(r.cost - d.cost) > " + TOLERANCE + " OR r.sale_count <> d.sale_count";
+        String paymentMismatches = "SELECT COALESCE(r.day, d.day) AS day, COALESCE(r.payment_method, d.payment_method) AS payment_method " +
+                "FROM (" + RAW_PAYMENT_SALES + ") AS r " +
+                "FULL JOIN daily_payment_sales d ON d.day = r.day AND d.payment_method = r.payment_method " +
+                "WHERE r.day IS NULL OR d.day IS NULL " +
+                "OR ABS(r.revenue - d.revenue) > " + TOLERANCE + " OR r.sale_count <> d.sale_count";
+
+        // Read on a pooled reader, each query sees one snapshot and checkouts keep writing meanwhile
+        int[] count = {0};
+        boolean checked = db.forEachRow(productMismatches,
+                resultSet -> resultSet.getString("day") + " product " + resultSet.getInt("product_id"),
+                row -> report(row, count))
+                && db.forEachRow(paymentMismatches,
+                resultSet -> resultSet.getString("day") + " payment " + resultSet.getString("payment_method"),
+                row -> report(row, count));
+        return checked ? count[0] : -1;
+    }
+
+    private static void report(String row, int[] count) {
+        System.err.println("Rollup mismatch: " + row);
+        count[0]++;
+    }
+
+    // Adds a sale that was just written, items included, to the rollups of its day
+    static void addSale(Tx tx, int saleId) throws SQLException {
+        tx.update("INSERT INTO daily_product_sales (day, product_id, quantity, revenue, cost, sale_count) " +
+                "SELECT DATE(s.sale_time), si.product_id, SUM(si.quantity), SUM(si.quantity * si.unit_price), " +
+                "SUM(si.cost_total), 1 " +
+                "FROM sales s JOIN sales_items si ON si.sale_id = s.id WHERE s.id = ? GROUP BY si.product_id " +
+                "ON CONFLICT(day, product_id) DO UPDATE SET " +
+                "quantity = quantity + excluded.quantity, revenue = revenue + excluded.revenue, " +
+                "cost = cost + excluded.cost, sale_count = sale_count + excluded.sale_count", saleId);
+        tx.update("INSERT INTO daily_payment_sales (day, payment_method, sale_count, revenue) " +
+                "SELECT DATE(sale_time), payment_method, 1, total_amount FROM sales WHERE id = ? " +
+                "ON CONFLICT(day, payment_method) DO UPDATE SET " +
+                "sale_count = sale_count + excluded.sale_count, revenue = revenue + excluded.revenue", saleId);
+    }
+
+    // Takes a sale out of the rollups, called before its rows are deleted
+    static void removeSale(Tx tx, long saleId) throws SQLException {
+        tx.update("UPDATE daily_product_sales SET " +
+                "quantity = daily_product_sales.quantity - sold.quantity, " +
+                "revenue = daily_product_sales.revenue - sold.revenue, " +
+                "cost = daily_product_sales.cost - sold.cost, " +
+                "sale_count = daily_product_sales.sale_count - 1 " +
+                "FROM (SELECT DATE(s.sale_time) AS day, si.product_id, SUM(si.quantity) AS quantity, " +
+                "SUM(si.quantity * si.unit_price) AS revenue, SUM(si.cost_total) AS cost " +
+                "FROM sales s JOIN sales_items si ON si.sale_id = s.id WHERE s.id = ? GROUP BY si.product_id) AS sold " +
+                "WHERE daily_product_sales.day = sold.day AND daily_product_sales.product_id = sold.product_id", saleId);
+        tx.update("UPDATE daily_payment_sales SET " +
+                "sale_count = daily_payment_sales.sale_count - 1, " +
+                "revenue = daily_payment_sales.revenue - s.total_amount " +
+                "FROM sales s WHERE s.id = ? " +
+                "AND daily_payment_sales.day = DATE(s.sale_time) AND daily_payment_sales.payment_method = s.payment_method",
+                saleId);
+        // A day without sales has no rollup row, as after a rebuild
+        tx.update("DELETE FROM daily_product_sales WHERE day = (SELECT DATE(sale_time) FROM sales WHERE id = ?) " +
+                "AND sale_count <= 0", saleId);
+        tx.update("DELETE FROM daily_payment_sales WHERE day = (SELECT DATE(sale_time) FROM sales WHERE id = ?) " +
+                "AND sale_count <= 0", saleId);
+    }
+}
@@ -0,0 +1,56 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.RowMapper;
+import com.bozzat.esepkersoft.Models.Product;
+import com.bozzat.esepkersoft.Models.Supplier;
+
+import java.time.LocalDateTime;
+
+/**
+ * Row mappers shared by the services, reading columns straight from the result set.
+ */
+public final class RowMappers {
+
+    private RowMappers() {
+    }
+
+    public static final RowMapper<Product> PRODUCT = resultSet -> {
+        Product product = new Product();
+        product.setId(resultSet.getInt("id"));
+        product.setName(resultSet.getString("name"));
+        product.setBarcode(resultSet.getString("barcode"));
+        product.setUnitType(resultSet.getString("unit_type"));
+        product.setCurrentPrice(resultSet.getDouble("current_price"));
+        product.setCategoryId(resultSet.getInt("category_id")); // 0 when uncategorized
+
+        LocalDateTime createdAt = parseTimestamp(resultSet.getString("created_at"));
+        product.setCreatedAt(createdAt != null ? createdAt : LocalDateTime.now());
+        return product;
+    };
+
+    public static final RowMapper<Supplier> SUPPLIER = resultSet -> {
+        Supplier supplier = new Supplier();
+        supplier.setId(resultSet.getInt("id"));
+        supplier.setName(resultSet.getString("name"));
+        supplier.setContactInfo(resultSet.getString("contact_info"));
+        supplier.setCreatedAt(parseTimestamp(resultSet.getString("created_at")));
+        return supplier;
+    };
+
+    /**
+     * Parses timestamps written either by SQLite (CURRENT_TIMESTAMP, datetime()) as
+     * "yyyy-MM-dd HH:mm:ss" or by Java as LocalDateTime.toString().
+     *
+     * @return the parsed value, or null for a null column
+     */
+    public static LocalDateTime parseTimestamp(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value.trim().replace(' ', 'T'));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to parse timestamp '" + value + "': " + e.getMessage());
+        }
+    }
+}
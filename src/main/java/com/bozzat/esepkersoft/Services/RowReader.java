@@ -0,0 +1,18 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads a spreadsheet-like file one row at a time, so a large file is never held in memory.
+ */
+interface RowReader extends Closeable {
+    /**
+     * @return the cells of the next row, or null at the end of the file
+     */
+    List<String> next() throws IOException;
+
+    // 1-based line (CSV) or row (XLSX) number of the row last returned, for error reports
+    int getRowNumber();
+}
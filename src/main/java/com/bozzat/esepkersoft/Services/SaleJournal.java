@@ -0,0 +1,460 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.SaleRejectionListener;
+import com.bozzat.esepkersoft.Models.Sale;
+import com.bozzat.esepkersoft.Models.SaleItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of completed sales, so checkout only waits for one fsync of a
+ * small file instead of the SQLite commit.
+ *
+ * A sale is appended and fsynced (records arriving together share one fsync), the
+ * checkout is confirmed, and the record is drained into the database through
+ * SaleWriteQueue afterwards. The sale_journal table is written in the same transaction
+ * as the sale, which makes draining idempotent: after a crash, recover() replays the
+ * whole file and records that already reached the database are skipped. Once every
+ * record in the file has been drained the file is truncated.
+ *
+ * Record layout: int payload length, long CRC32 of the payload, payload. The payload
+ * carries the checkout time, so a sale replayed or retried later keeps its own date. A torn record
+ * at the end of the file (power loss mid-append) fails the length or CRC check and is
+ * cut off; its checkout never got its confirmation.
+ *
+ * A sale is checked against the stock before it is journaled, a shortage fails the
+ * checkout with a SaleRejectedException while the cart is still open. A record the
+ * database refuses later (e.g. another till sold the last unit meanwhile) is marked
+ * rejected in sale_journal with the error, which is where it is reconciled, and the
+ * rejection listeners are told; a rejected record is never replayed at startup.
+ *
+ * When the database cannot record a sale at all (the group transaction failed), the
+ * record is submitted again with a growing delay until it is recorded, and stays in the
+ * file meanwhile.
+ */
+public class SaleJournal {
+    private static final Path JOURNAL_PATH = Path.of(System.getProperty("esepkersoft.saleJournal", "sales.journal"));
+    // How long the first record of a batch waits for others to share its fsync
+    private static final long FLUSH_WINDOW_MICROS = 1000;
+    private static final int MAX_BATCH_SIZE = 64;
+    // Upper bound on a payload, a larger length can only come from a torn header
+    private static final int MAX_PAYLOAD_BYTES = 1 << 20;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final long IDLE_POLL_MILLIS = 500;
+    // Delay before re-submitting a record the database could not record, doubled per attempt
+    private static final long RETRY_DELAY_MILLIS = 200;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    static final String STATUS_APPLIED = "applied";
+    static final String STATUS_REJECTED = "rejected";
+
+    // Singleton instance
+    private static SaleJournal instance;
+
+    private final SaleService saleService = new SaleService();
+    // Weak, so a closed sale point window does not stay registered
+    private final List<WeakReference<SaleRejectionListener>> rejectionListeners = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<JournalRecord> queue = new LinkedBlockingQueue<>();
+    // Records in the file that have not been drained yet
+    private final AtomicInteger undrained = new AtomicInteger();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sale-journal-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private FileChannel channel;
+    private Thread worker;
+    private volatile boolean running;
+
+    private SaleJournal() {
+    }
+
+    public static synchronized SaleJournal getInstance() {
+        if (instance == null) {
+            instance = new SaleJournal();
+        }
+        return instance;
+    }
+
+    /**
+     * Opens the journal, replays the records a previous run did not drain and starts
+     * accepting sales. Called once at startup, after the database is connected.
+     *
+     * @return false if the journal file cannot be used, sales then go straight to the database
+     */
+    public synchronized boolean recover() {
+        if (running) {
+            return true;
+        }
+        try {
+            channel = FileChannel.open(JOURNAL_PATH,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            List<JournalRecord> records = readRecords();
+            if (!records.isEmpty()) {
+                System.out.println("Replaying " + records.size() + " journaled sales");
+            }
+            for (JournalRecord record : records) {
+                drain(record, true);
+            }
+        } catch (IOException e) {
+            System.err.println("Sale journal unavailable: " + e.getMessage());
+            return false;
+        }
+        running = true;
+        worker = new Thread(this::run, "sale-journal");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public boolean isAvailable() {
+        return running;
+    }
+
+    /**
+     * Registers a listener for journaled sales the database refused after their checkout
+     * was confirmed. Only a weak reference is kept, the caller must hold on to the listener.
+     */
+    public void addRejectionListener(SaleRejectionListener listener) {
+        rejectionListeners.add(new WeakReference<>(listener));
+    }
+
+    public void removeRejectionListener(SaleRejectionListener listener) {
+        rejectionListeners.removeIf(reference -> reference.get() == null || reference.get() == listener);
+    }
+
+    /**
+     * Checks the sale against the current stock and journals it; the database is written
+     * afterwards. The check reads the database, so call this off the FX thread.
+     *
+     * @return Future completed once the record is fsynced to the journal; completed
+     *         exceptionally with a SaleRejectedException if the stock is short, or with the
+     *         error if the record could not be written
+     */
+    public CompletableFuture<Void> append(List<SaleItem> saleItems, Sale sale) {
+        String error = saleService.checkSale(saleItems, sale);
+        if (error != null) {
+            return CompletableFuture.failedFuture(new SaleRejectedException(error));
+        }
+        // The record is keyed by the sale's idempotency key, so a checkout journaled twice is saved once
+        if (sale.getIdempotencyKey() == null) {
+            sale.setIdempotencyKey(UUID.randomUUID().toString());
+        }
+        // Journaled with the sale, it is dated by the checkout and not by when it reaches the database
+        if (sale.getSaleTime() == null) {
+            sale.setSaleTime(Timestamps.now());
+        }
+        JournalRecord record = new JournalRecord(sale.getIdempotencyKey(), saleItems, sale);
+        // Checked and queued together, so nothing is queued after shutdown let the worker go
+        synchronized (this) {
+            if (!running) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Sale journal is not open"));
+            }
+            queue.add(record);
+        }
+        return record.durable;
+    }
+
+    /**
+     * Stops accepting sales and flushes the queued ones to disk. Whatever is not drained
+     * into the database by then is replayed on the next start.
+     *
+     * The worker is not interrupted: an interrupt during a FileChannel write or force()
+     * closes the channel. It sees the flag within one poll, writes what is queued and exits.
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        retryScheduler.shutdownNow();
+        try {
+            worker.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Bookkeeping used by SaleWriteQueue inside the sale's transaction
+
+    // Status of a record that was already drained, or null
+    static String drainedStatus(Tx tx, String recordId) throws SQLException {
+        return tx.queryOne("SELECT status FROM sale_journal WHERE record_id = ?",
+                resultSet -> resultSet.getString("status"), recordId);
+    }
+
+    // Upserts: a checkout rejected once may be resubmitted and then applied or rejected again
+    static void markApplied(Tx tx, String recordId, int saleId) throws SQLException {
+        tx.update("INSERT INTO sale_journal (record_id, sale_id, status) VALUES (?, ?, ?) " +
+                        "ON CONFLICT(record_id) DO UPDATE SET sale_id = excluded.sale_id, " +
+                        "status = excluded.status, error = NULL, applied_at = CURRENT_TIMESTAMP",
+                recordId, saleId, STATUS_APPLIED);
+    }
+
+    static void markRejected(Tx tx, String recordId, String error) throws SQLException {
+        tx.update("INSERT INTO sale_journal (record_id, status, error) VALUES (?, ?, ?) " +
+                        "ON CONFLICT(record_id) DO UPDATE SET status = excluded.status, " +
+                        "error = excluded.error, applied_at = CURRENT_TIMESTAMP",
+                recordId, STATUS_REJECTED, error);
+    }
+
+    // Exits once running is cleared and the queue is empty; never interrupted, see shutdown()
+    private void run() {
+        List<JournalRecord> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                JournalRecord first = running ? queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS) : queue.poll();
+                if (first == null) {
+                    if (!running) {
+                        break;
+                    }
+                    truncateIfDrained();
+                    continue;
+                }
+                batch.add(first);
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                // Not expected, keep the flag for whoever interrupted and flush what is left
+                Thread.currentThread().interrupt();
+                queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close sale journal: " + e.getMessage());
+        }
+    }
+
+    private void collectBatch(List<JournalRecord> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(FLUSH_WINDOW_MICROS);
+        while (batch.size() < MAX_BATCH_SIZE) {
+            queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= MAX_BATCH_SIZE || remaining <= 0 || !running) {
+                return;
+            }
+            JournalRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    // Appends the batch with a single fsync, then hands the records to the drainer
+    private void writeBatch(List<JournalRecord> batch) {
+        try {
+            long start = channel.size();
+            channel.position(start);
+            for (JournalRecord record : batch) {
+                ByteBuffer buffer = encode(record);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Failed to write sale journal: " + e.getMessage());
+            for (JournalRecord record : batch) {
+                record.durable.completeExceptionally(e);
+            }
+            return;
+        }
+        for (JournalRecord record : batch) {
+            record.durable.complete(null);
+            drain(record, false);
+        }
+    }
+
+    /**
+     * Hands a record on disk to SaleWriteQueue. It counts as undrained until the database
+     * has recorded it, applied or rejected; until then the file is not truncated.
+     */
+    private void drain(JournalRecord record, boolean replay) {
+        undrained.incrementAndGet();
+        submitDrain(record, replay, 1);
+    }
+
+    private void submitDrain(JournalRecord record, boolean replay, int attempt) {
+        SaleWriteQueue.getInstance().submit(record.saleItems, record.sale, record.recordId, replay)
+                .whenComplete((saleId, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (error == null) {
+                        undrained.decrementAndGet();
+                        return;
+                    }
+                    if (cause instanceof SaleRejectedException || cause instanceof IllegalArgumentException) {
+                        // Refused by the database, or invalid in itself (only a replayed record can be);
+                        // retrying cannot help
+                        System.err.println("Journaled sale " + record.recordId + " rejected: " + cause.getMessage());
+                        undrained.decrementAndGet();
+                        notifyRejected(record.sale, cause.getMessage());
+                        return;
+                    }
+                    // Nothing recorded: submit it again later, it stays counted and in the file meanwhile
+                    System.err.println("Journaled sale " + record.recordId + " not drained (attempt " + attempt + "): " +
+                            cause.getMessage());
+                    long delay = Math.min(MAX_RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS << Math.min(attempt - 1, 16));
+                    try {
+                        retryScheduler.schedule(() -> submitDrain(record, replay, attempt + 1), delay, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // Shutting down: the record stays in the file and is replayed on the next start
+                    }
+                });
+    }
+
+    private void notifyRejected(Sale sale, String reason) {
+        for (WeakReference<SaleRejectionListener> reference : rejectionListeners) {
+            SaleRejectionListener listener = reference.get();
+            if (listener == null) {
+                rejectionListeners.remove(reference);
+                continue;
+            }
+            try {
+                listener.onSaleRejected(sale, reason);
+            } catch (RuntimeException e) {
+                System.err.println("Sale rejection listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Runs on the journal thread between appends, so nothing is written meanwhile
+    private void truncateIfDrained() {
+        try {
+            if (undrained.get() == 0 && channel.size() > 0) {
+                channel.truncate(0);
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to truncate sale journal: " + e.getMessage());
+        }
+    }
+
+    // Reads the valid records and cuts off a torn tail
+    private List<JournalRecord> readRecords() throws IOException {
+        List<JournalRecord> records = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            long checksum = header.getLong();
+            if (length <= 0 || length > MAX_PAYLOAD_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + HEADER_BYTES);
+            if (crc(payload.array()) != checksum) {
+                break;
+            }
+            records.add(decode(payload.array()));
+            position += HEADER_BYTES + length;
+        }
+        if (position < size) {
+            System.err.println("Sale journal: dropping " + (size - position) + " bytes of an incomplete record");
+            channel.truncate(position);
+            channel.force(false);
+        }
+        return records;
+    }
+
+    private static ByteBuffer encode(JournalRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Sale sale = record.sale;
+            out.writeUTF(record.recordId);
+            out.writeUTF(sale.getPaymentMethod());
+            out.writeDouble(sale.getTotalAmount());
+            out.writeUTF(sale.getSaleTime().toString());
+            out.writeBoolean(sale.getComment() != null);
+            if (sale.getComment() != null) {
+                out.writeUTF(sale.getComment());
+            }
+            out.writeInt(record.saleItems.size());
+            for (SaleItem item : record.saleItems) {
+                out.writeInt(item.getProductId());
+                out.writeDouble(item.getQuantity());
+                out.writeDouble(item.getUnitPrice());
+            }
+        }
+        byte[] payload = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putLong(crc(payload)).put(payload).flip();
+        return buffer;
+    }
+
+    private static JournalRecord decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            String recordId = in.readUTF();
+            Sale sale = new Sale(in.readUTF(), in.readDouble());
+            sale.setSaleTime(LocalDateTime.parse(in.readUTF()));
+            sale.setIdempotencyKey(recordId);
+            if (in.readBoolean()) {
+                sale.setComment(in.readUTF());
+            }
+            int itemCount = in.readInt();
+            List<SaleItem> saleItems = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                saleItems.add(new SaleItem(in.readInt(), in.readDouble(), in.readDouble()));
+            }
+            return new JournalRecord(recordId, saleItems, sale);
+        }
+    }
+
+    private static long crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    private static class JournalRecord {
+        final String recordId;
+        final List<SaleItem> saleItems;
+        final Sale sale;
+        // Completed once the record is fsynced, see append()
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        JournalRecord(String recordId, List<SaleItem> saleItems, Sale sale) {
+            this.recordId = recordId;
+            this.saleItems = saleItems;
+            this.sale = sale;
+        }
+    }
+}
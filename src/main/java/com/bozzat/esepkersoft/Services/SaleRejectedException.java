@@ -0,0 +1,15 @@
+package com.bozzat.esepkersoft.Services;
+
+/**
+ * A sale the database refused, e.g. for insufficient stock. The message says why and is
+ * meant to be shown at the till; the cart can be corrected and submitted again.
+ */
+public class SaleRejectedException extends RuntimeException {
+    public SaleRejectedException(String message) {
+        super(message);
+    }
+
+    public SaleRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
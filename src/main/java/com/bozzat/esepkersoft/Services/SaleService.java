@@ -3,162 +3,347 @@ package com.bozzat.esepkersoft.Services;
 import com.bozzat.esepkersoft.Models.Sale;
 import com.bozzat.esepkersoft.Models.SaleItem;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class SaleService {
+    // Weighed goods leave fractions, anything below this counts as nothing left
+    private static final double QUANTITY_EPSILON = 1e-9;
+
+    // Cart lines bound as one JSON parameter, [[product_id, quantity], ...]. The SQL text is the
+    // same for every cart size, so one cached prepared statement serves all checkouts.
+    private static final String CART_LINES = "(SELECT json_extract(value, '$[0]') AS product_id, " +
+            "json_extract(value, '$[1]') AS quantity FROM json_each(?))";
+    private static final String SHORTAGES_QUERY = "SELECT lines.product_id, COALESCE(sb.quantity, 0) AS available, " +
+            "lines.quantity AS requested FROM " + CART_LINES + " AS lines " +
+            "LEFT JOIN stock_balances sb ON sb.product_id = lines.product_id " +
+            "WHERE COALESCE(sb.quantity, 0) < lines.quantity - " + QUANTITY_EPSILON;
+    private static final String OPEN_LOTS_QUERY = "SELECT id, product_id, remaining_quantity, purchase_price " +
+            "FROM stock_entries WHERE product_id IN (SELECT value FROM json_each(?)) AND remaining_quantity > 0 " +
+            "ORDER BY product_id, arrival_date, id";
+
     private dbManager db = dbManager.getInstance();
 
     public boolean addSale(List<SaleItem> saleItems, Sale sale) {
-        if (saleItems == null || saleItems.isEmpty()) {
-            System.err.println("Sale must contain at least one item");
+        String validationError = validateSale(saleItems, sale);
+        if (validationError != null) {
+            System.err.println(validationError);
             return false;
         }
 
+        return db.inTransaction(tx -> insertSale(tx, saleItems, sale)) != null;
+    }
+
+    // Returns why the sale cannot be saved, or null if it is valid
+    String validateSale(List<SaleItem> saleItems, Sale sale) {
+        if (saleItems == null || saleItems.isEmpty()) {
+            return "Sale must contain at least one item";
+        }
         if (sale == null || sale.getPaymentMethod() == null || sale.getPaymentMethod().trim().isEmpty()) {
-            System.err.println("Payment method is required");
-            return false;
+            return "Payment method is required";
         }
-
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-
-            // 1. Insert the sale record
-            String insertSaleQuery = "INSERT INTO sales (payment_method, total_amount, sale_time, comment) VALUES (?, ?, datetime('now', 'localtime'), ?)";
-            if (!db.executeSet(insertSaleQuery, sale.getPaymentMethod(), sale.getTotalAmount(), sale.getComment())) {
-                throw new Exception("Failed to insert sale record");
+        // A zero, negative or NaN line would put stock back or corrupt the lots and totals
+        for (SaleItem item : saleItems) {
+            if (item == null) {
+                return "Sale item is missing";
+            }
+            if (!Double.isFinite(item.getQuantity()) || item.getQuantity() <= 0) {
+                return "Invalid quantity " + item.getQuantity() + " for product: " + item.getProductId();
+            }
+            if (!Double.isFinite(item.getUnitPrice()) || item.getUnitPrice() <= 0) {
+                return "Invalid unit price " + item.getUnitPrice() + " for product: " + item.getProductId();
             }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the sale against the current stock on a read connection, without writing,
+     * so a checkout the database would refuse can fail while the customer is at the till.
+     * insertSale checks again when the sale is written.
+     *
+     * @return Why the sale cannot be saved, or null if it can
+     */
+    String checkSale(List<SaleItem> saleItems, Sale sale) {
+        String validationError = validateSale(saleItems, sale);
+        if (validationError != null) {
+            return validationError;
+        }
+        List<String> shortages = db.query(SHORTAGES_QUERY, SaleService::mapShortage,
+                jsonLines(quantityByProduct(saleItems)));
+        return shortages.isEmpty() ? null : "Insufficient stock for product: " + String.join(", ", shortages);
+    }
 
-            // 2. Get the generated sale ID
-            List<Map<String, Object>> result = db.executeGet("SELECT last_insert_rowid() as id");
-            if (result.isEmpty()) {
-                throw new Exception("Failed to retrieve sale ID");
+    /**
+     * Writes a validated sale with its items inside the caller's transaction and sets
+     * the generated ids on the sale and the items. Throws if any item cannot be sold.
+     * A sale whose idempotency key was already saved is not written again.
+     *
+     * @return The new sale ID, or the ID of the sale saved earlier under the same key
+     */
+    int insertSale(Tx tx, List<SaleItem> saleItems, Sale sale) throws Exception {
+        // 0. A resubmitted checkout (retry, replay) returns the sale it already created
+        if (sale.getIdempotencyKey() != null) {
+            Integer existingId = tx.queryOne("SELECT id FROM sales WHERE idempotency_key = ?",
+                    resultSet -> resultSet.getInt("id"), sale.getIdempotencyKey());
+            if (existingId != null) {
+                sale.setId(existingId);
+                return existingId;
             }
-            int saleId = ((Number) result.get(0).get("id")).intValue();
+        }
 
-            // 3. Process each sale item
-            for (SaleItem item : saleItems) {
-                // Set the sale ID on the item
-                item.setSaleId(saleId);
+        // 1. Insert the sale record and get the generated sale ID
+        String insertSaleQuery = "INSERT INTO sales " +
+                "(payment_method, total_amount, sale_time, sale_time_ms, comment, idempotency_key) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        // The checkout's own time: a sale drained from the journal later keeps the day it was made
+        LocalDateTime saleTime = sale.getSaleTime() != null
+                ? sale.getSaleTime().truncatedTo(ChronoUnit.SECONDS) : Timestamps.now();
+        int saleId = (int) tx.insert(insertSaleQuery, sale.getPaymentMethod(), sale.getTotalAmount(),
+                Timestamps.format(saleTime), Timestamps.toEpochMillis(saleTime), sale.getComment(),
+                sale.getIdempotencyKey());
 
-                // Verify product exists and has sufficient stock
-                if (!verifyProductAndStock(item.getProductId(), item.getQuantity())) {
-                    throw new Exception("Insufficient stock for product: " + item.getProductId());
-                }
+        // 2. Check and deduct the stock of all lines at once
+        deductStock(tx, saleItems);
 
-                // 4. Update inventory (direct deduction)
-                if (!updateInventory(item.getProductId(), -item.getQuantity())) {
-                    throw new Exception("Failed to update inventory for product: " + item.getProductId());
-                }
+        // 3. Take the items out of the cost lots, oldest delivery first
+        double[] itemCosts = consumeLots(tx, saleItems);
 
-                // 5. Insert sale item
-                String insertItemQuery = "INSERT INTO sale_items " +
-                        "(sale_id, product_id, quantity, unit_price) " +
-                        "VALUES (?, ?, ?, ?)";
-
-                if (!db.executeSet(insertItemQuery,
-                        item.getSaleId(),
-                        item.getProductId(),
-                        item.getQuantity(),
-                        item.getUnitPrice())) {
-                    throw new Exception("Failed to insert sale item");
-                }
-            }
+        List<Object[]> itemRows = new ArrayList<>(saleItems.size());
+        for (int i = 0; i < saleItems.size(); i++) {
+            SaleItem item = saleItems.get(i);
+            item.setSaleId(saleId);
+            item.setCostTotal(itemCosts[i]);
+            itemRows.add(new Object[]{
+                    item.getSaleId(),
+                    item.getProductId(),
+                    item.getQuantity(),
+                    item.getUnitPrice(),
+                    item.getCostTotal()});
+        }
 
-            // Commit transaction
-            db.executeSet("COMMIT");
-            return true;
+        // 4. Insert all sale items in one batch, each with the cost of the lots it used
+        String insertItemQuery = "INSERT INTO sales_items " +
+                "(sale_id, product_id, quantity, unit_price, cost_total) " +
+                "VALUES (?, ?, ?, ?, ?)";
 
-        } catch (Exception e) {
-            System.err.println("Sale failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return false;
+        long[] itemIds = tx.executeBatch(insertItemQuery, itemRows).getGeneratedKeys();
+        for (int i = 0; i < itemIds.length; i++) {
+            saleItems.get(i).setId((int) itemIds[i]);
         }
+
+        // 5. Count the sale in the daily rollups of the reports
+        RollupService.addSale(tx, saleId);
+        sale.setId(saleId);
+        return saleId;
     }
 
     public boolean deleteSale(long saleId) {
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-
+        Boolean deleted = db.inTransaction(tx -> {
             // 1. Verify sale exists
-            List<Map<String, Object>> saleCheck = db.executeGet(
-                    "SELECT id FROM sales WHERE id = ?",
-                    saleId
-            );
-            if (saleCheck.isEmpty()) {
+            if (tx.queryOne("SELECT id FROM sales WHERE id = ?", resultSet -> resultSet.getLong("id"), saleId) == null) {
                 throw new Exception("Sale not found");
             }
 
             // 2. Get all sale items
-            List<Map<String, Object>> items = db.executeGet(
-                    "SELECT product_id, quantity FROM sale_items WHERE sale_id = ?",
+            List<SaleItem> items = tx.query(
+                    "SELECT product_id, quantity FROM sales_items WHERE sale_id = ?",
+                    resultSet -> new SaleItem(resultSet.getInt("product_id"), resultSet.getDouble("quantity"), 0),
                     saleId
             );
 
-            // 3. Restore stock for each item
-            for (Map<String, Object> item : items) {
-                int productId = ((Number) item.get("product_id")).intValue();
-                double quantity = ((Number) item.get("quantity")).doubleValue();
-
-                // Add back to stock_balances
-                if (!updateStockBalance(productId, quantity)) {
-                    throw new Exception("Failed to restore stock for product: " + productId);
-                }
+            // 3. Restore stock for each item, to its balance and to its lots
+            for (SaleItem item : items) {
+                tx.update(ProductService.ADD_STOCK_BALANCE_QUERY, item.getProductId(), item.getQuantity());
+                restoreLots(tx, item.getProductId(), item.getQuantity());
             }
 
-            // 4. Delete from return_items first (as it references sale_items)
-            if (!db.executeSet("DELETE FROM return_items WHERE product_id IN (SELECT product_id FROM sale_items WHERE sale_id = ?)", saleId)) {
-                throw new Exception("Failed to delete return items");
-            }
+            // Take it out of the daily rollups while its rows still exist
+            RollupService.removeSale(tx, saleId);
+
+            // 4. Delete from return_items first (as it references sales_items)
+            tx.update("DELETE FROM return_items WHERE product_id IN (SELECT product_id FROM sales_items WHERE sale_id = ?)", saleId);
 
             // 5. Delete sale items
-            if (!db.executeSet("DELETE FROM sale_items WHERE sale_id = ?", saleId)) {
-                throw new Exception("Failed to delete sale items");
-            }
+            tx.update("DELETE FROM sales_items WHERE sale_id = ?", saleId);
 
             // 6. Delete sale record
-            if (!db.executeSet("DELETE FROM sales WHERE id = ?", saleId)) {
-                throw new Exception("Failed to delete sale record");
-            }
+            tx.update("DELETE FROM sales WHERE id = ?", saleId);
 
-            // Commit transaction
-            db.executeSet("COMMIT");
+            // The in-memory analytics columns only ever append, they reload without the sale
+            tx.afterCommit(ColumnarAnalyticsEngine.getInstance()::invalidate);
             return true;
+        });
+        return deleted != null;
+    }
 
-        } catch (Exception e) {
-            System.err.println("Sale deletion failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return false;
+    /**
+     * Consumes the open lots of the sold products FIFO: one read for all products of the
+     * sale, then one batched update of the lots that were drawn from.
+     *
+     * @return Cost of each item, in the order of saleItems
+     */
+    private double[] consumeLots(Tx tx, List<SaleItem> saleItems) throws SQLException {
+        Set<Integer> productIds = new LinkedHashSet<>();
+        for (SaleItem item : saleItems) {
+            productIds.add(item.getProductId());
+        }
+        // The IDs go in as one JSON array, so every cart size uses the same prepared statement
+        List<Lot> openLots = tx.query(OPEN_LOTS_QUERY,
+                resultSet -> new Lot(resultSet.getLong("id"), resultSet.getInt("product_id"),
+                        resultSet.getDouble("remaining_quantity"), resultSet.getDouble("purchase_price")),
+                jsonArray(productIds));
+
+        Map<Integer, Deque<Lot>> lotsByProduct = new HashMap<>();
+        for (Lot lot : openLots) {
+            lotsByProduct.computeIfAbsent(lot.productId, id -> new ArrayDeque<>()).add(lot);
+        }
+
+        double[] costs = new double[saleItems.size()];
+        Map<Long, Lot> usedLots = new HashMap<>();
+        // Price of the newest lot drawn from per product, by this sale or read for a line without lots
+        Map<Integer, Double> lastPriceByProduct = new HashMap<>();
+        for (int i = 0; i < saleItems.size(); i++) {
+            SaleItem item = saleItems.get(i);
+            Deque<Lot> lots = lotsByProduct.getOrDefault(item.getProductId(), new ArrayDeque<>());
+            double needed = item.getQuantity();
+            double cost = 0;
+            while (needed > QUANTITY_EPSILON && !lots.isEmpty()) {
+                Lot lot = lots.peekFirst();
+                double taken = Math.min(needed, lot.remaining);
+                lot.remaining -= taken;
+                lot.consumed += taken;
+                cost += taken * lot.purchasePrice;
+                needed -= taken;
+                lastPriceByProduct.put(item.getProductId(), lot.purchasePrice);
+                usedLots.put(lot.id, lot);
+                if (lot.remaining <= QUANTITY_EPSILON) {
+                    lots.pollFirst();
+                }
+            }
+            // More sold than the open lots hold (an earlier line of the cart emptied them, or the
+            // balance was corrected by hand): the rest is costed at the price of the product's last lot
+            if (needed > QUANTITY_EPSILON) {
+                Double lastPrice = lastPriceByProduct.get(item.getProductId());
+                if (lastPrice == null) {
+                    lastPrice = latestPurchasePrice(tx, item.getProductId());
+                    lastPriceByProduct.put(item.getProductId(), lastPrice);
+                }
+                cost += needed * lastPrice;
+            }
+            costs[i] = cost;
+        }
+
+        List<Object[]> lotRows = new ArrayList<>(usedLots.size());
+        for (Lot lot : usedLots.values()) {
+            lotRows.add(new Object[]{lot.consumed, lot.id});
+        }
+        tx.executeBatch("UPDATE stock_entries SET remaining_quantity = remaining_quantity - ? WHERE id = ?", lotRows);
+        return costs;
+    }
+
+    // Purchase price of the product's newest stock entry, 0 if it never had one
+    private static double latestPurchasePrice(Tx tx, int productId) throws SQLException {
+        Double price = tx.queryOne("SELECT purchase_price FROM stock_entries WHERE product_id = ? " +
+                        "ORDER BY arrival_date_ms DESC, id DESC LIMIT 1",
+                resultSet -> resultSet.getDouble("purchase_price"), productId);
+        return price != null ? price : 0;
+    }
+
+    // Puts a deleted sale's quantity back into the product's lots, newest first, in one statement.
+    // Sales do not record which lots they drew from, this refills the lots a FIFO sale empties last.
+    private void restoreLots(Tx tx, int productId, double quantity) throws SQLException {
+        tx.update("UPDATE stock_entries SET remaining_quantity = remaining_quantity + refill.restored " +
+                "FROM (SELECT id, MAX(0, MIN(quantity - remaining_quantity, ? - COALESCE(SUM(quantity - remaining_quantity) " +
+                "OVER (ORDER BY arrival_date DESC, id DESC ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING), 0))) AS restored " +
+                "FROM stock_entries WHERE product_id = ? AND remaining_quantity < quantity) AS refill " +
+                "WHERE stock_entries.id = refill.id AND refill.restored > 0", quantity, productId);
+    }
+
+    // An open stock entry while a sale draws from it
+    private static class Lot {
+        final long id;
+        final int productId;
+        final double purchasePrice;
+        double remaining;
+        double consumed;
+
+        Lot(long id, int productId, double remaining, double purchasePrice) {
+            this.id = id;
+            this.productId = productId;
+            this.remaining = remaining;
+            this.purchasePrice = purchasePrice;
         }
     }
 
-    // Helper methods
-    private boolean verifyProductAndStock(int productId, double requiredQuantity) {
-        List<Map<String, Object>> result = db.executeGet(
-                "SELECT quantity FROM inventory WHERE product_id = ?",
-                productId
-        );
+    /**
+     * Checks the stock of every line with one query and deducts it with one UPDATE,
+     * so the cost of a checkout does not grow with a statement per line.
+     * Lines of the same product are summed first.
+     */
+    private void deductStock(Tx tx, List<SaleItem> saleItems) throws Exception {
+        Map<Integer, Double> quantityByProduct = quantityByProduct(saleItems);
+        String lines = jsonLines(quantityByProduct);
 
-        if (result.isEmpty()) {
-            System.err.println("Product not found in inventory: " + productId);
-            return false;
+        List<String> shortages = tx.query(SHORTAGES_QUERY, SaleService::mapShortage, lines);
+        if (!shortages.isEmpty()) {
+            throw new Exception("Insufficient stock for product: " + String.join(", ", shortages));
         }
 
-        double currentStock = ((Number) result.get(0).get("quantity")).doubleValue();
-        return currentStock >= requiredQuantity;
+        int updated = tx.update("UPDATE stock_balances SET quantity = stock_balances.quantity - lines.quantity, " +
+                "updated_at = datetime('now', 'localtime') FROM " + CART_LINES + " AS lines " +
+                "WHERE stock_balances.product_id = lines.product_id", lines);
+        if (updated != quantityByProduct.size()) {
+            throw new Exception("Failed to update stock for " + (quantityByProduct.size() - updated) + " products");
+        }
+    }
+
+    // Lines of the same product summed, in cart order
+    private static Map<Integer, Double> quantityByProduct(List<SaleItem> saleItems) {
+        Map<Integer, Double> quantityByProduct = new LinkedHashMap<>();
+        for (SaleItem item : saleItems) {
+            quantityByProduct.merge(item.getProductId(), item.getQuantity(), Double::sum);
+        }
+        return quantityByProduct;
     }
 
-    private boolean updateInventory(int productId, double quantityChange) {
-        String query = "INSERT OR REPLACE INTO inventory (product_id, quantity, last_updated) " +
-                "VALUES (?, COALESCE((SELECT quantity FROM inventory WHERE product_id = ?), 0) + ?, datetime('now', 'localtime'))";
+    // [[product_id, quantity], ...], the parameter of CART_LINES
+    private static String jsonLines(Map<Integer, Double> quantityByProduct) {
+        StringBuilder json = new StringBuilder("[");
+        quantityByProduct.forEach((productId, quantity) -> {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('[').append(productId).append(',').append(quantity).append(']');
+        });
+        return json.append(']').toString();
+    }
 
-        return db.executeSet(query, productId, productId, quantityChange);
+    private static String jsonArray(Set<Integer> values) {
+        StringBuilder json = new StringBuilder("[");
+        for (Integer value : values) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(value);
+        }
+        return json.append(']').toString();
     }
 
-    private boolean updateStockBalance(int productId, double quantity) {
-        String query = "UPDATE stock_balances SET quantity = quantity + ? WHERE product_id = ?";
-        return db.executeSet(query, quantity, productId);
+    private static String mapShortage(ResultSet resultSet) throws SQLException {
+        return resultSet.getInt("product_id") +
+                " (available " + resultSet.getDouble("available") +
+                ", requested " + resultSet.getDouble("requested") + ")";
     }
-}
\ No newline at end of file
+}
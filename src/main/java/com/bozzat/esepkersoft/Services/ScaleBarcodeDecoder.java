@@ -0,0 +1,140 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decodes the in-store EAN-13 labels printed by the scales:
+ *
+ *   PP CCCCC VVVVV K
+ *   PP    prefix 20-29 (restricted circulation numbers)
+ *   CCCCC product code (PLU) programmed in the scale
+ *   VVVVV weight in grams or price in tiyin, depending on the prefix
+ *   K     EAN-13 check digit
+ *
+ * Which prefixes carry a weight and which a price, the code length and the decimals differ
+ * between scale vendors, so they are read from system properties:
+ *   esepkersoft.scale.weightPrefixes  (default 20-29, e.g. "20,21,22")
+ *   esepkersoft.scale.pricePrefixes   (default none)
+ *   esepkersoft.scale.codeLength      (default 5)
+ *   esepkersoft.scale.weightDecimals  (default 3, grams -> kg)
+ *   esepkersoft.scale.priceDecimals   (default 2)
+ */
+public class ScaleBarcodeDecoder {
+    private static final int EAN13_LENGTH = 13;
+    private static final int PREFIX_LENGTH = 2;
+
+    public enum ValueType { WEIGHT, PRICE }
+
+    /**
+     * A decoded label: the product code and the weight (kg) or price it carries.
+     */
+    public record ScaleLabel(String productCode, ValueType valueType, double value) {
+    }
+
+    private final Set<Integer> weightPrefixes;
+    private final Set<Integer> pricePrefixes;
+    private final int codeLength;
+    private final double weightDivisor;
+    private final double priceDivisor;
+
+    public ScaleBarcodeDecoder() {
+        this(parsePrefixes(System.getProperty("esepkersoft.scale.weightPrefixes", "20-29")),
+                parsePrefixes(System.getProperty("esepkersoft.scale.pricePrefixes", "")),
+                Integer.getInteger("esepkersoft.scale.codeLength", 5),
+                Integer.getInteger("esepkersoft.scale.weightDecimals", 3),
+                Integer.getInteger("esepkersoft.scale.priceDecimals", 2));
+    }
+
+    public ScaleBarcodeDecoder(Set<Integer> weightPrefixes, Set<Integer> pricePrefixes,
+                               int codeLength, int weightDecimals, int priceDecimals) {
+        if (codeLength < 1 || codeLength > EAN13_LENGTH - PREFIX_LENGTH - 2) {
+            throw new IllegalArgumentException("Invalid scale product code length: " + codeLength);
+        }
+        this.weightPrefixes = new HashSet<>(weightPrefixes);
+        this.pricePrefixes = new HashSet<>(pricePrefixes);
+        // A prefix listed as both is read as a price
+        this.weightPrefixes.removeAll(this.pricePrefixes);
+        this.codeLength = codeLength;
+        this.weightDivisor = Math.pow(10, weightDecimals);
+        this.priceDivisor = Math.pow(10, priceDecimals);
+    }
+
+    /**
+     * @return the decoded label, or null if the barcode is not a scale label
+     *         (other length, non-scale prefix or wrong check digit)
+     */
+    public ScaleLabel decode(String barcode) {
+        if (barcode == null) {
+            return null;
+        }
+        String code = barcode.trim();
+        if (code.length() != EAN13_LENGTH || !isDigits(code)) {
+            return null;
+        }
+        int prefix = Integer.parseInt(code.substring(0, PREFIX_LENGTH));
+        ValueType valueType;
+        if (pricePrefixes.contains(prefix)) {
+            valueType = ValueType.PRICE;
+        } else if (weightPrefixes.contains(prefix)) {
+            valueType = ValueType.WEIGHT;
+        } else {
+            return null;
+        }
+        if (!hasValidCheckDigit(code)) {
+            return null;
+        }
+
+        String productCode = code.substring(PREFIX_LENGTH, PREFIX_LENGTH + codeLength);
+        long rawValue = Long.parseLong(code.substring(PREFIX_LENGTH + codeLength, EAN13_LENGTH - 1));
+        double value = rawValue / (valueType == ValueType.WEIGHT ? weightDivisor : priceDivisor);
+        return new ScaleLabel(productCode, valueType, value);
+    }
+
+    // EAN-13: digits at odd positions (from the left, 1-based) weigh 1, even positions 3
+    static boolean hasValidCheckDigit(String code) {
+        int sum = 0;
+        for (int i = 0; i < EAN13_LENGTH - 1; i++) {
+            int digit = code.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        int checkDigit = (10 - sum % 10) % 10;
+        return checkDigit == code.charAt(EAN13_LENGTH - 1) - '0';
+    }
+
+    private static boolean isDigits(String code) {
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // "20-24,28" -> {20, 21, 22, 23, 24, 28}
+    static Set<Integer> parsePrefixes(String spec) {
+        Set<Integer> prefixes = new HashSet<>();
+        for (String part : spec.split(",")) {
+            String range = part.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            try {
+                int dash = range.indexOf('-');
+                if (dash > 0) {
+                    int from = Integer.parseInt(range.substring(0, dash).trim());
+                    int to = Integer.parseInt(range.substring(dash + 1).trim());
+                    for (int prefix = from; prefix <= to; prefix++) {
+                        prefixes.add(prefix);
+                    }
+                } else {
+                    prefixes.add(Integer.parseInt(range));
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid scale prefix: " + range);
+            }
+        }
+        return prefixes;
+    }
+}
@@ -0,0 +1,368 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Versioned schema migrations. The version of a database file is kept in PRAGMA user_version,
+ * and on startup only the migrations above it run, each in its own transaction together with
+ * the version bump. A database that is already current costs one PRAGMA read and no DDL.
+ *
+ * Migrations are append-only: never edit one that has shipped, add a new one instead.
+ */
+class SchemaMigrator {
+    private interface Migration {
+        void apply(Tx tx) throws SQLException;
+    }
+
+    private final dbManager db;
+    // Index + 1 is the schema version the migration brings the database to
+    private final List<Migration> migrations = List.of(
+            this::createBaselineTables,
+            this::addLookupIndexes,
+            this::addProductCategory,
+            this::addProductSearchIndex,
+            this::addCostLots,
+            this::addSaleJournalTable,
+            this::addSaleIdempotencyKey,
+            this::addDailyRollups,
+            this::addEpochTimestamps
+    );
+
+    SchemaMigrator(dbManager db) {
+        this.db = db;
+    }
+
+    int getLatestVersion() {
+        return migrations.size();
+    }
+
+    /**
+     * Applies the pending migrations in order and stops at the first one that fails.
+     *
+     * @return true if the schema is current afterwards
+     */
+    boolean migrate() {
+        Integer current = db.inTransaction(this::readVersion);
+        if (current == null) {
+            return false;
+        }
+        for (int version = current + 1; version <= getLatestVersion(); version++) {
+            int target = version;
+            Migration migration = migrations.get(version - 1);
+            Boolean applied = db.inTransaction(tx -> {
+                // Another process may have migrated the file since the version was read
+                if (readVersion(tx) >= target) {
+                    return true;
+                }
+                migration.apply(tx);
+                tx.update("PRAGMA user_version = " + target);
+                return true;
+            });
+            if (applied == null) {
+                System.err.println("Schema migration to version " + target + " failed");
+                return false;
+            }
+            System.out.println("Database schema migrated to version " + target);
+        }
+        return true;
+    }
+
+    private int readVersion(Tx tx) throws SQLException {
+        Integer version = tx.queryOne("PRAGMA user_version", resultSet -> resultSet.getInt(1));
+        return version != null ? version : 0;
+    }
+
+    private boolean hasColumn(Tx tx, String table, String column) throws SQLException {
+        return !tx.query("SELECT name FROM pragma_table_info(?) WHERE name = ?",
+                resultSet -> resultSet.getString("name"), table, column).isEmpty();
+    }
+
+    // Version 1: the tables dbManager used to create on every startup.
+    // IF NOT EXISTS keeps it safe on files created before versioning.
+    private void createBaselineTables(Tx tx) throws SQLException {
+        createCategoriesTable(tx);
+        createSuppliersTable(tx);
+        createProductsTable(tx);
+        createStockEntriesTable(tx);
+        createStockBalancesTable(tx);
+        createSalesTable(tx);
+        createSaleItemsTable(tx);
+        createReturnsTable(tx);
+        createReturnItemsTable(tx);
+        createExpenseCategoriesTable(tx);
+        createExpensesTable(tx);
+    }
+
+    // Version 2: indexes for the date-range filters and product/sale joins of the reports,
+    // and one balance row per product
+    private void addLookupIndexes(Tx tx) throws SQLException {
+        tx.update("CREATE INDEX IF NOT EXISTS idx_sales_sale_time ON sales(sale_time)");
+        tx.update("CREATE INDEX IF NOT EXISTS idx_sales_items_sale_id ON sales_items(sale_id)");
+        tx.update("CREATE INDEX IF NOT EXISTS idx_sales_items_product_id ON sales_items(product_id)");
+        tx.update("CREATE INDEX IF NOT EXISTS idx_stock_entries_product_id ON stock_entries(product_id)");
+
+        // Every balance update touched all rows of a product, so duplicates carry the same
+        // quantity; keep the oldest one, it is the row the lookups have been reading
+        tx.update("DELETE FROM stock_balances WHERE id NOT IN " +
+                "(SELECT MIN(id) FROM stock_balances GROUP BY product_id)");
+        tx.update("CREATE UNIQUE INDEX IF NOT EXISTS idx_stock_balances_product_id ON stock_balances(product_id)");
+    }
+
+    // Version 3: products.category_id, already used by the inventory and category revenue queries
+    private void addProductCategory(Tx tx) throws SQLException {
+        if (!hasColumn(tx, "products", "category_id")) {
+            tx.update("ALTER TABLE products ADD COLUMN category_id INTEGER REFERENCES categories(id)");
+        }
+        tx.update("CREATE INDEX IF NOT EXISTS idx_products_category_id ON products(category_id)");
+    }
+
+    // Version 4: FTS5 index over product names and barcodes for the type-ahead search.
+    // It stores no text of its own (content='products'), triggers keep it in sync and
+    // prefix='2 3' indexes short prefixes so "мол"* does not scan the term list.
+    private void addProductSearchIndex(Tx tx) throws SQLException {
+        tx.update("CREATE VIRTUAL TABLE IF NOT EXISTS products_fts USING fts5(" +
+                "name, barcode, " +
+                "content='products', content_rowid='id', " +
+                "tokenize='unicode61 remove_diacritics 2', prefix='2 3')");
+        tx.update("CREATE TRIGGER IF NOT EXISTS products_fts_insert AFTER INSERT ON products BEGIN " +
+                "INSERT INTO products_fts(rowid, name, barcode) VALUES (new.id, new.name, new.barcode); " +
+                "END");
+        tx.update("CREATE TRIGGER IF NOT EXISTS products_fts_delete AFTER DELETE ON products BEGIN " +
+                "INSERT INTO products_fts(products_fts, rowid, name, barcode) VALUES ('delete', old.id, old.name, old.barcode); " +
+                "END");
+        tx.update("CREATE TRIGGER IF NOT EXISTS products_fts_update AFTER UPDATE OF name, barcode ON products BEGIN " +
+                "INSERT INTO products_fts(products_fts, rowid, name, barcode) VALUES ('delete', old.id, old.name, old.barcode); " +
+                "INSERT INTO products_fts(rowid, name, barcode) VALUES (new.id, new.name, new.barcode); " +
+                "END");
+        // Index the products that already exist
+        tx.update("INSERT INTO products_fts(products_fts) VALUES ('rebuild')");
+    }
+
+    // Version 5: every stock entry is a cost lot with a remaining quantity, consumed FIFO
+    // by sales, and every sale item keeps the cost of the lots it consumed
+    private void addCostLots(Tx tx) throws SQLException {
+        if (!hasColumn(tx, "stock_entries", "remaining_quantity")) {
+            tx.update("ALTER TABLE stock_entries ADD COLUMN remaining_quantity REAL NOT NULL DEFAULT 0");
+        }
+        if (!hasColumn(tx, "sales_items", "cost_total")) {
+            tx.update("ALTER TABLE sales_items ADD COLUMN cost_total REAL NOT NULL DEFAULT 0");
+        }
+
+        // Under FIFO the stock still on hand sits in the newest lots: fill the current balance
+        // into the lots from the newest one backwards
+        tx.update("UPDATE stock_entries SET remaining_quantity = MAX(0, MIN(lots.quantity, lots.balance - lots.newer_quantity)) " +
+                "FROM (SELECT se.id, se.quantity, COALESCE(sb.quantity, 0) AS balance, " +
+                "COALESCE(SUM(se.quantity) OVER (PARTITION BY se.product_id ORDER BY se.arrival_date DESC, se.id DESC " +
+                "ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING), 0) AS newer_quantity " +
+                "FROM stock_entries se LEFT JOIN stock_balances sb ON sb.product_id = se.product_id) AS lots " +
+                "WHERE stock_entries.id = lots.id");
+
+        // Past sales cannot be traced to lots, the average purchase price is the best estimate
+        tx.update("UPDATE sales_items SET cost_total = quantity * costs.avg_price " +
+                "FROM (SELECT product_id, AVG(purchase_price) AS avg_price FROM stock_entries GROUP BY product_id) AS costs " +
+                "WHERE sales_items.product_id = costs.product_id");
+
+        // Only lots with stock left are read at checkout
+        tx.update("CREATE INDEX IF NOT EXISTS idx_stock_entries_open_lots " +
+                "ON stock_entries(product_id, arrival_date, id) WHERE remaining_quantity > 0");
+    }
+
+    // Version 6: which SaleJournal records have reached the database, written in the same
+    // transaction as the sale so a replayed record is never applied twice
+    private void addSaleJournalTable(Tx tx) throws SQLException {
+        tx.update("CREATE TABLE IF NOT EXISTS sale_journal (" +
+                "record_id TEXT PRIMARY KEY, " +
+                "sale_id INTEGER REFERENCES sales(id) ON DELETE SET NULL, " +
+                "status TEXT NOT NULL, " +
+                "error TEXT, " +
+                "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")");
+    }
+
+    // Version 7: client-generated key per checkout, a resubmitted sale finds the one already saved
+    private void addSaleIdempotencyKey(Tx tx) throws SQLException {
+        if (!hasColumn(tx, "sales", "idempotency_key")) {
+            tx.update("ALTER TABLE sales ADD COLUMN idempotency_key TEXT");
+        }
+        // Older sales have no key, NULLs do not collide in a unique index
+        tx.update("CREATE UNIQUE INDEX IF NOT EXISTS idx_sales_idempotency_key ON sales(idempotency_key)");
+    }
+
+    // Version 8: daily sales rollups for the reports, see RollupService
+    private void addDailyRollups(Tx tx) throws SQLException {
+        tx.update("CREATE TABLE IF NOT EXISTS daily_product_sales (" +
+                "day TEXT NOT NULL, " +
+                "product_id INTEGER NOT NULL, " +
+                "quantity REAL NOT NULL, " +
+                "revenue REAL NOT NULL, " +
+                "cost REAL NOT NULL, " +
+                "sale_count INTEGER NOT NULL, " +
+                "PRIMARY KEY (day, product_id)" +
+                ") WITHOUT ROWID");
+        tx.update("CREATE TABLE IF NOT EXISTS daily_payment_sales (" +
+                "day TEXT NOT NULL, " +
+                "payment_method TEXT NOT NULL, " +
+                "sale_count INTEGER NOT NULL, " +
+                "revenue REAL NOT NULL, " +
+                "PRIMARY KEY (day, payment_method)" +
+                ") WITHOUT ROWID");
+        // The sales made before the rollups existed, as of this version of the schema
+        tx.update("INSERT INTO daily_product_sales (day, product_id, quantity, revenue, cost, sale_count) " +
+                "SELECT DATE(s.sale_time), si.product_id, SUM(si.quantity), SUM(si.quantity * si.unit_price), " +
+                "SUM(si.cost_total), COUNT(DISTINCT s.id) " +
+                "FROM sales s JOIN sales_items si ON si.sale_id = s.id GROUP BY 1, 2");
+        tx.update("INSERT INTO daily_payment_sales (day, payment_method, sale_count, revenue) " +
+                "SELECT DATE(sale_time), payment_method, COUNT(*), SUM(total_amount) FROM sales GROUP BY 1, 2");
+    }
+
+    // Version 9: epoch millisecond copies of the local time columns, so date ranges are
+    // numeric index range scans instead of text comparisons, see Timestamps
+    private void addEpochTimestamps(Tx tx) throws SQLException {
+        String[][] columns = {
+                {"sales", "sale_time"},
+                {"stock_entries", "arrival_date"},
+                {"expenses", "expense_date"}
+        };
+        for (String[] column : columns) {
+            String table = column[0];
+            String source = column[1];
+            if (!hasColumn(tx, table, source + "_ms")) {
+                tx.update("ALTER TABLE " + table + " ADD COLUMN " + source + "_ms INTEGER");
+            }
+            // Existing values were written in local time, as text with a space or a 'T' separator
+            tx.update("UPDATE " + table + " SET " + source + "_ms = " + Timestamps.epochMillisSql(source) + " " +
+                    "WHERE " + source + "_ms IS NULL AND " + source + " IS NOT NULL");
+            tx.update("CREATE INDEX IF NOT EXISTS idx_" + table + "_" + source + "_ms ON " + table + "(" + source + "_ms)");
+        }
+        tx.update("CREATE INDEX IF NOT EXISTS idx_expenses_category_date_ms ON expenses(category_id, expense_date_ms)");
+    }
+
+    private void createCategoriesTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS categories (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "name VARCHAR NOT NULL" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createSuppliersTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS suppliers (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "name VARCHAR NOT NULL, " +
+                "contact_info TEXT, " +
+                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createProductsTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS products (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "name VARCHAR NOT NULL, " +
+                "barcode TEXT NOT NULL UNIQUE, " +
+                "unit_type VARCHAR NOT NULL, " +
+                "current_price REAL NOT NULL, " +
+                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP " +
+                ")";
+        tx.update(query);
+    }
+
+    private void createStockEntriesTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS stock_entries (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "product_id INTEGER NOT NULL, " +
+                "quantity REAL NOT NULL, " +
+                "purchase_price REAL NOT NULL, " +
+                "supplier_id INTEGER, " +
+                "arrival_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                "note TEXT, " +
+                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE, " +
+                "FOREIGN KEY (supplier_id) REFERENCES suppliers(id)" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createStockBalancesTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS stock_balances (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "product_id INTEGER NOT NULL, " +
+                "quantity REAL NOT NULL, " +
+                "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createSalesTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS sales (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "total_amount REAL NOT NULL, " +
+                "payment_method VARCHAR NOT NULL, " +
+                "sale_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                "comment TEXT" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createSaleItemsTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS sales_items (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "sale_id INTEGER NOT NULL, " +
+                "product_id INTEGER NOT NULL, " +
+                "quantity REAL NOT NULL, " +
+                "unit_price REAL NOT NULL, " +
+                "FOREIGN KEY (sale_id) REFERENCES sales(id), " +
+                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createReturnsTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS returns (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "sale_id INTEGER NOT NULL, " +
+                "return_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                "total_refund REAL NOT NULL, " +
+                "reason TEXT, " +
+                "FOREIGN KEY (sale_id) REFERENCES sales(id)" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createReturnItemsTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS return_items (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "return_id INTEGER NOT NULL, " +
+                "product_id INTEGER NOT NULL, " +
+                "quantity REAL NOT NULL, " +
+                "unit_price REAL NOT NULL, " +
+                "FOREIGN KEY (return_id) REFERENCES returns(id), " +
+                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createExpenseCategoriesTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS expense_categories (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "name VARCHAR NOT NULL UNIQUE, " +
+                "description TEXT, " +
+                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+        tx.update(query);
+    }
+
+    private void createExpensesTable(Tx tx) throws SQLException {
+        String query = "CREATE TABLE IF NOT EXISTS expenses (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "amount REAL NOT NULL, " +
+                "category_id INTEGER NOT NULL, " +
+                "description TEXT, " +
+                "expense_date TIMESTAMP NOT NULL, " +
+                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                "FOREIGN KEY (category_id) REFERENCES expense_categories(id)" +
+                ")";
+        tx.update(query);
+    }
+}
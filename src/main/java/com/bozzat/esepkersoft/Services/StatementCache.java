@@ -0,0 +1,105 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements keyed by connection and SQL text.
+ * A connection is only ever used by one thread at a time (the writer under its lock,
+ * readers while borrowed from the pool), so a cached statement is never shared concurrently.
+ * Statements evicted from the cache are closed.
+ */
+class StatementCache {
+    private final int maxPerConnection;
+    private final Map<Connection, LinkedHashMap<String, PreparedStatement>> caches = new IdentityHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    StatementCache(int maxPerConnection) {
+        this.maxPerConnection = maxPerConnection;
+    }
+
+    /**
+     * Returns a cached statement for the SQL on this connection, preparing it on a miss.
+     * Callers must not close the returned statement, only its result sets.
+     */
+    PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        LinkedHashMap<String, PreparedStatement> cache = cacheFor(connection);
+        PreparedStatement statement;
+        synchronized (cache) {
+            statement = cache.get(sql);
+        }
+        if (statement != null && !statement.isClosed()) {
+            hits.incrementAndGet();
+            return statement;
+        }
+        misses.incrementAndGet();
+        statement = connection.prepareStatement(sql);
+        synchronized (cache) {
+            cache.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Drops a statement that failed, it may be left in an unusable state.
+     */
+    void evict(Connection connection, String sql) {
+        LinkedHashMap<String, PreparedStatement> cache = cacheFor(connection);
+        PreparedStatement statement;
+        synchronized (cache) {
+            statement = cache.remove(sql);
+        }
+        closeQuietly(statement);
+    }
+
+    /**
+     * Closes every cached statement, used before the connections themselves are closed.
+     */
+    synchronized void clear() {
+        for (LinkedHashMap<String, PreparedStatement> cache : caches.values()) {
+            synchronized (cache) {
+                cache.values().forEach(StatementCache::closeQuietly);
+                cache.clear();
+            }
+        }
+        caches.clear();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private synchronized LinkedHashMap<String, PreparedStatement> cacheFor(Connection connection) {
+        return caches.computeIfAbsent(connection, c -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxPerConnection) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.err.println("Failed to close cached statement: " + e.getMessage());
+        }
+    }
+}
@@ -2,10 +2,7 @@ package com.bozzat.esepkersoft.Services;
 
 import com.bozzat.esepkersoft.Models.Supplier;
 
-import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class SupplierService {
     private final dbManager db = dbManager.getInstance();
@@ -17,40 +14,20 @@ public class SupplierService {
             return null;
         }
 
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-
+        return db.inTransaction(tx -> {
             String query = "INSERT INTO suppliers (name, contact_info) VALUES (?, ?)";
 
-            if (!db.executeSet(query,
+            int supplierId = (int) tx.insert(query,
                     supplier.getName().trim(),
-                    supplier.getContactInfo() != null ? supplier.getContactInfo().trim() : "")) {
-                throw new Exception("Failed to insert supplier");
-            }
-
-            // Get the generated supplier ID
-            List<Map<String, Object>> result = db.executeGet("SELECT last_insert_rowid() as id");
-            if (result.isEmpty()) {
-                throw new Exception("Failed to retrieve supplier ID");
-            }
-            int supplierId = ((Number) result.get(0).get("id")).intValue();
+                    supplier.getContactInfo() != null ? supplier.getContactInfo().trim() : "");
 
             // Get the complete supplier data
-            Supplier createdSupplier = getSupplierById(supplierId);
+            Supplier createdSupplier = tx.queryOne("SELECT * FROM suppliers WHERE id = ?", RowMappers.SUPPLIER, supplierId);
             if (createdSupplier == null) {
                 throw new Exception("Failed to retrieve created supplier");
             }
-
-            // Commit transaction
-            db.executeSet("COMMIT");
             return createdSupplier;
-
-        } catch (Exception e) {
-            System.err.println("Supplier addition failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return null;
-        }
+        });
     }
     
 
@@ -60,34 +37,19 @@ public class SupplierService {
             return false;
         }
 
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-            
-            // Check if supplier exists
-            Supplier existingSupplier = getSupplierById(supplier.getId());
-            if (existingSupplier == null) {
-                throw new Exception("Supplier not found");
-            }
-
+        Boolean updated = db.inTransaction(tx -> {
             String query = "UPDATE suppliers SET name = ?, contact_info = ? WHERE id = ?";
 
-            if (!db.executeSet(query,
+            int count = tx.update(query,
                     supplier.getName().trim(),
                     supplier.getContactInfo() != null ? supplier.getContactInfo().trim() : "",
-                    supplier.getId())) {
-                throw new Exception("Failed to update supplier");
+                    supplier.getId());
+            if (count == 0) {
+                throw new Exception("Supplier not found");
             }
-            
-            // Commit transaction
-            db.executeSet("COMMIT");
             return true;
-            
-        } catch (Exception e) {
-            System.err.println("Supplier update failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return false;
-        }
+        });
+        return updated != null;
     }
     
     /**
@@ -100,39 +62,24 @@ public class SupplierService {
             return false;
         }
 
-        try {
-            // Start transaction
-            db.executeSet("BEGIN TRANSACTION");
-            
-            // Check if supplier exists
-            Supplier existingSupplier = getSupplierById(supplierId);
-            if (existingSupplier == null) {
-                throw new Exception("Supplier not found");
-            }
-            
+        Boolean deleted = db.inTransaction(tx -> {
             // Check if supplier is used in stock entries
-            List<Map<String, Object>> usageCheck = db.executeGet(
-                    "SELECT COUNT(*) as count FROM stock_entries WHERE supplier_id = ?", 
+            Integer usageCount = tx.queryOne(
+                    "SELECT COUNT(*) as count FROM stock_entries WHERE supplier_id = ?",
+                    resultSet -> resultSet.getInt("count"),
                     supplierId
             );
-            
-            if (!usageCheck.isEmpty() && ((Number) usageCheck.get(0).get("count")).intValue() > 0) {
+
+            if (usageCount != null && usageCount > 0) {
                 throw new Exception("Cannot delete supplier that is associated with stock entries");
             }
 
-            if (!db.executeSet("DELETE FROM suppliers WHERE id = ?", supplierId)) {
-                throw new Exception("Failed to delete supplier");
+            if (tx.update("DELETE FROM suppliers WHERE id = ?", supplierId) == 0) {
+                throw new Exception("Supplier not found");
             }
-            
-            // Commit transaction
-            db.executeSet("COMMIT");
             return true;
-            
-        } catch (Exception e) {
-            System.err.println("Supplier deletion failed: " + e.getMessage());
-            db.executeSet("ROLLBACK");
-            return false;
-        }
+        });
+        return deleted != null;
     }
     
     /**
@@ -146,13 +93,7 @@ public class SupplierService {
         }
 
         String query = "SELECT * FROM suppliers WHERE id = ?";
-        List<Map<String, Object>> results = db.executeGet(query, supplierId);
-
-        if (results.isEmpty()) {
-            return null;
-        }
-
-        return mapToSupplier(results.get(0));
+        return db.queryOne(query, RowMappers.SUPPLIER, supplierId);
     }
     
     /**
@@ -161,14 +102,7 @@ public class SupplierService {
      */
     public List<Supplier> getAllSuppliers() {
         String query = "SELECT * FROM suppliers ORDER BY name";
-        List<Map<String, Object>> results = db.executeGet(query);
-        
-        List<Supplier> suppliers = new ArrayList<>();
-        for (Map<String, Object> row : results) {
-            suppliers.add(mapToSupplier(row));
-        }
-        
-        return suppliers;
+        return db.query(query, RowMappers.SUPPLIER);
     }
     
     /**
@@ -182,29 +116,6 @@ public class SupplierService {
         }
         
         String query = "SELECT * FROM suppliers WHERE name LIKE ? ORDER BY name";
-        List<Map<String, Object>> results = db.executeGet(query, "%" + searchTerm.trim() + "%");
-        
-        List<Supplier> suppliers = new ArrayList<>();
-        for (Map<String, Object> row : results) {
-            suppliers.add(mapToSupplier(row));
-        }
-        
-        return suppliers;
-    }
-    
-    /**
-     * Helper method to map database row to Supplier object
-     */
-    private Supplier mapToSupplier(Map<String, Object> data) {
-        Supplier supplier = new Supplier();
-        supplier.setId(((Number) data.get("id")).intValue());
-        supplier.setName((String) data.get("name"));
-        supplier.setContactInfo((String) data.get("contact_info"));
-        
-        if (data.get("created_at") != null) {
-            supplier.setCreatedAt(LocalDateTime.parse((String) data.get("created_at")));
-        }
-        
-        return supplier;
+        return db.query(query, RowMappers.SUPPLIER, "%" + searchTerm.trim() + "%");
     }
-} 
\ No newline at end of file
+}
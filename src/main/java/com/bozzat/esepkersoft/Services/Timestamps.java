@@ -0,0 +1,50 @@
+package com.bozzat.esepkersoft.Services;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Timestamps of sales, stock entries and expenses are stored twice: as local time text
+ * (sale_time, arrival_date, expense_date) for display and per-day grouping, and as epoch
+ * milliseconds (sale_time_ms, arrival_date_ms, expense_date_ms) for range filters and ordering.
+ * Both are written from the same LocalDateTime, interpreted in the system time zone.
+ */
+final class Timestamps {
+    // Same text SQLite's datetime() produces
+    private static final DateTimeFormatter SQL_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private Timestamps() {
+    }
+
+    // Current local time at the precision of the text columns, so both forms agree
+    static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    static String format(LocalDateTime value) {
+        return value.format(SQL_FORMAT);
+    }
+
+    static long toEpochMillis(LocalDateTime value) {
+        return value.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Parameters for "column_ms BETWEEN ? AND ?". An end on a whole second includes that
+     * whole second, as 23:59:59 does in the text comparison it replaces.
+     */
+    static Object[] range(LocalDateTime startDate, LocalDateTime endDate) {
+        long end = toEpochMillis(endDate);
+        if (endDate.getNano() == 0) {
+            end += 999;
+        }
+        return new Object[]{toEpochMillis(startDate), end};
+    }
+
+    // SQL expression converting a local time text column to epoch milliseconds, used by the backfill
+    static String epochMillisSql(String column) {
+        return "CAST(ROUND((julianday(" + column + ", 'utc') - 2440587.5) * 86400000) AS INTEGER)";
+    }
+}
@@ -0,0 +1,10 @@
+package com.bozzat.esepkersoft.Services;
+
+/**
+ * Thrown out of a nested dbManager.inTransaction call after its savepoint was rolled back.
+ */
+public class TransactionException extends RuntimeException {
+    public TransactionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
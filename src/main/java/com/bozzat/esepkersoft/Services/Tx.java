@@ -0,0 +1,52 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.RowMapper;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Handle passed to dbManager.inTransaction callbacks. All statements run on the writer
+ * connection inside the open transaction, and unlike executeSet/executeGet they throw
+ * on failure so the transaction is rolled back instead of half-applied.
+ */
+public class Tx {
+    private final dbManager db;
+
+    Tx(dbManager db) {
+        this.db = db;
+    }
+
+    // Runs an INSERT/UPDATE/DELETE and returns the number of affected rows
+    public int update(String query, Object... params) throws SQLException {
+        return db.runUpdate(query, params);
+    }
+
+    // Runs an INSERT and returns the rowid it generated
+    public long insert(String query, Object... params) throws SQLException {
+        db.runUpdate(query, params);
+        return db.lastInsertRowId();
+    }
+
+    public <T> List<T> query(String query, RowMapper<T> mapper, Object... params) throws SQLException {
+        return db.runQuery(query, mapper, params);
+    }
+
+    // First mapped row, or null if the query returned nothing
+    public <T> T queryOne(String query, RowMapper<T> mapper, Object... params) throws SQLException {
+        List<T> rows = db.runQuery(query, mapper, params);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Runs the action once the outermost transaction has committed, e.g. to update an
+     * in-memory cache. It is dropped if this transaction or savepoint rolls back.
+     */
+    public void afterCommit(Runnable action) {
+        db.addAfterCommitAction(action);
+    }
+
+    public BatchResult executeBatch(String query, List<Object[]> rows) throws SQLException {
+        return db.runBatch(query, rows);
+    }
+}
@@ -0,0 +1,247 @@
+package com.bozzat.esepkersoft.Services;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Minimal streaming reader for the first worksheet of an .xlsx file, without a spreadsheet
+ * library: the worksheet XML is pulled with StAX row by row. Only the shared string table
+ * is loaded up front, as cells refer to it by index.
+ * Formulas yield their cached value; styles and dates are not interpreted.
+ *
+ * The first worksheet is the first &lt;sheet&gt; of xl/workbook.xml, found through its
+ * relationship in xl/_rels/workbook.xml.rels; its part name depends on how the workbook
+ * was edited and is not always sheet1.xml. A malformed file fails with an IOException.
+ */
+class XlsxRowReader implements RowReader {
+    private static final String SHARED_STRINGS = "xl/sharedStrings.xml";
+    private static final String WORKBOOK = "xl/workbook.xml";
+    private static final String WORKBOOK_RELS = "xl/_rels/workbook.xml.rels";
+    // Used when the workbook does not name its sheets, as some generators write it
+    private static final String DEFAULT_FIRST_SHEET = "xl/worksheets/sheet1.xml";
+    private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private final ZipFile zip;
+    private final InputStream sheetStream;
+    private final XMLStreamReader sheet;
+    private final List<String> sharedStrings;
+    private int rowNumber;
+
+    XlsxRowReader(File file) throws IOException {
+        zip = new ZipFile(file);
+        try {
+            XMLInputFactory factory = XMLInputFactory.newFactory();
+            // The file comes from outside, do not resolve external entities
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            sharedStrings = readSharedStrings(factory);
+
+            ZipEntry sheetEntry = zip.getEntry(firstSheetPath(factory));
+            if (sheetEntry == null) {
+                throw new IOException("No worksheet found in " + file.getName());
+            }
+            sheetStream = zip.getInputStream(sheetEntry);
+            sheet = factory.createXMLStreamReader(sheetStream);
+        } catch (XMLStreamException | IOException e) {
+            zip.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<String> next() throws IOException {
+        try {
+            List<String> row = null;
+            int column = 0;
+            String cellType = null;
+            StringBuilder value = new StringBuilder();
+            boolean inValue = false;
+            while (sheet.hasNext()) {
+                int event = sheet.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (sheet.getLocalName()) {
+                        case "row" -> {
+                            row = new ArrayList<>();
+                            String r = sheet.getAttributeValue(null, "r");
+                            rowNumber = r != null ? parseIndex(r, "row number") : rowNumber + 1;
+                        }
+                        case "c" -> {
+                            String reference = sheet.getAttributeValue(null, "r");
+                            column = reference != null ? columnIndex(reference) : (row != null ? row.size() : 0);
+                            cellType = sheet.getAttributeValue(null, "t");
+                            value.setLength(0);
+                        }
+                        // <v> holds the value, <t> the text of an inline string
+                        case "v", "t" -> inValue = true;
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (inValue) {
+                        value.append(sheet.getText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (sheet.getLocalName()) {
+                        case "v", "t" -> inValue = false;
+                        case "c" -> {
+                            if (row != null) {
+                                // Empty cells are not written, pad up to this column
+                                while (row.size() < column) {
+                                    row.add("");
+                                }
+                                row.add(cellValue(cellType, value.toString()));
+                            }
+                        }
+                        case "row" -> {
+                            return row;
+                        }
+                        default -> {
+                        }
+                    }
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid worksheet: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sheet.close();
+        } catch (XMLStreamException e) {
+            // Closing the stream and the zip below is what matters
+        }
+        sheetStream.close();
+        zip.close();
+    }
+
+    private String cellValue(String cellType, String raw) throws IOException {
+        if ("s".equals(cellType)) {
+            int index = parseIndex(raw.trim(), "shared string index");
+            return index < sharedStrings.size() ? sharedStrings.get(index) : "";
+        }
+        if ("b".equals(cellType)) {
+            return "1".equals(raw) ? "TRUE" : "FALSE";
+        }
+        return raw;
+    }
+
+    private int parseIndex(String value, String what) throws IOException {
+        try {
+            int index = Integer.parseInt(value);
+            if (index < 0) {
+                throw new NumberFormatException();
+            }
+            return index;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + what + " '" + value + "' near row " + rowNumber);
+        }
+    }
+
+    // "AB12" -> 27 (0-based column)
+    private static int columnIndex(String reference) {
+        int column = 0;
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    // Zip entry of the first sheet listed in the workbook
+    private String firstSheetPath(XMLInputFactory factory) throws IOException, XMLStreamException {
+        String relationshipId = null;
+        ZipEntry workbook = zip.getEntry(WORKBOOK);
+        if (workbook != null) {
+            try (InputStream in = zip.getInputStream(workbook)) {
+                XMLStreamReader reader = factory.createXMLStreamReader(in);
+                while (reader.hasNext() && relationshipId == null) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "sheet".equals(reader.getLocalName())) {
+                        relationshipId = reader.getAttributeValue(RELATIONSHIPS_NS, "id");
+                    }
+                }
+                reader.close();
+            }
+        }
+        ZipEntry rels = zip.getEntry(WORKBOOK_RELS);
+        if (relationshipId == null || rels == null) {
+            return DEFAULT_FIRST_SHEET;
+        }
+        try (InputStream in = zip.getInputStream(rels)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "Relationship".equals(reader.getLocalName())
+                        && relationshipId.equals(reader.getAttributeValue(null, "Id"))) {
+                    String target = reader.getAttributeValue(null, "Target");
+                    reader.close();
+                    if (target == null) {
+                        break;
+                    }
+                    // Relative to xl/, or absolute from the package root
+                    return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+                }
+            }
+            reader.close();
+        }
+        throw new IOException("Workbook names a first sheet that is not in the file");
+    }
+
+    private List<String> readSharedStrings(XMLInputFactory factory) throws IOException, XMLStreamException {
+        List<String> strings = new ArrayList<>();
+        ZipEntry entry = zip.getEntry(SHARED_STRINGS);
+        if (entry == null) {
+            return strings;
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            StringBuilder text = new StringBuilder();
+            boolean inText = false;
+            boolean inPhonetic = false;
+            // Rich text splits one string into several <r><t> runs inside a <si>
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "si" -> text.setLength(0);
+                        case "t" -> inText = !inPhonetic;
+                        // Phonetic hints carry their own <t>, they are not part of the value
+                        case "rPh" -> inPhonetic = true;
+                        default -> {
+                        }
+                    }
+                } else if ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) && inText) {
+                    text.append(reader.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "t" -> inText = false;
+                        case "rPh" -> inPhonetic = false;
+                        case "si" -> strings.add(text.toString());
+                        default -> {
+                        }
+                    }
+                }
+            }
+            reader.close();
+        }
+        return strings;
+    }
+}
@@ -1,18 +1,62 @@
 package com.bozzat.esepkersoft.Services;
 
+import com.bozzat.esepkersoft.Interfaces.QueryMetricsMXBean;
+import com.bozzat.esepkersoft.Interfaces.RowMapper;
+import com.bozzat.esepkersoft.Interfaces.TransactionCallback;
+
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class dbManager {
+    // Database file, created in the project root unless esepkersoft.db points elsewhere (the tests use a temporary file)
+    private static final String DB_URL = "jdbc:sqlite:" + System.getProperty("esepkersoft.db", "shop.db");
+    // Number of read-only connections handed out to SELECT queries,
+    // enough for the five queries of DashboardLoader to run at once with one to spare
+    private static final int READER_POOL_SIZE = 6;
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    // Prepared statements kept per connection, the hot paths use only a handful of SQL strings
+    private static final int STATEMENT_CACHE_SIZE = 64;
+    // How long explaining a slow query waits for a free read connection before giving up
+    private static final long EXPLAIN_WAIT_MS = 1000;
+    // Rows fetched per step by forEachRow unless the caller asks otherwise
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
     // Singleton instance
     private static dbManager instance;
-    private Connection connection;
+
+    // Single writer connection: every INSERT/UPDATE/DELETE and every transaction goes through it
+    private Connection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Nesting level of inTransaction on the thread holding the write lock, 0 outside a transaction
+    private int transactionDepth;
+    // Actions registered through Tx.afterCommit, run once the top-level transaction commits
+    private final List<Runnable> afterCommitActions = new ArrayList<>();
+    // Bumped whenever a write is committed, readers compare it to tell whether cached results are stale
+    private final AtomicLong dataVersion = new AtomicLong();
+    // Set by the writer statement runners, tells the commit that the transaction changed data
+    private boolean uncommittedWrites;
+
+    // Read-only connections; in WAL mode they read a snapshot and never block the writer
+    private final BlockingQueue<Connection> readers = new ArrayBlockingQueue<>(READER_POOL_SIZE);
+    private final List<Connection> allReaders = new ArrayList<>();
+
+    private final StatementCache statementCache = new StatementCache(STATEMENT_CACHE_SIZE);
+    private final QueryMetrics queryMetrics = new QueryMetrics(this::explainQueryPlan);
 
     // Private constructor to prevent instantiation
     private dbManager() {
+        queryMetrics.register();
         connectDB();
     }
 
@@ -24,14 +68,25 @@ public class dbManager {
         return instance;
     }
 
-    // Connect to SQLite database
-    private boolean connectDB() {
+    // Connect to SQLite database: one writer plus a pool of read-only connections
+    private synchronized boolean connectDB() {
+        closeAll();
         try {
-            // SQLite connection URL (local file)
-            String url = "jdbc:sqlite:shop.db"; // Database file will be created in the project root
-            connection = DriverManager.getConnection(url);
+            writer = DriverManager.getConnection(DB_URL, connectionProperties(false));
+            // WAL is persistent in the database file, but setting it here also converts old rollback-journal files
+            try (Statement statement = writer.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+            }
             System.out.println("Database connected successfully!");
-            createTables();
+            // Brings an old or new database file up to the current schema, a no-op when it is current
+            new SchemaMigrator(this).migrate();
+
+            // Readers are opened after the schema exists, a read-only handle cannot create the file
+            for (int i = 0; i < READER_POOL_SIZE; i++) {
+                Connection reader = DriverManager.getConnection(DB_URL, connectionProperties(true));
+                allReaders.add(reader);
+                readers.add(reader);
+            }
             return true;  // Return true if connection is successful
         } catch (SQLException e) {
             System.err.println("Database connection error: " + e.getMessage());
@@ -40,10 +95,46 @@ public class dbManager {
         }
     }
 
+    private Properties connectionProperties(boolean readOnly) {
+        Properties properties = new Properties();
+        properties.setProperty("journal_mode", "WAL");
+        properties.setProperty("busy_timeout", String.valueOf(BUSY_TIMEOUT_MS));
+        if (readOnly) {
+            // SQLITE_OPEN_READONLY, the flag has to be given at open time
+            properties.setProperty("open_mode", "1");
+        } else {
+            // setAutoCommit(false) issues BEGIN IMMEDIATE instead of a deferred BEGIN
+            properties.setProperty("transaction_mode", "IMMEDIATE");
+        }
+        return properties;
+    }
+
+    private void closeAll() {
+        statementCache.clear();
+        readers.clear();
+        for (Connection reader : allReaders) {
+            closeQuietly(reader);
+        }
+        allReaders.clear();
+        closeQuietly(writer);
+        writer = null;
+    }
+
+    private void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Failed to close connection: " + e.getMessage());
+        }
+    }
+
     // Check if the database is connected
     public boolean isConnected() {
         try {
-            return connection != null && !connection.isClosed();
+            return writer != null && !writer.isClosed();
         } catch (SQLException e) {
             return false;
         }
@@ -54,197 +145,479 @@ public class dbManager {
         return connectDB();  // Simply return the result of connectDB()
     }
 
+    // Prepared statement cache counters, useful to confirm hot queries are compiled only once
+    public long getStatementCacheHits() {
+        return statementCache.getHits();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCache.getMisses();
+    }
+
+    /**
+     * Counter that changes after every committed INSERT/UPDATE/DELETE (sales, stock, expenses...).
+     * A result computed while the version was v is still current as long as it is v.
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+
+    // Per-statement latency and row counts, also published over JMX
+    public QueryMetricsMXBean getQueryMetrics() {
+        return queryMetrics;
+    }
+
     // Show error (replace with your UI logic)
     private void openError() {
         System.err.println("Database error occurred.");
         // Example: Show a dialog or retry logic
     }
 
-    // Execute a SET query (INSERT, UPDATE, DELETE)
+    private Connection borrowReader() throws SQLException {
+        try {
+            return readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+    }
+
+    private void releaseReader(Connection reader) {
+        readers.offer(reader);
+    }
+
+    /**
+     * EXPLAIN QUERY PLAN of a logged slow statement, read on a pooled reader from the
+     * slow-query logging thread. Not timed into queryMetrics, so explaining cannot log itself.
+     */
+    private List<String> explainQueryPlan(String query, Object[] params) {
+        Connection reader;
+        try {
+            reader = readers.poll(EXPLAIN_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of("unavailable: interrupted");
+        }
+        if (reader == null) {
+            return List.of("unavailable: no read connection free");
+        }
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement explain = reader.prepareStatement("EXPLAIN QUERY PLAN " + query)) {
+            for (int i = 0; i < params.length; i++) {
+                explain.setObject(i + 1, params[i]);
+            }
+            try (ResultSet resultSet = explain.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.add(resultSet.getString("detail"));
+                }
+            }
+        } catch (SQLException e) {
+            plan.add("unavailable: " + e.getMessage());
+        } finally {
+            releaseReader(reader);
+        }
+        return plan;
+    }
+
+    // Generic row mapper behind executeGet: column name -> value
+    private static final RowMapper<Map<String, Object>> MAP_ROW = resultSet -> {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 1; i <= columnCount; i++) {
+            row.put(metaData.getColumnName(i), resultSet.getObject(i));
+        }
+        return row;
+    };
+
+    // Execute a GET query (SELECT) on a pooled read-only connection
     // Modified executeGet to accept parameters for prepared statement
     public List<Map<String, Object>> executeGet(String query, Object... params) {
-        List<Map<String, Object>> result = new ArrayList<>();
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            for (int i = 0; i < params.length; i++) {
-                preparedStatement.setObject(i + 1, params[i]);
-            }
-            ResultSet resultSet = preparedStatement.executeQuery();
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            while (resultSet.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = metaData.getColumnName(i);
-                    Object columnValue = resultSet.getObject(i);
-                    row.put(columnName, columnValue);
+        return query(query, MAP_ROW, params);
+    }
+
+    /**
+     * Runs a SELECT and maps every row with the given mapper, without building
+     * an intermediate map per row.
+     *
+     * @return mapped rows, or an empty list if the query failed
+     */
+    public <T> List<T> query(String query, RowMapper<T> mapper, Object... params) {
+        return withReadConnection(connection -> {
+            try {
+                return runQuery(connection, query, mapper, params);
+            } catch (SQLException e) {
+                System.err.println("GET query error: " + e.getMessage());
+                openError();
+                return new ArrayList<T>();
+            }
+        }, new ArrayList<>());
+    }
+
+    /**
+     * Same as {@link #query} for queries expecting a single row.
+     *
+     * @return the first mapped row, or null if there is none or the query failed
+     */
+    public <T> T queryOne(String query, RowMapper<T> mapper, Object... params) {
+        List<T> rows = query(query, mapper, params);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Streams the rows of a SELECT to the action one at a time instead of loading the
+     * whole result into memory. The connection is held until the last row is consumed,
+     * so the action should not block on anything slow.
+     *
+     * @param fetchSize rows SQLite steps through per fetch
+     * @return true if every row was read, false if the query failed
+     */
+    public <T> boolean forEachRow(String query, int fetchSize, RowMapper<T> mapper,
+                                  Consumer<? super T> action, Object... params) {
+        return withReadConnection(connection -> forEachRow(connection, query, fetchSize, mapper, action, params), false);
+    }
+
+    // forEachRow with the default fetch size
+    public <T> boolean forEachRow(String query, RowMapper<T> mapper, Consumer<? super T> action, Object... params) {
+        return forEachRow(query, DEFAULT_FETCH_SIZE, mapper, action, params);
+    }
+
+    // Runs the work on the writer when the calling thread is inside a transaction,
+    // otherwise on a pooled reader that is returned afterwards
+    private <R> R withReadConnection(Function<Connection, R> work, R onError) {
+        // Reads inside an open transaction must see its own uncommitted rows
+        // (and last_insert_rowid()), so they stay on the writer
+        if (writeLock.isHeldByCurrentThread()) {
+            return work.apply(writer);
+        }
+        Connection reader;
+        try {
+            reader = borrowReader();
+        } catch (SQLException e) {
+            System.err.println("GET query error: " + e.getMessage());
+            openError();
+            return onError;
+        }
+        try {
+            return work.apply(reader);
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    // The recorded time includes the action, as the statement stays open while it runs
+    private <T> boolean forEachRow(Connection connection, String query, int fetchSize, RowMapper<T> mapper,
+                                   Consumer<? super T> action, Object... params) {
+        long start = System.nanoTime();
+        long rows = 0;
+        boolean failed = true;
+        try {
+            PreparedStatement preparedStatement = prepare(connection, query, params);
+            preparedStatement.setFetchSize(fetchSize);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(mapper.mapRow(resultSet));
+                    rows++;
                 }
-                result.add(row);
             }
+            failed = false;
+            return true;
         } catch (SQLException e) {
             System.err.println("GET query error: " + e.getMessage());
+            statementCache.evict(connection, query);
             openError();
+            return false;
+        } finally {
+            queryMetrics.record(query, params, rows, System.nanoTime() - start, failed);
         }
-        return result;
     }
 
+    // Execute a SET query (INSERT, UPDATE, DELETE) on the writer connection.
+    // Called inside inTransaction it joins that transaction, otherwise it autocommits.
     // Modified executeSet to accept parameters for prepared statement
     public boolean executeSet(String query, Object... params) {
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            for (int i = 0; i < params.length; i++) {
-                preparedStatement.setObject(i + 1, params[i]);
+        writeLock.lock();
+        try {
+            runUpdate(query, params);
+            if (transactionDepth == 0) {
+                // Autocommitted, inside a transaction the commit bumps the version
+                commitWrites();
             }
-            preparedStatement.execute();
             return true;
         } catch (SQLException e) {
             System.err.println("SET query error: " + e.getMessage());
             openError();
             return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Runs the callback in a transaction on the writer connection and always finishes it:
+     * commits when the callback returns, rolls back when it throws.
+     * The writer is opened with transaction_mode=IMMEDIATE, so the write lock is taken at
+     * BEGIN instead of on the first write, which avoids SQLITE_BUSY upgrades under load.
+     *
+     * Calls nested inside another inTransaction on the same thread run in a SAVEPOINT:
+     * a failing nested callback rolls back only its own work and the failure is rethrown
+     * as a TransactionException, so the outer callback can handle it or let it abort everything.
+     *
+     * @return the callback's result, or null if the top-level transaction was rolled back
+     */
+    public <T> T inTransaction(TransactionCallback<T> callback) {
+        writeLock.lock();
+        try {
+            if (transactionDepth > 0) {
+                return inSavepoint(callback);
+            }
+            Tx tx = new Tx(this);
+            try {
+                writer.setAutoCommit(false);
+                transactionDepth = 1;
+                T result = callback.doInTransaction(tx);
+                writer.commit();
+                commitWrites();
+                runAfterCommitActions();
+                return result;
+            } catch (Exception e) {
+                rollbackQuietly();
+                Throwable cause = e instanceof TransactionException && e.getCause() != null ? e.getCause() : e;
+                System.err.println("Transaction failed: " + cause.getMessage());
+                openError();
+                return null;
+            } finally {
+                transactionDepth = 0;
+                uncommittedWrites = false;
+                afterCommitActions.clear();
+                restoreAutoCommit();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private <T> T inSavepoint(TransactionCallback<T> callback) {
+        String savepoint = "sp_" + transactionDepth;
+        try {
+            executeOnWriter("SAVEPOINT " + savepoint);
+        } catch (SQLException e) {
+            throw new TransactionException("Failed to open savepoint", e);
+        }
+        transactionDepth++;
+        int actionsBefore = afterCommitActions.size();
+        try {
+            T result = callback.doInTransaction(new Tx(this));
+            executeOnWriter("RELEASE SAVEPOINT " + savepoint);
+            return result;
+        } catch (Exception e) {
+            // The rolled back work must not publish anything
+            afterCommitActions.subList(actionsBefore, afterCommitActions.size()).clear();
+            try {
+                executeOnWriter("ROLLBACK TO SAVEPOINT " + savepoint);
+                executeOnWriter("RELEASE SAVEPOINT " + savepoint);
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e instanceof TransactionException ? (TransactionException) e : new TransactionException(e.getMessage(), e);
+        } finally {
+            transactionDepth--;
         }
     }
 
+    // Called by Tx.afterCommit with the write lock held
+    void addAfterCommitAction(Runnable action) {
+        afterCommitActions.add(action);
+    }
+
+    private void runAfterCommitActions() {
+        List<Runnable> actions = new ArrayList<>(afterCommitActions);
+        afterCommitActions.clear();
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                // Already committed, a failing listener must not look like a failed transaction
+                System.err.println("After-commit action failed: " + e.getMessage());
+            }
+        }
+    }
 
-    // Create necessary tables
-    // Create all tables
-    private void createTables() {
-        createCategoriesTable();
-        createSuppliersTable();
-        createProductsTable();
-        createStockEntriesTable();
-        createStockBalancesTable();
-        createSalesTable();
-        createSaleItemsTable();
-        createReturnsTable();
-        createReturnItemsTable();
-        createExpenseCategoriesTable();
-        createExpensesTable();
-    }
-
-    private void createCategoriesTable() {
-        String query = "CREATE TABLE IF NOT EXISTS categories (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "name VARCHAR NOT NULL" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createSuppliersTable() {
-        String query = "CREATE TABLE IF NOT EXISTS suppliers (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "name VARCHAR NOT NULL, " +
-                "contact_info TEXT, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createProductsTable() {
-        String query = "CREATE TABLE IF NOT EXISTS products (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "name VARCHAR NOT NULL, " +
-                "barcode TEXT NOT NULL UNIQUE, " +
-                "unit_type VARCHAR NOT NULL, " +
-                "current_price REAL NOT NULL, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP " +
-                ")";
-        executeSet(query);
-    }
-
-    private void createStockEntriesTable() {
-        String query = "CREATE TABLE IF NOT EXISTS stock_entries (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "product_id INTEGER NOT NULL, " +
-                "quantity REAL NOT NULL, " +
-                "purchase_price REAL NOT NULL, " +
-                "supplier_id INTEGER, " +
-                "arrival_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "note TEXT, " +
-                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE, " +
-                "FOREIGN KEY (supplier_id) REFERENCES suppliers(id)" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createStockBalancesTable() {
-        String query = "CREATE TABLE IF NOT EXISTS stock_balances (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "product_id INTEGER NOT NULL, " +
-                "quantity REAL NOT NULL, " +
-                "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createSalesTable() {
-        String query = "CREATE TABLE IF NOT EXISTS sales (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "total_amount REAL NOT NULL, " +
-                "payment_method VARCHAR NOT NULL, " +
-                "sale_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "comment TEXT" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createSaleItemsTable() {
-        String query = "CREATE TABLE IF NOT EXISTS sales_items (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "sale_id INTEGER NOT NULL, " +
-                "product_id INTEGER NOT NULL, " +
-                "quantity REAL NOT NULL, " +
-                "unit_price REAL NOT NULL, " +
-                "FOREIGN KEY (sale_id) REFERENCES sales(id), " +
-                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createReturnsTable() {
-        String query = "CREATE TABLE IF NOT EXISTS returns (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "sale_id INTEGER NOT NULL, " +
-                "return_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "total_refund REAL NOT NULL, " +
-                "reason TEXT, " +
-                "FOREIGN KEY (sale_id) REFERENCES sales(id)" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createReturnItemsTable() {
-        String query = "CREATE TABLE IF NOT EXISTS return_items (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "return_id INTEGER NOT NULL, " +
-                "product_id INTEGER NOT NULL, " +
-                "quantity REAL NOT NULL, " +
-                "unit_price REAL NOT NULL, " +
-                "FOREIGN KEY (return_id) REFERENCES returns(id), " +
-                "FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createExpenseCategoriesTable() {
-        String query = "CREATE TABLE IF NOT EXISTS expense_categories (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "name VARCHAR NOT NULL UNIQUE, " +
-                "description TEXT, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                ")";
-        executeSet(query);
-    }
-
-    private void createExpensesTable() {
-        String query = "CREATE TABLE IF NOT EXISTS expenses (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "amount REAL NOT NULL, " +
-                "category_id INTEGER NOT NULL, " +
-                "description TEXT, " +
-                "expense_date TIMESTAMP NOT NULL, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "FOREIGN KEY (category_id) REFERENCES expense_categories(id)" +
-                ")";
-        executeSet(query);
-    }
-}
\ No newline at end of file
+    /**
+     * Runs one statement for many parameter rows with addBatch/executeBatch on the writer.
+     * Outside a transaction the whole batch is wrapped in one, so it commits in a single pass.
+     *
+     * Generated keys come from last_insert_rowid(): the writer is the only connection that
+     * inserts and holds the write lock for the whole batch, so SQLite hands out the rowids of
+     * a batch of plain INSERTs sequentially and they end at last_insert_rowid().
+     * They are only reported when every row inserted exactly one row.
+     *
+     * @param query The INSERT/UPDATE/DELETE to run
+     * @param rows One parameter array per execution
+     * @return Update counts and generated keys, or null if the batch failed (and was rolled back
+     *         when the batch opened the transaction itself)
+     */
+    public BatchResult executeBatch(String query, List<Object[]> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return new BatchResult(new int[0], new long[0]);
+        }
+        if (!writeLock.isHeldByCurrentThread()) {
+            return inTransaction(tx -> tx.executeBatch(query, rows));
+        }
+        try {
+            return runBatch(query, rows);
+        } catch (SQLException e) {
+            System.err.println("BATCH query error: " + e.getMessage());
+            openError();
+            return null;
+        }
+    }
+
+    // Statement runners used by executeSet/executeBatch and Tx, they report failures by throwing.
+    // The writer ones must be called with the write lock held.
+    // Every execution is timed into queryMetrics.
+
+    <T> List<T> runQuery(Connection connection, String query, RowMapper<T> mapper, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        List<T> result = new ArrayList<>();
+        boolean failed = true;
+        try {
+            PreparedStatement preparedStatement = prepare(connection, query, params);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(mapper.mapRow(resultSet));
+                }
+            }
+            failed = false;
+        } catch (SQLException e) {
+            statementCache.evict(connection, query);
+            throw e;
+        } finally {
+            queryMetrics.record(query, params, result.size(), System.nanoTime() - start, failed);
+        }
+        return result;
+    }
+
+    <T> List<T> runQuery(String query, RowMapper<T> mapper, Object... params) throws SQLException {
+        return runQuery(writer, query, mapper, params);
+    }
+
+    int runUpdate(String query, Object... params) throws SQLException {
+        uncommittedWrites = true;
+        long start = System.nanoTime();
+        int updateCount = 0;
+        boolean failed = true;
+        try {
+            PreparedStatement preparedStatement = prepare(writer, query, params);
+            if (preparedStatement.execute()) {
+                // e.g. a PRAGMA that reports its value, close it so the statement is reset
+                preparedStatement.getResultSet().close();
+            } else {
+                updateCount = preparedStatement.getUpdateCount();
+            }
+            failed = false;
+            return updateCount;
+        } catch (SQLException e) {
+            statementCache.evict(writer, query);
+            throw e;
+        } finally {
+            queryMetrics.record(query, params, updateCount, System.nanoTime() - start, failed);
+        }
+    }
+
+    private void commitWrites() {
+        if (uncommittedWrites) {
+            uncommittedWrites = false;
+            dataVersion.incrementAndGet();
+        }
+    }
+
+    long lastInsertRowId() throws SQLException {
+        List<Long> rowId = runQuery("SELECT last_insert_rowid()", resultSet -> resultSet.getLong(1));
+        return rowId.isEmpty() ? 0 : rowId.get(0);
+    }
+
+    BatchResult runBatch(String query, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return new BatchResult(new int[0], new long[0]);
+        }
+        uncommittedWrites = true;
+        long start = System.nanoTime();
+        long updated = 0;
+        boolean failed = true;
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(writer, query);
+            preparedStatement.clearBatch();
+            for (Object[] row : rows) {
+                preparedStatement.clearParameters();
+                for (int i = 0; i < row.length; i++) {
+                    preparedStatement.setObject(i + 1, row[i]);
+                }
+                preparedStatement.addBatch();
+            }
+            int[] updateCounts = preparedStatement.executeBatch();
+            for (int count : updateCounts) {
+                updated += Math.max(0, count);
+            }
+            failed = false;
+            return new BatchResult(updateCounts, generatedKeys(query, updateCounts));
+        } catch (SQLException e) {
+            statementCache.evict(writer, query);
+            throw e;
+        } finally {
+            // One entry for the whole batch, the first row stands in for the parameters
+            queryMetrics.record(query, rows.get(0), updated, System.nanoTime() - start, failed);
+        }
+    }
+
+    private long[] generatedKeys(String query, int[] updateCounts) throws SQLException {
+        String normalized = query.trim().toUpperCase();
+        // An upsert reports 1 for an updated row too, its rowids are not a sequence
+        if (!normalized.startsWith("INSERT") || normalized.contains("ON CONFLICT")) {
+            return new long[0];
+        }
+        for (int count : updateCounts) {
+            if (count != 1) {
+                return new long[0]; // Skipped or upserted rows break the sequence
+            }
+        }
+        long lastRowId = lastInsertRowId();
+        long[] keys = new long[updateCounts.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = lastRowId - (keys.length - 1 - i);
+        }
+        return keys;
+    }
+
+    private void executeOnWriter(String sql) throws SQLException {
+        try (Statement statement = writer.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private void rollbackQuietly() {
+        try {
+            writer.rollback();
+        } catch (SQLException e) {
+            System.err.println("Rollback failed: " + e.getMessage());
+        }
+    }
+
+    private void restoreAutoCommit() {
+        try {
+            writer.setAutoCommit(true);
+        } catch (SQLException e) {
+            System.err.println("Failed to restore auto-commit: " + e.getMessage());
+        }
+    }
+
+    // Takes the statement from the cache and binds the parameters, leftovers from the previous use are cleared
+    private PreparedStatement prepare(Connection connection, String query, Object... params) throws SQLException {
+        PreparedStatement preparedStatement = statementCache.prepare(connection, query);
+        preparedStatement.clearParameters();
+        for (int i = 0; i < params.length; i++) {
+            preparedStatement.setObject(i + 1, params[i]);
+        }
+        return preparedStatement;
+    }
+}
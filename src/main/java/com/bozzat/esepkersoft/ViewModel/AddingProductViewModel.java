@@ -3,8 +3,7 @@ package com.bozzat.esepkersoft.ViewModel;
 import com.bozzat.esepkersoft.Models.Product;
 import com.bozzat.esepkersoft.Models.StockEntry;
 import com.bozzat.esepkersoft.Models.Supplier;
-import com.bozzat.esepkersoft.Services.ProductService;
-import com.bozzat.esepkersoft.Services.SupplierService;
+import com.bozzat.esepkersoft.Services.AsyncDataService;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.*;
 import javafx.collections.FXCollections;
@@ -36,12 +35,12 @@ public class AddingProductViewModel {
 
 
     // Services
-    SupplierService supplierService = new SupplierService();
-    ProductService productService = new ProductService();
-    private final ObservableList<Supplier> suppliers = FXCollections.observableList(supplierService.getAllSuppliers());
+    private final AsyncDataService dataService = AsyncDataService.getInstance();
+    private final ObservableList<Supplier> suppliers = FXCollections.observableArrayList();
 
     public AddingProductViewModel() {
         initializeListeners();
+        dataService.getAllSuppliers().thenAccept(suppliers::setAll);
     }
 
     private void initializeListeners() {
@@ -55,8 +54,22 @@ public class AddingProductViewModel {
 
 
     public void searchProduct() {
-        Product product = productService.getProductByBarcode(barcodeField.get());
+        String barcode = barcodeField.get();
         barcodeStatus.set(BarcodeStatus.INITIAL);
+        dataService.getProductByBarcode(barcode).whenComplete((product, error) -> {
+            // A newer barcode was typed while this lookup was running
+            if (barcode == null || !barcode.equals(barcodeField.get())) {
+                return;
+            }
+            if (error != null) {
+                barcodeStatus.set(BarcodeStatus.ERROR);
+                return;
+            }
+            applySearchResult(product);
+        });
+    }
+
+    private void applySearchResult(Product product) {
         if (product != null) {
             barcodeStatus.set(BarcodeStatus.FOUND);
             currentProduct.set(product);
@@ -1,16 +1,24 @@
 package com.bozzat.esepkersoft.ViewModel;
 
+import com.bozzat.esepkersoft.Interfaces.PriceChangeListener;
+import com.bozzat.esepkersoft.Models.PriceChange;
 import com.bozzat.esepkersoft.Models.Product;
 import com.bozzat.esepkersoft.Models.Sale;
 import com.bozzat.esepkersoft.Models.SaleItem;
-import com.bozzat.esepkersoft.Services.ProductService;
+import com.bozzat.esepkersoft.Models.ScanResult;
+import com.bozzat.esepkersoft.Services.AsyncDataService;
+import com.bozzat.esepkersoft.Services.PriceChangeService;
+import javafx.application.Platform;
 import javafx.beans.Observable;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.*;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class POSViewModel {
     // Constants
@@ -27,21 +35,29 @@ public class POSViewModel {
     private final DoubleProperty totalOfTotals = new SimpleDoubleProperty();
     private final ObjectProperty<SaleItemViewModel> currentItem = new SimpleObjectProperty<>();
     private StringProperty paymentMethod = new SimpleStringProperty();
+    // Idempotency key of the sale this cart becomes, kept across retries of its checkout
+    private String cartKey = UUID.randomUUID().toString();
 
     // Collections
     private final ObservableList<SaleItemViewModel> saleItems;
 
     // Services
-    private final ProductService productService;
-
-    public POSViewModel(ProductService productService) {
+    private final AsyncDataService dataService;
+    // Last scan in the chain, lookups run in parallel but are applied in scan order
+    private CompletableFuture<Void> pendingScan = CompletableFuture.completedFuture(null);
+    // Held here, PriceChangeService only keeps a weak reference
+    private final PriceChangeListener priceChangeListener =
+            changes -> Platform.runLater(() -> applyPriceChanges(changes));
+
+    public POSViewModel(AsyncDataService dataService) {
         this.saleItems = FXCollections.observableArrayList(
                 item ->
                         new Observable[] { item.totalProperty() }
         );
-        this.productService = productService;
+        this.dataService = dataService;
         initializeBindings();
         setUpSelectionHandling();
+        PriceChangeService.addListener(priceChangeListener);
         // Bind total = price * quantity
     }
 
@@ -66,33 +82,73 @@ public class POSViewModel {
             }
         });
     }
+    /**
+     * Looks the barcode up off the FX thread and adds the product to the cart when the
+     * result arrives. Fast consecutive scans are applied in the order they were made.
+     */
     public void processBarcodeInput(String barcode) {
-        Product product = productService.getProductByBarcode(barcode);
-        if (product == null) {
+        CompletableFuture<ScanResult> lookup = dataService.resolveScan(barcode)
+                .exceptionally(error -> {
+                    System.err.println("Barcode lookup failed: " + error.getMessage());
+                    return null;
+                });
+        // Every link ends in handle, so a scan that failed to apply does not fail the ones after it
+        pendingScan = pendingScan.thenCombine(lookup, (previous, scan) -> scan)
+                .thenAccept(this::applyScan)
+                .handle((applied, error) -> {
+                    if (error != null) {
+                        System.err.println("Scan could not be applied: " + error.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    // Scale labels carry their own quantity (the weight), so it is not typed by hand
+    private void applyScan(ScanResult scan) {
+        if (scan == null) {
             currentItem.set(null);
             handleBarcodeNotFound();
             return;
         }
+        addProductToCart(scan.getProduct(), scan.getQuantity());
+    }
 
+    // Adds one unit of the product, e.g. picked from the search suggestions
+    public void addProductToCart(Product product) {
+        addProductToCart(product, 1.0);
+    }
+
+    private void addProductToCart(Product product, double quantity) {
         findExistingItem(product.getBarcode()).ifPresentOrElse(
-                this::incrementItemQuantity,
-                () -> addNewItem(product)
+                item -> incrementItemQuantity(item, quantity),
+                () -> addNewItem(product, quantity)
         );
     }
 
+    // A bulk price change committed while the cart is open, items already in it take the new price
+    private void applyPriceChanges(List<PriceChange> changes) {
+        for (PriceChange change : changes) {
+            for (SaleItemViewModel item : saleItems) {
+                if (item.getProductId() == change.getProductId()) {
+                    item.setPrice(change.getNewPrice());
+                }
+            }
+        }
+    }
+
     public Optional<SaleItemViewModel> findExistingItem(String barcode) {
         return saleItems.stream()
                 .filter(item -> item.getBarcode().equals(barcode))
                 .findFirst();
     }
 
-    private void addNewItem(Product product) {
+    private void addNewItem(Product product, double quantity) {
         SaleItemViewModel saleItem = new SaleItemViewModel(
                 product.getId(),
                 product.getBarcode(),
                 product.getName(),
                 product.getCurrentPrice(),
-                1.0,
+                quantity,
                 product.getUnitType());
         saleItems.add(saleItem);
         currentItem.set(saleItem);
@@ -131,9 +187,9 @@ public class POSViewModel {
         name.set(PRODUCT_NOT_FOUND_MESSAGE);
     }
 
-    private void incrementItemQuantity(SaleItemViewModel item) {
+    private void incrementItemQuantity(SaleItemViewModel item, double quantity) {
         currentItem.set(item);
-        item.setQuantity(item.getQuantity() + 1);
+        item.setQuantity(item.getQuantity() + quantity);
     }
 
 
@@ -144,6 +200,14 @@ public class POSViewModel {
         }
     }
 
+    // Called once the cart's sale is saved, the next checkout is a different sale
+    public void startNewCart() {
+        saleItems.clear();
+        cartKey = UUID.randomUUID().toString();
+    }
+
+    public String getCartKey() { return cartKey; }
+
     public double calculateChange(double rcvAmount) {
         return rcvAmount - totalOfTotals.get();
     }
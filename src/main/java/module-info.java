@@ -8,6 +8,7 @@ module com.bozzat.esepkersoft {
     requires eu.hansolo.tilesfx;
     requires java.desktop;
     requires java.sql;
+    requires java.management;
     requires jdk.incubator.vector;
     
     opens com.bozzat.esepkersoft to javafx.fxml;
@@ -19,5 +20,7 @@ module com.bozzat.esepkersoft {
     // ✅ Allow JavaFX to access properties in Models class
     opens com.bozzat.esepkersoft.Models to javafx.base;
     exports com.bozzat.esepkersoft.Interfaces;
+    // JMX reads the query statistics snapshots (QueryStats) through reflection
+    exports com.bozzat.esepkersoft.Services to java.management;
     opens com.bozzat.esepkersoft.Interfaces to javafx.fxml;
 }
@@ -0,0 +1,107 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.SaleItem;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalyticServiceTest {
+    @TempDir
+    static Path directory;
+
+    // SQL only, and served from the columnar engine
+    private static AnalyticService analyticService;
+    private static AnalyticService columnarService;
+
+    @BeforeAll
+    static void recordSales() {
+        dbManager db = TestDatabase.open(directory);
+        assertTrue(db.executeSet("INSERT INTO categories (name) VALUES ('Drinks')"));
+        int tea = TestDatabase.addProduct("A-100", 50, 10);
+        int juice = TestDatabase.addProduct("A-101", 50, 20);
+        int bread = TestDatabase.addProduct("A-102", 50, 5);
+        assertTrue(db.executeSet("UPDATE products SET category_id = (SELECT id FROM categories) WHERE id IN (?, ?)",
+                tea, juice));
+
+        SaleService saleService = new SaleService();
+        List<List<SaleItem>> carts = List.of(
+                List.of(new SaleItem(tea, 1, 10), new SaleItem(juice, 2, 20)),
+                List.of(new SaleItem(tea, 3, 10)),
+                List.of(new SaleItem(bread, 4, 5)));
+        for (List<SaleItem> cart : carts) {
+            assertTrue(saleService.addSale(cart, TestDatabase.sale(cart)));
+        }
+        analyticService = new AnalyticService(null);
+        columnarService = new AnalyticService(ColumnarAnalyticsEngine.getInstance());
+    }
+
+    @Test
+    void categoryTransactionCountsEverySaleOnceOnWholeDays() {
+        LocalDate today = LocalDate.now();
+        // Whole days, answered from the daily rollup
+        Map<String, Map<String, Object>> byCategory = byName(analyticService.getRevenueByCategory(
+                today.atStartOfDay(), today.atTime(23, 59, 59)));
+
+        // The first sale has two drinks, it is one transaction
+        assertEquals(2, byCategory.get("Drinks").get("transactionCount"));
+        assertEquals(6.0, (Double) byCategory.get("Drinks").get("itemsSold"), 1e-9);
+        assertEquals(80.0, (Double) byCategory.get("Drinks").get("revenue"), 1e-9);
+        assertEquals(1, byCategory.get("Uncategorized").get("transactionCount"));
+        assertEquals(20.0, (Double) byCategory.get("Uncategorized").get("revenue"), 1e-9);
+    }
+
+    @Test
+    void rollupAndRawQueriesAgree() {
+        LocalDate today = LocalDate.now();
+        List<Map<String, Object>> fromRollup = analyticService.getRevenueByCategory(
+                today.atStartOfDay(), today.atTime(23, 59, 59));
+        // Not a whole day, so the sales are aggregated directly
+        List<Map<String, Object>> fromSales = analyticService.getRevenueByCategory(
+                today.atStartOfDay(), LocalDateTime.now().plusSeconds(1));
+
+        assertEquals(byName(fromSales), byName(fromRollup));
+    }
+
+    @Test
+    void columnarEngineAnswersLikeTheSql() {
+        LocalDate today = LocalDate.now();
+        List<LocalDateTime[]> ranges = List.of(
+                new LocalDateTime[]{today.atStartOfDay(), today.atTime(23, 59, 59)},
+                new LocalDateTime[]{today.atStartOfDay(), LocalDateTime.now().plusSeconds(1)},
+                new LocalDateTime[]{today.minusDays(7).atStartOfDay(), today.atTime(23, 59, 59)});
+        for (LocalDateTime[] range : ranges) {
+            assertEquals(byKey(analyticService.getTopSellingProducts(range[0], range[1]), "id"),
+                    byKey(columnarService.getTopSellingProducts(range[0], range[1]), "id"));
+            assertEquals(analyticService.getDailyRevenue(range[0], range[1]),
+                    columnarService.getDailyRevenue(range[0], range[1]));
+            assertEquals(byKey(analyticService.getRevenueByPaymentMethod(range[0], range[1]), "paymentMethod"),
+                    byKey(columnarService.getRevenueByPaymentMethod(range[0], range[1]), "paymentMethod"));
+            assertEquals(byName(analyticService.getRevenueByCategory(range[0], range[1])),
+                    byName(columnarService.getRevenueByCategory(range[0], range[1])));
+        }
+        assertTrue(columnarService.getDailyRevenue(today.minusDays(7).atStartOfDay(),
+                today.minusDays(1).atTime(23, 59, 59)).isEmpty());
+    }
+
+    private static Map<String, Map<String, Object>> byName(List<Map<String, Object>> rows) {
+        return byKey(rows, "categoryName");
+    }
+
+    // Rows by one of their fields, for results whose order is not fixed (ties, HashMap keys)
+    private static Map<String, Map<String, Object>> byKey(List<Map<String, Object>> rows, String key) {
+        Map<String, Map<String, Object>> byKey = new HashMap<>();
+        for (Map<String, Object> row : rows) {
+            byKey.put(String.valueOf(row.get(key)), row);
+        }
+        return byKey;
+    }
+}
@@ -0,0 +1,158 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.SaleItem;
+import javafx.application.Platform;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives AsyncDataService from the FX Application Thread (headless Monocle toolkit) while the
+ * database writer is held busy, and checks the FX thread never stalls for longer than a frame.
+ */
+class AsyncDataServiceTest {
+    // One frame at 60 Hz
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+    // How long the writer connection is kept busy, far longer than a frame
+    private static final long WRITER_BUSY_MILLIS = 500;
+
+    @TempDir
+    static Path directory;
+
+    @BeforeAll
+    static void startToolkit() throws Exception {
+        TestDatabase.open(directory);
+        assertTrue(SaleJournal.getInstance().recover());
+        System.setProperty("glass.platform", "Monocle");
+        System.setProperty("monocle.platform", "Headless");
+        System.setProperty("prism.order", "sw");
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    static void stopToolkit() {
+        Platform.exit();
+    }
+
+    @Test
+    void fxThreadIsNotBlockedWhileTheDatabaseIsBusy() throws Exception {
+        int product = TestDatabase.addProduct("F-100", 100, 10);
+        AsyncDataService service = AsyncDataService.getInstance();
+        // Once with the database idle, so class loading and first compiles are not measured
+        submitFromFxThread(service, product, new AtomicLong(), new ArrayList<>())
+                .get(10, TimeUnit.SECONDS);
+        Heartbeat heartbeat = new Heartbeat();
+        CountDownLatch writerHeld = new CountDownLatch(1);
+
+        // A long write transaction: sales, queued writes and fsyncs all wait behind it
+        Thread busyWriter = Thread.ofPlatform().start(() -> dbManager.getInstance().inTransaction(tx -> {
+            tx.update("UPDATE products SET current_price = current_price WHERE id = ?", product);
+            writerHeld.countDown();
+            Thread.sleep(WRITER_BUSY_MILLIS);
+            return true;
+        }));
+        assertTrue(writerHeld.await(5, TimeUnit.SECONDS));
+
+        heartbeat.start();
+        AtomicLong slowestCall = new AtomicLong();
+        List<Boolean> completedOnFxThread = new ArrayList<>();
+        List<CompletableFuture<?>> rounds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            rounds.add(submitFromFxThread(service, product, slowestCall, completedOnFxThread));
+        }
+        CompletableFuture.allOf(rounds.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        busyWriter.join();
+        long longestWait = heartbeat.stop();
+
+        assertTrue(slowestCall.get() < FRAME_NANOS,
+                "slowest call on the FX thread took " + TimeUnit.NANOSECONDS.toMillis(slowestCall.get()) + " ms");
+        assertTrue(longestWait < FRAME_NANOS,
+                "FX thread was unavailable for " + TimeUnit.NANOSECONDS.toMillis(longestWait) + " ms");
+        // Every callback ran on the FX thread
+        assertEquals(5 * 4, completedOnFxThread.size());
+        assertFalse(completedOnFxThread.contains(false));
+        // Checkouts return once journaled, the database catches up behind them
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (TestDatabase.stock(product) != 94 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(94, TestDatabase.stock(product), 1e-9);
+    }
+
+    /**
+     * Posts a sale, a scan, a stock read and a queued write, each as its own FX task like a
+     * button handler, and records how long each call kept the FX thread.
+     *
+     * @return Future completed once all four have completed
+     */
+    private static CompletableFuture<Void> submitFromFxThread(AsyncDataService service, int product,
+                                                              AtomicLong slowestCall, List<Boolean> completedOnFxThread) {
+        List<SaleItem> items = List.of(new SaleItem(product, 1, 10));
+        List<Supplier<CompletableFuture<?>>> calls = List.of(
+                () -> service.addSale(items, TestDatabase.sale(items)),
+                () -> service.resolveScan("F-100"),
+                () -> service.getStockQuantity(product),
+                () -> service.write(() ->
+                        dbManager.getInstance().executeSet("UPDATE products SET name = name WHERE id = ?", product)));
+        List<CompletableFuture<?>> completed = new ArrayList<>();
+        for (Supplier<CompletableFuture<?>> call : calls) {
+            CompletableFuture<Object> done = new CompletableFuture<>();
+            completed.add(done);
+            Platform.runLater(() -> timed(slowestCall, call).whenComplete((value, error) -> {
+                completedOnFxThread.add(Platform.isFxApplicationThread());
+                if (error != null) {
+                    done.completeExceptionally(error);
+                } else {
+                    done.complete(value);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(completed.toArray(new CompletableFuture[0]));
+    }
+
+    private static CompletableFuture<?> timed(AtomicLong slowest, Supplier<CompletableFuture<?>> call) {
+        long start = System.nanoTime();
+        CompletableFuture<?> future = call.get();
+        slowest.accumulateAndGet(System.nanoTime() - start, Math::max);
+        return future;
+    }
+
+    // Posts a probe to the FX thread every 2 ms and records the longest a probe waited to run
+    private static class Heartbeat {
+        private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicLong longestWait = new AtomicLong();
+
+        void start() {
+            ticker.scheduleAtFixedRate(() -> {
+                long posted = System.nanoTime();
+                Platform.runLater(() -> longestWait.accumulateAndGet(System.nanoTime() - posted, Math::max));
+            }, 0, 2, TimeUnit.MILLISECONDS);
+        }
+
+        long stop() throws InterruptedException {
+            ticker.shutdown();
+            assertTrue(ticker.awaitTermination(5, TimeUnit.SECONDS));
+            // Let the last probe run
+            CountDownLatch drained = new CountDownLatch(1);
+            Platform.runLater(drained::countDown);
+            assertTrue(drained.await(5, TimeUnit.SECONDS));
+            return longestWait.get();
+        }
+    }
+}
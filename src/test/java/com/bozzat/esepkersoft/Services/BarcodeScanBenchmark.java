@@ -0,0 +1,67 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan latency on a 100 000 product catalog: ProductService.getProductByBarcode served from
+ * the BarcodeIndex against the indexed SQL lookup it replaced. A scan should stay well
+ * under a millisecond.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=BarcodeScanBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BarcodeScanBenchmark {
+    private ProductService productService;
+    private dbManager db;
+    private String[] barcodes;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        db = TestDatabase.open(Files.createTempDirectory("barcode-scan-benchmark"));
+        List<Integer> products = TestDatabase.seedHistory(100_000, 10, 0, 1);
+        barcodes = products.stream().map(id -> "SEED-" + id).toArray(String[]::new);
+
+        // The catalog was written directly in SQL, load it again and wait until it is in memory
+        BarcodeIndex index = BarcodeIndex.getInstance();
+        index.invalidate();
+        while (!index.isLoaded()) {
+            Thread.sleep(10);
+        }
+        productService = new ProductService();
+    }
+
+    @Benchmark
+    public Product indexed() {
+        return productService.getProductByBarcode(randomBarcode());
+    }
+
+    @Benchmark
+    public Product sql() {
+        return db.queryOne("SELECT * FROM products WHERE barcode = ?", RowMappers.PRODUCT, randomBarcode());
+    }
+
+    private String randomBarcode() {
+        return barcodes[ThreadLocalRandom.current().nextInt(barcodes.length)];
+    }
+}
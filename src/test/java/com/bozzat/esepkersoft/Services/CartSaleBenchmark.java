@@ -0,0 +1,71 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.SaleItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One checkout of a cart with 1, 50 or 500 distinct products through SaleService.addSale:
+ * stock check and deduction, lot consumption, lines and rollups in one transaction. The
+ * cart lines are bound as one JSON parameter, so every cart size runs the same statements.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=CartSaleBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class CartSaleBenchmark {
+    @Param({"1", "50", "500"})
+    public int lines;
+
+    private SaleService saleService;
+    private List<SaleItem> cart;
+    private long statementMissesBefore;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        TestDatabase.open(Files.createTempDirectory("cart-benchmark"));
+        saleService = new SaleService();
+        // Enough stock that no checkout of the run is refused
+        List<Integer> products = new ArrayList<>(TestDatabase.seedHistory(1000, 1e9, 10_000, 30));
+        Collections.shuffle(products, new Random(42));
+        cart = new ArrayList<>(lines);
+        for (int product : products.subList(0, lines)) {
+            cart.add(new SaleItem(product, 1, 10));
+        }
+        statementMissesBefore = dbManager.getInstance().getStatementCacheMisses();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        // The same statements for every cart, so the cache stops missing after the first checkouts
+        System.out.println("Statement cache misses during the run: " +
+                (dbManager.getInstance().getStatementCacheMisses() - statementMissesBefore));
+    }
+
+    @Benchmark
+    public boolean checkout() {
+        return saleService.addSale(cart, TestDatabase.sale(cart));
+    }
+}
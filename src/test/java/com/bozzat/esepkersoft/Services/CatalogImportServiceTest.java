@@ -0,0 +1,188 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.CatalogImportResult;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogImportServiceTest {
+    private static final double EPSILON = 1e-9;
+    private static final String WORKBOOK_RELS = "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+            "<Relationship Id=\"rId1\" Target=\"worksheets/sheet1.xml\"/>" +
+            "<Relationship Id=\"rId2\" Target=\"/xl/worksheets/sheet2.xml\"/>" +
+            "</Relationships>";
+
+    @TempDir
+    static Path directory;
+
+    private static dbManager db;
+
+    @BeforeAll
+    static void openDatabase() {
+        db = TestDatabase.open(directory);
+    }
+
+    @Test
+    void csvQuotesAndLineBreaksAreParsed() throws IOException {
+        try (CsvRowReader reader = new CsvRowReader(new StringReader(
+                "\uFEFFa;b;c\n" +
+                "1;\"say \"\"hi\"\"; twice\";3\n" +
+                "\"first line\nsecond line\";;\n" +
+                "4;5;6\n"))) {
+            assertEquals(List.of("a", "b", "c"), reader.next());
+            assertEquals(1, reader.getRowNumber());
+            assertEquals(List.of("1", "say \"hi\"; twice", "3"), reader.next());
+            assertEquals(List.of("first line\nsecond line", "", ""), reader.next());
+            assertEquals(3, reader.getRowNumber());
+            // The row after a quoted line break keeps its line number in the file
+            assertEquals(List.of("4", "5", "6"), reader.next());
+            assertEquals(5, reader.getRowNumber());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void csvDelimiterIsTakenFromTheHeader() throws IOException {
+        try (CsvRowReader reader = new CsvRowReader(new StringReader("a,b;c\n1;2,5\n"))) {
+            assertEquals(List.of("a", "b;c"), reader.next());
+            assertEquals(List.of("1;2", "5"), reader.next());
+        }
+        try (CsvRowReader reader = new CsvRowReader(new StringReader("a;b;c,d\n1;2,5;3\n"))) {
+            assertEquals(List.of("a", "b", "c,d"), reader.next());
+            assertEquals(List.of("1", "2,5", "3"), reader.next());
+        }
+    }
+
+    @Test
+    void rejectedRowsAreListedInTheErrorReport() throws IOException {
+        Path file = directory.resolve("price-list.csv");
+        Files.writeString(file, "штрихкод;наименование;цена;кол-во;закупочная цена\n" +
+                "E-1;\"Сок \"\"Да\"\"\n1 л\";1 250,50;3;900\n" +
+                ";Без штрихкода;10;;\n" +
+                "E-2;Без цены;;;\n" +
+                "E-3;Остаток без закупки;10;5;\n" +
+                "E-1;Повтор;10;;\n", StandardCharsets.UTF_8);
+
+        CatalogImportResult result = new CatalogImportService().importCatalog(file.toFile(), null);
+        assertNotNull(result);
+        assertEquals(5, result.getRowsRead());
+        assertEquals(1, result.getRowsImported());
+        assertEquals(4, result.getRowsRejected());
+        assertEquals("Сок \"Да\"\n1 л", db.queryOne("SELECT name FROM products WHERE barcode = ?",
+                resultSet -> resultSet.getString("name"), "E-1"));
+        assertEquals(1250.5, db.queryOne("SELECT current_price FROM products WHERE barcode = ?",
+                resultSet -> resultSet.getDouble("current_price"), "E-1"), EPSILON);
+
+        // Line numbers of the file, the quoted line break makes the first product two lines long
+        assertEquals(List.of(
+                "Строка,Штрихкод,Ошибка",
+                "4,,Пустой штрихкод",
+                "5,E-2,Не указано поле: цена",
+                "6,E-3,Не указано поле: закупочная цена",
+                "7,E-1,\"Штрихкод повторяется, первая строка 2\""
+        ), Files.readAllLines(result.getErrorReport().toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void reimportDoesNotAddOpeningStockAgain() throws IOException {
+        Path file = directory.resolve("opening-stock.csv");
+        Files.writeString(file, "barcode,name,price,quantity,purchase_price\n" +
+                "R-1,Рис,120,8,90\n", StandardCharsets.UTF_8);
+        assertEquals(1, new CatalogImportService().importCatalog(file.toFile(), null).getRowsImported());
+
+        // The same file with a new price, and a second product
+        Files.writeString(file, "barcode,name,price,quantity,purchase_price\n" +
+                "R-1,Рис,130,8,90\n" +
+                "R-2,Гречка,95,4,70\n", StandardCharsets.UTF_8);
+        CatalogImportResult result = new CatalogImportService().importCatalog(file.toFile(), null);
+        assertEquals(2, result.getRowsImported());
+        assertNull(result.getErrorReport());
+
+        int rice = productId("R-1");
+        assertEquals(130, db.queryOne("SELECT current_price FROM products WHERE id = ?",
+                resultSet -> resultSet.getDouble("current_price"), rice), EPSILON);
+        assertEquals(8, TestDatabase.stock(rice), EPSILON);
+        assertEquals(8, TestDatabase.lotsRemaining(rice), EPSILON);
+        assertEquals(4, TestDatabase.stock(productId("R-2")), EPSILON);
+    }
+
+    @Test
+    void xlsxIsReadFromTheFirstSheetOfTheWorkbook() throws IOException {
+        // The second sheet was moved to the front, its part is still sheet2.xml
+        Map<String, String> parts = new LinkedHashMap<>();
+        parts.put("xl/workbook.xml", workbook("rId2", "rId1"));
+        parts.put("xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+        parts.put("xl/sharedStrings.xml", "<sst><si><t>barcode</t></si><si><t>name</t></si><si><t>price</t></si>" +
+                "<si><r><t>Чай </t></r><r><t>зелёный</t></r></si></sst>");
+        parts.put("xl/worksheets/sheet1.xml", sheet("<row r=\"1\"><c r=\"A1\" t=\"inlineStr\"><is><t>Лист 2</t></is></c></row>"));
+        parts.put("xl/worksheets/sheet2.xml", sheet(
+                "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c><c r=\"C1\" t=\"s\"><v>2</v></c></row>" +
+                "<row r=\"2\"><c r=\"A2\"><v>4600000000017</v></c><c r=\"B2\" t=\"s\"><v>3</v></c><c r=\"C2\"><v>350</v></c></row>"));
+        Path file = xlsx("first-sheet.xlsx", parts);
+
+        CatalogImportResult result = new CatalogImportService().importCatalog(file.toFile(), null);
+        assertNotNull(result);
+        assertEquals(1, result.getRowsImported());
+        assertEquals("Чай зелёный", db.queryOne("SELECT name FROM products WHERE barcode = ?",
+                resultSet -> resultSet.getString("name"), "4600000000017"));
+    }
+
+    @Test
+    void malformedXlsxIndexFailsTheImport() throws IOException {
+        Map<String, String> parts = new LinkedHashMap<>();
+        parts.put("xl/workbook.xml", workbook("rId1"));
+        parts.put("xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+        parts.put("xl/sharedStrings.xml", "<sst><si><t>barcode</t></si><si><t>name</t></si><si><t>price</t></si></sst>");
+        parts.put("xl/worksheets/sheet1.xml", sheet(
+                "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c><c r=\"C1\" t=\"s\"><v>2</v></c></row>" +
+                "<row r=\"2\"><c r=\"A2\"><v>X-1</v></c><c r=\"B2\" t=\"s\"><v>1.5</v></c><c r=\"C2\"><v>10</v></c></row>"));
+        Path file = xlsx("bad-index.xlsx", parts);
+
+        assertNull(new CatalogImportService().importCatalog(file.toFile(), null));
+        assertNull(db.queryOne("SELECT id FROM products WHERE barcode = ?", resultSet -> resultSet.getInt("id"), "X-1"));
+    }
+
+    private static int productId(String barcode) {
+        return db.queryOne("SELECT id FROM products WHERE barcode = ?", resultSet -> resultSet.getInt("id"), barcode);
+    }
+
+    private static String workbook(String... relationshipIds) {
+        StringBuilder sheets = new StringBuilder();
+        for (int i = 0; i < relationshipIds.length; i++) {
+            sheets.append("<sheet name=\"Лист").append(i + 1).append("\" sheetId=\"").append(i + 1)
+                    .append("\" r:id=\"").append(relationshipIds[i]).append("\"/>");
+        }
+        return "<workbook xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">" +
+                "<sheets>" + sheets + "</sheets></workbook>";
+    }
+
+    private static String sheet(String rows) {
+        return "<worksheet><sheetData>" + rows + "</sheetData></worksheet>";
+    }
+
+    private static Path xlsx(String name, Map<String, String> parts) throws IOException {
+        Path file = directory.resolve(name);
+        try (OutputStream out = Files.newOutputStream(file); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, String> part : parts.entrySet()) {
+                zip.putNextEntry(new ZipEntry(part.getKey()));
+                zip.write(part.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+}
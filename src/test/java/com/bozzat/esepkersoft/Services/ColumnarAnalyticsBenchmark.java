@@ -0,0 +1,165 @@
+package com.bozzat.esepkersoft.Services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Range reports of AnalyticService answered by SQL and by ColumnarAnalyticsEngine, over a
+ * 90-day history of 100k, 1M and 10M sale lines. "Partial" ranges end now and go to the raw
+ * tables in SQL, "whole" ranges end at midnight and go to the daily rollups. columnarLoad
+ * times a full load of the columns; the setup prints the heap the loaded columns take.
+ *
+ * A 10M-line history takes minutes to write, so each size is seeded once a day into the
+ * temporary directory and reused by the following forks, which only read it.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=ColumnarAnalyticsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ColumnarAnalyticsBenchmark {
+    private static final int DAYS = 90;
+
+    // Sale lines in the history, a seeded sale has 3 lines on average
+    @Param({"100000", "1000000", "10000000"})
+    public int lines;
+
+    private ColumnarAnalyticsEngine engine;
+    private AnalyticService sql;
+    private AnalyticService columnar;
+    private LocalDateTime start;
+    private LocalDateTime partialEnd;
+    private LocalDateTime wholeEnd;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        Path directory = Path.of(System.getProperty("java.io.tmpdir"), "analytics-benchmark-" + lines);
+        // The history is dated back from today, a database seeded on another day is written again
+        Path seeded = directory.resolve("seeded-" + LocalDate.now());
+        if (!Files.exists(seeded)) {
+            deleteDirectory(directory);
+            Files.createDirectories(directory);
+        }
+        TestDatabase.open(directory);
+        if (!Files.exists(seeded)) {
+            TestDatabase.seedHistory(1000, 1_000_000, lines / 3, DAYS);
+            Files.createFile(seeded);
+        }
+        engine = ColumnarAnalyticsEngine.getInstance();
+        sql = new AnalyticService(null);
+        columnar = new AnalyticService(engine);
+        start = LocalDate.now().minusDays(DAYS).atStartOfDay();
+        partialEnd = LocalDateTime.now();
+        wholeEnd = LocalDate.now().minusDays(1).atTime(23, 59, 59);
+
+        // The first query loads the columns, measure the queries that follow
+        long heapBefore = usedHeap();
+        long loadStart = System.nanoTime();
+        columnar.getDailyRevenue(start, partialEnd);
+        long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart);
+        long columnBytes = usedHeap() - heapBefore;
+        System.out.printf("Columns of %d sales, %d lines: first load %d ms, %.1f MB of heap%n",
+                TestDatabase.count("sales"), TestDatabase.count("sales_items"), loadMillis, columnBytes / 1e6);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public List<Map<String, Object>> columnarLoad() {
+        engine.invalidate();
+        return columnar.getDailyRevenue(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> categoryPartialSql() {
+        return sql.getRevenueByCategory(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> categoryWholeDaysSql() {
+        return sql.getRevenueByCategory(start, wholeEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> categoryColumnar() {
+        return columnar.getRevenueByCategory(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> topSellersPartialSql() {
+        return sql.getTopSellingProducts(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> topSellersColumnar() {
+        return columnar.getTopSellingProducts(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> dailyPartialSql() {
+        return sql.getDailyRevenue(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> dailyWholeDaysSql() {
+        return sql.getDailyRevenue(start, wholeEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> dailyColumnar() {
+        return columnar.getDailyRevenue(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> paymentMethodPartialSql() {
+        return sql.getRevenueByPaymentMethod(start, partialEnd);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> paymentMethodColumnar() {
+        return columnar.getRevenueByPaymentMethod(start, partialEnd);
+    }
+
+    // Heap in use after a full collection
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
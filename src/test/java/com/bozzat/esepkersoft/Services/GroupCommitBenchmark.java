@@ -0,0 +1,105 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.SaleItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sales per second with 1, 4 and 16 concurrent submitters, through the group-commit
+ * SaleWriteQueue and through SaleService.addSale (one transaction, one fsync per sale).
+ * Every submitter waits for its sale to be committed before submitting the next one.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=GroupCommitBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class GroupCommitBenchmark {
+    private SaleService saleService;
+    private SaleWriteQueue queue;
+    private List<Integer> products;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        TestDatabase.open(Files.createTempDirectory("group-commit-benchmark"));
+        saleService = new SaleService();
+        // Enough stock that no sale of the run is refused
+        products = TestDatabase.seedHistory(1000, 1e9, 10_000, 30);
+        queue = SaleWriteQueue.getInstance();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Integer queue1() {
+        return submitToQueue();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer queue4() {
+        return submitToQueue();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Integer queue16() {
+        return submitToQueue();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean direct1() {
+        return addSale();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean direct4() {
+        return addSale();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean direct16() {
+        return addSale();
+    }
+
+    private Integer submitToQueue() {
+        List<SaleItem> cart = cart();
+        return queue.submit(cart, TestDatabase.sale(cart)).join();
+    }
+
+    private boolean addSale() {
+        List<SaleItem> cart = cart();
+        return saleService.addSale(cart, TestDatabase.sale(cart));
+    }
+
+    // Three lines of random products, as a typical till checkout
+    private List<SaleItem> cart() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<SaleItem> cart = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            cart.add(new SaleItem(products.get(random.nextInt(products.size())), 1, 10));
+        }
+        return cart;
+    }
+}
@@ -0,0 +1,55 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Type-ahead search on a 200 000 product catalog, with the limit the sale point uses.
+ * The queries go from a short prefix matching thousands of names to three words matching
+ * a few, and a part of a barcode; every one should answer within the 10 ms a keystroke
+ * can afford.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=ProductSearchBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ProductSearchBenchmark {
+    // SalePointController.SEARCH_SUGGESTION_LIMIT
+    private static final int LIMIT = 15;
+
+    @Param({"мо", "молоко", "мол прост", "сыр савушкин нежный", "1234"})
+    public String query;
+
+    private ProductService productService;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        TestDatabase.open(Files.createTempDirectory("product-search-benchmark"));
+        TestDatabase.seedHistory(200_000, 10, 0, 1);
+        productService = new ProductService();
+    }
+
+    @Benchmark
+    public List<Product> search() {
+        return productService.searchProducts(query, LIMIT);
+    }
+}
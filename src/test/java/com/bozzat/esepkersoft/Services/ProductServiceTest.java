@@ -0,0 +1,59 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.Product;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductServiceTest {
+    @TempDir
+    static Path directory;
+
+    private static dbManager db;
+
+    @BeforeAll
+    static void openDatabase() {
+        db = TestDatabase.open(directory);
+    }
+
+    @Test
+    void searchRanksEveryMatch() {
+        // The best match is inserted last, after hundreds of weaker ones
+        addProducts("Кефир фермерский домашний густой", "K-", 500);
+        addProducts("Кефир", "K-best-", 1);
+
+        List<Product> found = new ProductService().searchProducts("кеф", 5);
+        assertEquals(5, found.size());
+        assertEquals("Кефир 0", found.get(0).getName());
+    }
+
+    @Test
+    void searchWithTooManyMatchesReturnsNothing() {
+        addProducts("Чай чёрный", "T-", 5000);
+        addProducts("Чай зелёный", "G-", 10);
+        ProductService productService = new ProductService();
+
+        assertTrue(productService.searchProducts("чай", 15).isEmpty());
+        // Typing on narrows it to the products that can be ranked
+        List<Product> found = productService.searchProducts("чай зел", 15);
+        assertEquals(10, found.size());
+        for (Product product : found) {
+            assertTrue(product.getName().startsWith("Чай зелёный"), product.getName());
+        }
+    }
+
+    // Written in one batch, the FTS triggers index them like any other product
+    private static void addProducts(String name, String barcodePrefix, int count) {
+        List<Object[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[]{name + " " + i, barcodePrefix + i, "шт", 10.0});
+        }
+        assertNotNull(db.executeBatch("INSERT INTO products (name, barcode, unit_type, current_price) VALUES (?, ?, ?, ?)", rows));
+    }
+}
@@ -0,0 +1,84 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.SaleItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkout latency alone and while AnalyticService.getBusinessMetrics runs in a loop on
+ * another thread over a 90-day history. The reports read on the read-only connections, so
+ * the checkout percentiles should be the same in both groups. Every checkout changes the
+ * data, so the metrics are recomputed on every call instead of coming from their cache.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=ReaderPoolBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ReaderPoolBenchmark {
+    private SaleService saleService;
+    private AnalyticService analyticService;
+    private List<Integer> products;
+    private LocalDateTime start;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        TestDatabase.open(Files.createTempDirectory("reader-pool-benchmark"));
+        saleService = new SaleService();
+        analyticService = new AnalyticService();
+        products = TestDatabase.seedHistory(1000, 1e9, 50_000, 90);
+        start = LocalDate.now().minusDays(90).atStartOfDay();
+    }
+
+    @Benchmark
+    @Group("alone")
+    public boolean checkoutAlone() {
+        return checkout();
+    }
+
+    @Benchmark
+    @Group("underAnalytics")
+    @GroupThreads(1)
+    public boolean checkoutUnderAnalytics() {
+        return checkout();
+    }
+
+    @Benchmark
+    @Group("underAnalytics")
+    @GroupThreads(1)
+    public Map<String, Object> businessMetrics() {
+        return analyticService.getBusinessMetrics(start, LocalDateTime.now());
+    }
+
+    private boolean checkout() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<SaleItem> cart = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            cart.add(new SaleItem(products.get(random.nextInt(products.size())), 1, 10));
+        }
+        return saleService.addSale(cart, TestDatabase.sale(cart));
+    }
+}
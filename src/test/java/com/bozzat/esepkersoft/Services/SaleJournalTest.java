@@ -0,0 +1,194 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Interfaces.SaleRejectionListener;
+import com.bozzat.esepkersoft.Models.Sale;
+import com.bozzat.esepkersoft.Models.SaleItem;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Shuts the journal down in the last test, the order matters
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class SaleJournalTest {
+    @TempDir
+    static Path directory;
+
+    private static dbManager db;
+    private static SaleJournal journal;
+
+    @BeforeAll
+    static void openJournal() {
+        db = TestDatabase.open(directory);
+        journal = SaleJournal.getInstance();
+        assertTrue(journal.recover());
+    }
+
+    @Test
+    @Order(1)
+    void checkoutIsRejectedBeforeJournalingWhenStockIsShort() throws Exception {
+        int productId = TestDatabase.addProduct("J-100", 2, 10);
+        List<SaleItem> items = List.of(new SaleItem(productId, 5, 10));
+
+        CompletableFuture<Void> saved = journal.append(items, TestDatabase.sale(items));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> saved.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SaleRejectedException.class, error.getCause());
+        assertTrue(error.getCause().getMessage().contains("Insufficient stock"));
+        assertEquals(0, Files.size(directory.resolve("sales.journal")));
+        assertEquals(2, TestDatabase.stock(productId));
+    }
+
+    @Test
+    @Order(2)
+    void journaledSaleRefusedByTheDatabaseFailsAndCanBeResubmitted() throws Exception {
+        int productId = TestDatabase.addProduct("J-200", 1, 10);
+        List<SaleItem> items = List.of(new SaleItem(productId, 3, 10));
+        Sale sale = TestDatabase.sale(items);
+        SaleWriteQueue queue = SaleWriteQueue.getInstance();
+
+        // Past the journal's check, as when another till sold the stock meanwhile
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> queue.submit(items, sale, "record-200", false).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SaleRejectedException.class, error.getCause());
+        assertEquals(SaleJournal.STATUS_REJECTED, status("record-200"));
+
+        // A replay at startup does not apply a rejected record
+        assertNull(queue.submit(items, sale, "record-200", true).get(5, TimeUnit.SECONDS));
+        assertEquals(1, TestDatabase.stock(productId));
+
+        // The till resubmits the same checkout once the stock is there
+        TestDatabase.addStock("J-200", 5);
+        Integer saleId = queue.submit(items, sale, "record-200", false).get(5, TimeUnit.SECONDS);
+
+        assertNotNull(saleId);
+        assertEquals(SaleJournal.STATUS_APPLIED, status("record-200"));
+        assertEquals(3, TestDatabase.stock(productId));
+        assertEquals(TestDatabase.stock(productId), TestDatabase.lotsRemaining(productId), 1e-9);
+    }
+
+    @Test
+    @Order(3)
+    void saleIsDrainedOnceTheDatabaseRecoversAndTheJournalIsTruncated() throws Exception {
+        int productId = TestDatabase.addProduct("J-300", 10, 10);
+        List<SaleItem> items = List.of(new SaleItem(productId, 4, 10));
+        // Checked out just before midnight, reaches the database after it
+        LocalDateTime checkout = LocalDate.now().minusDays(1).atTime(23, 59, 30);
+        Sale sale = TestDatabase.sale(items);
+        sale.setSaleTime(checkout);
+        Path journalFile = directory.resolve("sales.journal");
+
+        // Every group transaction fails while sale_journal is missing
+        setJournalTableHidden(true);
+        try {
+            // Confirmed once it is in the journal, the database is not waited for
+            journal.append(items, sale).get(5, TimeUnit.SECONDS);
+            assertTrue(Files.size(journalFile) > 0);
+            assertEquals(10, TestDatabase.stock(productId));
+        } finally {
+            setJournalTableHidden(false);
+        }
+
+        // The retries keep going and get it into the database
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (TestDatabase.stock(productId) != 6 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(6, TestDatabase.stock(productId));
+        assertEquals(4, TestDatabase.soldQuantity(productId));
+        assertEquals(TestDatabase.stock(productId), TestDatabase.lotsRemaining(productId), 1e-9);
+        // Dated by the checkout, not by the retry that applied it
+        assertEquals(Timestamps.format(checkout), db.queryOne("SELECT sale_time FROM sales WHERE idempotency_key = ?",
+                resultSet -> resultSet.getString("sale_time"), sale.getIdempotencyKey()));
+
+        // Counted as drained, so the idle journal truncates its file
+        while (Files.size(journalFile) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, Files.size(journalFile));
+    }
+
+    @Test
+    @Order(4)
+    void confirmedSaleRefusedByTheDatabaseIsReportedToTheListeners() throws Exception {
+        int productId = TestDatabase.addProduct("J-400", 3, 10);
+        List<SaleItem> items = List.of(new SaleItem(productId, 3, 10));
+        Sale sale = TestDatabase.sale(items);
+        CompletableFuture<String> reported = new CompletableFuture<>();
+        SaleRejectionListener listener = (rejected, reason) -> {
+            if (rejected == sale) {
+                reported.complete(reason);
+            }
+        };
+        journal.addRejectionListener(listener);
+
+        // Journaled and confirmed while the database cannot record it, then another till sells the stock
+        setJournalTableHidden(true);
+        try {
+            journal.append(items, sale).get(5, TimeUnit.SECONDS);
+            assertTrue(new SaleService().addSale(List.of(new SaleItem(productId, 2, 10)),
+                    TestDatabase.sale(List.of(new SaleItem(productId, 2, 10)))));
+        } finally {
+            setJournalTableHidden(false);
+        }
+
+        assertTrue(reported.get(20, TimeUnit.SECONDS).contains("Insufficient stock"));
+        assertEquals(SaleJournal.STATUS_REJECTED, status(sale.getIdempotencyKey()));
+        assertEquals(1, TestDatabase.stock(productId));
+        journal.removeRejectionListener(listener);
+    }
+
+    @Test
+    @Order(5)
+    void shutdownWritesQueuedSalesWithoutClosingTheFileUnderThem() throws Exception {
+        int productId = TestDatabase.addProduct("J-500", 10, 10);
+        List<SaleItem> items = List.of(new SaleItem(productId, 1, 10));
+
+        CompletableFuture<Void> durable = journal.append(items, TestDatabase.sale(items));
+        journal.shutdown(5, TimeUnit.SECONDS);
+
+        // Written, a write interrupted by shutdown would fail with ClosedByInterruptException
+        durable.get(5, TimeUnit.SECONDS);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (TestDatabase.stock(productId) != 9 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(9, TestDatabase.stock(productId));
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> journal.append(items, TestDatabase.sale(items)).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+    }
+
+    private static String status(String recordId) {
+        return db.queryOne("SELECT status FROM sale_journal WHERE record_id = ?",
+                resultSet -> resultSet.getString("status"), recordId);
+    }
+
+    // Renames sale_journal away and back through a connection of its own
+    private static void setJournalTableHidden(boolean hidden) throws Exception {
+        String url = "jdbc:sqlite:" + directory.resolve("shop.db");
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = 5000");
+            statement.execute(hidden
+                    ? "ALTER TABLE sale_journal RENAME TO sale_journal_hidden"
+                    : "ALTER TABLE sale_journal_hidden RENAME TO sale_journal");
+        }
+    }
+}
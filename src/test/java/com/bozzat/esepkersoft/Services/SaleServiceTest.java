@@ -0,0 +1,65 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.SaleItem;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaleServiceTest {
+    private static final double EPSILON = 1e-9;
+
+    @TempDir
+    static Path directory;
+
+    private static dbManager db;
+
+    @BeforeAll
+    static void openDatabase() {
+        db = TestDatabase.open(directory);
+    }
+
+    @Test
+    void unitsBeyondTheOpenLotsAreCostedAtTheLastLotsPrice() {
+        // One lot of 2 at a purchase price of 5, then the balance is corrected by hand to 10
+        int product = TestDatabase.addProduct("S-100", 2, 10);
+        assertTrue(db.executeSet("UPDATE stock_balances SET quantity = 10 WHERE product_id = ?", product));
+        SaleService saleService = new SaleService();
+
+        // The first line empties the lot, the second finds none open
+        SaleItem first = new SaleItem(product, 2, 10);
+        SaleItem second = new SaleItem(product, 3, 10);
+        List<SaleItem> cart = List.of(first, second);
+        assertTrue(saleService.addSale(cart, TestDatabase.sale(cart)));
+        assertEquals(2 * 5, first.getCostTotal(), EPSILON);
+        assertEquals(3 * 5, second.getCostTotal(), EPSILON);
+
+        // A later sale with no open lot at all reads the price of the newest entry
+        SaleItem later = new SaleItem(product, 1, 10);
+        assertTrue(saleService.addSale(List.of(later), TestDatabase.sale(List.of(later))));
+        assertEquals(5, later.getCostTotal(), EPSILON);
+        assertEquals(4, TestDatabase.stock(product), EPSILON);
+    }
+
+    @Test
+    void linesWithoutAPositiveQuantityAndPriceAreRefused() {
+        int product = TestDatabase.addProduct("S-200", 10, 10);
+        SaleService saleService = new SaleService();
+        double[][] invalidLines = {
+                {0, 10}, {-1, 10}, {Double.NaN, 10}, {Double.POSITIVE_INFINITY, 10},
+                {1, 0}, {1, -10}, {1, Double.NaN}
+        };
+        for (double[] line : invalidLines) {
+            List<SaleItem> cart = List.of(new SaleItem(product, 1, 10), new SaleItem(product, line[0], line[1]));
+            assertNotNull(saleService.validateSale(cart, TestDatabase.sale(cart)),
+                    "quantity " + line[0] + ", price " + line[1]);
+            assertFalse(saleService.addSale(cart, TestDatabase.sale(cart)));
+        }
+        assertEquals(10, TestDatabase.stock(product), EPSILON);
+        assertEquals(0, TestDatabase.soldQuantity(product), EPSILON);
+    }
+}
@@ -0,0 +1,160 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.Sale;
+import com.bozzat.esepkersoft.Models.SaleItem;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaleWriteQueueTest {
+    private static final int SUBMITTERS = 16;
+    private static final int SALES_PER_SUBMITTER = 25;
+    private static final double EPSILON = 1e-9;
+
+    @TempDir
+    static Path directory;
+
+    private static dbManager db;
+
+    @BeforeAll
+    static void openDatabase() {
+        db = TestDatabase.open(directory);
+    }
+
+    @Test
+    void parallelSubmissionsKeepStockLotsAndSalesConsistent() throws Exception {
+        // Two lots per product, so sales also cross from one lot into the next
+        List<Integer> products = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String barcode = "Q-" + i;
+            products.add(TestDatabase.addProduct(barcode, 40, 10));
+            TestDatabase.addStock(barcode, 60);
+        }
+        SaleWriteQueue queue = SaleWriteQueue.getInstance();
+
+        // More is asked for than there is, part of the sales must be refused
+        ExecutorService submitters = Executors.newFixedThreadPool(SUBMITTERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Submission>>> results = new ArrayList<>();
+        for (int s = 0; s < SUBMITTERS; s++) {
+            long seed = s;
+            results.add(submitters.submit(() -> {
+                Random random = new Random(seed);
+                List<Submission> submitted = new ArrayList<>();
+                start.await();
+                for (int i = 0; i < SALES_PER_SUBMITTER; i++) {
+                    List<SaleItem> items = new ArrayList<>();
+                    for (int product : pickProducts(random, products)) {
+                        items.add(new SaleItem(product, 1 + random.nextInt(3), 10));
+                    }
+                    Sale sale = TestDatabase.sale(items);
+                    sale.setIdempotencyKey("submitter-" + seed + "-" + i);
+                    submitted.add(new Submission(items, queue.submit(items, sale)));
+                }
+                return submitted;
+            }));
+        }
+        start.countDown();
+
+        int saved = 0;
+        int refused = 0;
+        Map<Integer, Double> soldByProduct = new HashMap<>();
+        for (Future<List<Submission>> result : results) {
+            for (Submission submission : result.get(30, TimeUnit.SECONDS)) {
+                try {
+                    assertNotNull(submission.saleId.get(30, TimeUnit.SECONDS));
+                    saved++;
+                    for (SaleItem item : submission.items) {
+                        soldByProduct.merge(item.getProductId(), item.getQuantity(), Double::sum);
+                    }
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause().getMessage().contains("Insufficient stock"), e.getCause().getMessage());
+                    refused++;
+                }
+            }
+        }
+        submitters.shutdown();
+
+        assertTrue(saved > 0);
+        assertTrue(refused > 0, "the stock should run out");
+        assertEquals(saved, TestDatabase.count("sales"));
+        for (int product : products) {
+            double sold = soldByProduct.getOrDefault(product, 0.0);
+            assertEquals(sold, TestDatabase.soldQuantity(product), EPSILON);
+            assertEquals(100 - sold, TestDatabase.stock(product), EPSILON);
+            assertTrue(TestDatabase.stock(product) >= 0);
+            assertEquals(TestDatabase.stock(product), TestDatabase.lotsRemaining(product), EPSILON);
+            // Every sold unit was costed from exactly one lot
+            assertEquals(consumedCost(product), costTotal(product), EPSILON);
+        }
+        assertEquals(0, unbalancedSales());
+        assertEquals(0, new RollupService().verify());
+    }
+
+    @Test
+    void resubmittedCheckoutIsSavedOnce() throws Exception {
+        int product = TestDatabase.addProduct("Q-100", 10, 10);
+        SaleWriteQueue queue = SaleWriteQueue.getInstance();
+        int salesBefore = TestDatabase.count("sales");
+
+        List<CompletableFuture<Integer>> submissions = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            List<SaleItem> items = List.of(new SaleItem(product, 1, 10));
+            Sale sale = TestDatabase.sale(items);
+            sale.setIdempotencyKey("same-checkout");
+            submissions.add(queue.submit(items, sale));
+        }
+
+        Integer saleId = submissions.get(0).get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Integer> submission : submissions) {
+            assertEquals(saleId, submission.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(salesBefore + 1, TestDatabase.count("sales"));
+        assertEquals(9, TestDatabase.stock(product), EPSILON);
+    }
+
+    private static List<Integer> pickProducts(Random random, List<Integer> products) {
+        List<Integer> shuffled = new ArrayList<>(products);
+        Collections.shuffle(shuffled, random);
+        return shuffled.subList(0, 1 + random.nextInt(3));
+    }
+
+    // Cost of the units taken out of the product's lots
+    private static double consumedCost(int product) {
+        return db.queryOne("SELECT COALESCE(SUM((quantity - remaining_quantity) * purchase_price), 0) AS cost " +
+                "FROM stock_entries WHERE product_id = ?", resultSet -> resultSet.getDouble("cost"), product);
+    }
+
+    private static double costTotal(int product) {
+        return db.queryOne("SELECT COALESCE(SUM(cost_total), 0) AS cost FROM sales_items WHERE product_id = ?",
+                resultSet -> resultSet.getDouble("cost"), product);
+    }
+
+    // Sales whose total is not the sum of their lines, or that have no lines
+    private static int unbalancedSales() {
+        return db.queryOne("SELECT COUNT(*) AS n FROM sales s " +
+                        "LEFT JOIN (SELECT sale_id, SUM(quantity * unit_price) AS total FROM sales_items GROUP BY sale_id) si " +
+                        "ON si.sale_id = s.id WHERE si.total IS NULL OR ABS(si.total - s.total_amount) > 1e-6",
+                resultSet -> resultSet.getInt("n"));
+    }
+
+    private record Submission(List<SaleItem> items, CompletableFuture<Integer> saleId) {
+    }
+}
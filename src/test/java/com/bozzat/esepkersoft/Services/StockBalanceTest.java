@@ -0,0 +1,134 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.CatalogImportResult;
+import com.bozzat.esepkersoft.Models.Product;
+import com.bozzat.esepkersoft.Models.SaleItem;
+import com.bozzat.esepkersoft.Models.StockEntry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Deliveries, a catalog import and sales racing on a product that does not exist yet: the
+ * first writer creates its stock_balances row through the upsert, every later one adds to it.
+ */
+class StockBalanceTest {
+    private static final String BARCODE = "B-100";
+    private static final int DELIVERERS = 4;
+    private static final int DELIVERIES_PER_THREAD = 10;
+    private static final int SALES = 20;
+    private static final double EPSILON = 1e-9;
+
+    @TempDir
+    static Path directory;
+
+    private static dbManager db;
+
+    @BeforeAll
+    static void openDatabase() {
+        db = TestDatabase.open(directory);
+    }
+
+    @Test
+    void concurrentFirstDeliveriesCreateOneBalance() throws Exception {
+        Path catalog = directory.resolve("catalog.csv");
+        Files.writeString(catalog, "barcode,name,price,quantity,purchase_price\n" +
+                BARCODE + ",Imported " + BARCODE + ",10,7,4\n", StandardCharsets.UTF_8);
+
+        ExecutorService writers = Executors.newFixedThreadPool(DELIVERERS + 3);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+
+        // Registers the product with its first lot; refused if the import created it first
+        done.add(writers.submit(started(start, () -> new ProductService().registerNewProduct(
+                new Product("Product " + BARCODE, BARCODE, "pcs", 10), new StockEntry(10, 4, 0)))));
+        // Upserts the product on its barcode, with opening stock if it creates it
+        done.add(writers.submit(started(start, () -> {
+            CatalogImportResult result = new CatalogImportService().importCatalog(catalog.toFile(), null);
+            assertNotNull(result);
+            assertEquals(1, result.getRowsImported());
+            return result;
+        })));
+        // Deliveries of further lots, retried until the product exists
+        for (int d = 0; d < DELIVERERS; d++) {
+            done.add(writers.submit(started(start, () -> {
+                for (int i = 0; i < DELIVERIES_PER_THREAD; i++) {
+                    while (!new ProductService().addBatchEntry(
+                            new Product("Product " + BARCODE, BARCODE, "pcs", 10), new StockEntry(5, 4, 0))) {
+                        Thread.sleep(1);
+                    }
+                }
+                return null;
+            })));
+        }
+        // Sales of one unit each as soon as the product exists, refused while the stock is short
+        List<Future<Integer>> sales = new ArrayList<>();
+        done.add(writers.submit(started(start, () -> {
+            int productId = awaitProductId();
+            for (int i = 0; i < SALES; i++) {
+                List<SaleItem> items = List.of(new SaleItem(productId, 1, 10));
+                sales.add(SaleWriteQueue.getInstance().submit(items, TestDatabase.sale(items)));
+            }
+            return null;
+        })));
+
+        start.countDown();
+        for (Future<?> future : done) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        writers.shutdown();
+        for (Future<Integer> sale : sales) {
+            try {
+                sale.get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("Insufficient stock"), e.getCause().getMessage());
+            }
+        }
+
+        int productId = awaitProductId();
+        assertEquals(1, (int) db.queryOne("SELECT COUNT(*) AS n FROM stock_balances WHERE product_id = ?",
+                resultSet -> resultSet.getInt("n"), productId));
+        double delivered = db.queryOne("SELECT SUM(quantity) AS delivered FROM stock_entries WHERE product_id = ?",
+                resultSet -> resultSet.getDouble("delivered"), productId);
+        // At least the registration or the import's opening lot, and every delivery
+        assertTrue(delivered >= DELIVERERS * DELIVERIES_PER_THREAD * 5 + 7);
+        assertEquals(delivered - TestDatabase.soldQuantity(productId), TestDatabase.stock(productId), EPSILON);
+        assertEquals(TestDatabase.stock(productId), TestDatabase.lotsRemaining(productId), EPSILON);
+    }
+
+    private static <T> Callable<T> started(CountDownLatch start, Callable<T> work) {
+        return () -> {
+            start.await();
+            return work.call();
+        };
+    }
+
+    // ID of the product once one of the writers has created it
+    private static int awaitProductId() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            Integer id = db.queryOne("SELECT id FROM products WHERE barcode = ?",
+                    resultSet -> resultSet.getInt("id"), BARCODE);
+            if (id != null) {
+                return id;
+            }
+            Thread.sleep(1);
+        }
+        throw new AssertionError("Product " + BARCODE + " was never created");
+    }
+}
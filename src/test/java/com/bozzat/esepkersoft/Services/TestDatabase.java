@@ -0,0 +1,186 @@
+package com.bozzat.esepkersoft.Services;
+
+import com.bozzat.esepkersoft.Models.Product;
+import com.bozzat.esepkersoft.Models.Sale;
+import com.bozzat.esepkersoft.Models.SaleItem;
+import com.bozzat.esepkersoft.Models.StockEntry;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Points the services at a database file and journal in a temporary directory. Must run
+ * before anything touches dbManager, which reads the path once; surefire gives every test
+ * class its own JVM. The helpers create their services per call for the same reason.
+ */
+final class TestDatabase {
+    // Sales written per batch by seedHistory
+    private static final int SEED_CHUNK = 50_000;
+
+    private TestDatabase() {
+    }
+
+    static dbManager open(Path directory) {
+        Path file = directory.resolve("shop.db").toAbsolutePath().normalize();
+        System.setProperty("esepkersoft.db", file.toString());
+        System.setProperty("esepkersoft.saleJournal", directory.resolve("sales.journal").toString());
+        dbManager db = dbManager.getInstance();
+        // A service created earlier (e.g. in a field initializer) has already opened another file
+        String opened = db.queryOne("PRAGMA database_list", resultSet -> resultSet.getString("file"));
+        if (opened == null || !file.equals(Path.of(opened).toAbsolutePath().normalize())) {
+            throw new IllegalStateException("dbManager was opened on " + opened + " before TestDatabase.open");
+        }
+        return db;
+    }
+
+    // Registers a product with one lot of the given quantity, returns its ID
+    static int addProduct(String barcode, double quantity, double price) {
+        Product product = new ProductService().registerNewProduct(
+                new Product("Product " + barcode, barcode, "pcs", price),
+                new StockEntry(quantity, price / 2, 0));
+        if (product == null) {
+            throw new IllegalStateException("Failed to register product " + barcode);
+        }
+        return product.getId();
+    }
+
+    /**
+     * Writes a shop's history directly, for the benchmarks: products spread over 10 categories,
+     * each with one lot of stock, and sales of 1 to 5 lines spread over the days before today.
+     * The daily rollups are rebuilt afterwards. Fixed seed, so every run gets the same data.
+     *
+     * @return IDs of the products
+     */
+    static List<Integer> seedHistory(int productCount, double stockPerProduct, int saleCount, int days) {
+        Random random = new Random(42);
+        String[] paymentMethods = {"cash", "card", "transfer"};
+        List<Integer> productIds = new ArrayList<>(productCount);
+        Boolean seeded = dbManager.getInstance().inTransaction(tx -> {
+            List<Object[]> categories = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                categories.add(new Object[]{"Category " + i});
+            }
+            tx.executeBatch("INSERT INTO categories (name) VALUES (?)", categories);
+
+            int firstProduct = nextId(tx, "products");
+            int firstCategory = nextId(tx, "categories") - 10;
+            LocalDateTime received = LocalDate.now().minusDays(days + 1).atStartOfDay();
+            List<Object[]> products = new ArrayList<>(productCount);
+            List<Object[]> lots = new ArrayList<>(productCount);
+            List<Object[]> balances = new ArrayList<>(productCount);
+            for (int i = 0; i < productCount; i++) {
+                int id = firstProduct + i;
+                products.add(new Object[]{id, productName(i), "SEED-" + id, "pcs", 10 + i % 90, firstCategory + i % 10});
+                lots.add(new Object[]{id, stockPerProduct, 5 + i % 45, Timestamps.format(received),
+                        Timestamps.toEpochMillis(received), stockPerProduct});
+                balances.add(new Object[]{id, stockPerProduct});
+                productIds.add(id);
+            }
+            tx.executeBatch("INSERT INTO products (id, name, barcode, unit_type, current_price, category_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)", products);
+            tx.executeBatch("INSERT INTO stock_entries (product_id, quantity, purchase_price, arrival_date, " +
+                    "arrival_date_ms, remaining_quantity) VALUES (?, ?, ?, ?, ?, ?)", lots);
+            tx.executeBatch("INSERT INTO stock_balances (product_id, quantity) VALUES (?, ?)", balances);
+
+            int firstSale = nextId(tx, "sales");
+            LocalDateTime firstDay = LocalDate.now().minusDays(days).atStartOfDay();
+            List<Object[]> sales = new ArrayList<>(SEED_CHUNK);
+            List<Object[]> items = new ArrayList<>(SEED_CHUNK * 3);
+            for (int i = 0; i < saleCount; i++) {
+                int saleId = firstSale + i;
+                LocalDateTime time = firstDay.plusSeconds(random.nextLong(days * 86_400L));
+                double total = 0;
+                for (int line = 1 + random.nextInt(5); line > 0; line--) {
+                    int product = productIds.get(random.nextInt(productCount));
+                    double quantity = 1 + random.nextInt(3);
+                    double price = 10 + product % 90;
+                    items.add(new Object[]{saleId, product, quantity, price});
+                    total += quantity * price;
+                }
+                sales.add(new Object[]{saleId, total, paymentMethods[random.nextInt(paymentMethods.length)],
+                        Timestamps.format(time), Timestamps.toEpochMillis(time)});
+                // Written in chunks, millions of rows held at once would not fit the heap
+                if (sales.size() == SEED_CHUNK || i == saleCount - 1) {
+                    tx.executeBatch("INSERT INTO sales (id, total_amount, payment_method, sale_time, sale_time_ms) " +
+                            "VALUES (?, ?, ?, ?, ?)", sales);
+                    tx.executeBatch("INSERT INTO sales_items (sale_id, product_id, quantity, unit_price) VALUES (?, ?, ?, ?)", items);
+                    sales.clear();
+                    items.clear();
+                }
+            }
+            return true;
+        });
+        if (seeded == null || !new RollupService().rebuild()) {
+            throw new IllegalStateException("Failed to seed the sales history");
+        }
+        return productIds;
+    }
+
+    // Shop-like names for the search benchmarks: the word lists have coprime lengths,
+    // so the first 30 * 23 * 11 * 7 = 53 130 products all get different names
+    private static String productName(int index) {
+        String[] kinds = {"Молоко", "Кефир", "Йогурт", "Сыр", "Масло", "Хлеб", "Батон", "Печенье", "Шоколад",
+                "Конфеты", "Чай", "Кофе", "Сок", "Вода", "Лимонад", "Макароны", "Рис", "Гречка", "Мука", "Сахар",
+                "Соль", "Колбаса", "Сосиски", "Пельмени", "Курица", "Рыба", "Яблоки", "Бананы", "Шампунь", "Мыло"};
+        String[] brands = {"Простоквашино", "Домик в деревне", "Агуша", "Лактель", "Савушкин", "Эконива", "Коровка",
+                "Любятово", "Алёнка", "Бабаевский", "Greenfield", "Ahmad", "Jacobs", "Nescafe", "Добрый", "Rich",
+                "Bonaqua", "Макфа", "Барилла", "Увелка", "Мираторг", "Черкизово", "Dove"};
+        String[] variants = {"классический", "отборный", "домашний", "нежный", "фермерский", "детский",
+                "лёгкий", "премиум", "традиционный", "с клубникой", "без сахара"};
+        String[] sizes = {"100 г", "250 г", "500 г", "900 г", "1 кг", "0.5 л", "1 л"};
+        return kinds[index % kinds.length] + " " + brands[index % brands.length] + " " +
+                variants[index % variants.length] + " " + sizes[index % sizes.length];
+    }
+
+    private static int nextId(Tx tx, String table) throws java.sql.SQLException {
+        Integer next = tx.queryOne("SELECT COALESCE(MAX(id), 0) + 1 AS next FROM " + table,
+                resultSet -> resultSet.getInt("next"));
+        return next != null ? next : 1;
+    }
+
+    // Receives another lot of an existing product
+    static void addStock(String barcode, double quantity) {
+        Product product = new Product("Product " + barcode, barcode, "pcs", 1);
+        if (!new ProductService().addBatchEntry(product, new StockEntry(quantity, 1, 0))) {
+            throw new IllegalStateException("Failed to add stock for " + barcode);
+        }
+    }
+
+    static Sale sale(List<SaleItem> items) {
+        double total = 0;
+        for (SaleItem item : items) {
+            total += item.getQuantity() * item.getUnitPrice();
+        }
+        return new Sale("cash", total);
+    }
+
+    static double stock(int productId) {
+        return new ProductService().getStockQuantity(productId);
+    }
+
+    // Sum of remaining_quantity over the product's lots, must match its stock balance
+    static double lotsRemaining(int productId) {
+        Double remaining = dbManager.getInstance().queryOne(
+                "SELECT COALESCE(SUM(remaining_quantity), 0) AS remaining FROM stock_entries WHERE product_id = ?",
+                resultSet -> resultSet.getDouble("remaining"), productId);
+        return remaining != null ? remaining : -1;
+    }
+
+    // Quantity sold of the product over all sales
+    static double soldQuantity(int productId) {
+        Double sold = dbManager.getInstance().queryOne(
+                "SELECT COALESCE(SUM(quantity), 0) AS sold FROM sales_items WHERE product_id = ?",
+                resultSet -> resultSet.getDouble("sold"), productId);
+        return sold != null ? sold : -1;
+    }
+
+    static int count(String table) {
+        Integer count = dbManager.getInstance().queryOne("SELECT COUNT(*) AS n FROM " + table,
+                resultSet -> resultSet.getInt("n"));
+        return count != null ? count : -1;
+    }
+}